@@ -0,0 +1,78 @@
+package ritzow.sandbox.client;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import ritzow.sandbox.util.Utility;
+import ritzow.sandbox.world.World;
+import ritzow.sandbox.world.entity.Entity;
+
+/**
+ * Moves entities to the positions the server says they should be at over a short time instead of all at once,
+ * so that corrections to the client's own simulation don't appear as entities jumping between positions.
+ * Entities keep moving according to their velocity while they are being corrected.
+ * @author Solomon Ritzow
+ */
+final class CorrectionSmoother {
+	/** The time over which about two thirds of a correction is applied **/
+	private static final float CORRECTION_TIME = Utility.millisToNanos(100);
+
+	/** Errors larger than this many blocks are corrected immediately, since moving that far would look wrong **/
+	private static final float SNAP_DISTANCE = 4;
+
+	/** Errors smaller than the quantization of entity positions aren't worth correcting **/
+	private static final float MIN_ERROR = 1 / 256f;
+
+	private static final class Correction {
+		final Entity entity;
+		float errorX, errorY;
+
+		Correction(Entity entity) {
+			this.entity = entity;
+		}
+	}
+
+	private final Map<Integer, Correction> corrections = new HashMap<>();
+
+	/** Starts moving an entity to a position, replacing any correction still in progress **/
+	void correct(Entity e, float positionX, float positionY) {
+		float errorX = positionX - e.getPositionX(), errorY = positionY - e.getPositionY();
+		if(Math.abs(errorX) > SNAP_DISTANCE || Math.abs(errorY) > SNAP_DISTANCE) {
+			e.setPositionX(positionX);
+			e.setPositionY(positionY);
+			corrections.remove(e.getID());
+		} else if(Math.abs(errorX) < MIN_ERROR && Math.abs(errorY) < MIN_ERROR) {
+			corrections.remove(e.getID());
+		} else {
+			Correction correction = corrections.get(e.getID());
+			if(correction == null || correction.entity != e) {
+				correction = new Correction(e);
+				corrections.put(e.getID(), correction);
+			}
+			correction.errorX = errorX;
+			correction.errorY = errorY;
+		}
+	}
+
+	/** Applies part of each correction in progress, forgetting entities that are no longer in the world **/
+	void update(World world, long nanoseconds) {
+		float fraction = 1 - (float)Math.exp(-nanoseconds / CORRECTION_TIME);
+		Iterator<Correction> iterator = corrections.values().iterator();
+		while(iterator.hasNext()) {
+			Correction correction = iterator.next();
+			Entity e = correction.entity;
+			if(world.getEntityFromIdOrNull(e.getID()) != e) {
+				iterator.remove();
+			} else {
+				float moveX = correction.errorX * fraction, moveY = correction.errorY * fraction;
+				e.setPositionX(e.getPositionX() + moveX);
+				e.setPositionY(e.getPositionY() + moveY);
+				correction.errorX -= moveX;
+				correction.errorY -= moveY;
+				if(Math.abs(correction.errorX) < MIN_ERROR && Math.abs(correction.errorY) < MIN_ERROR) {
+					iterator.remove();
+				}
+			}
+		}
+	}
+}
@@ -4,7 +4,6 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.util.Map;
-import java.util.concurrent.CompletableFuture;
 import java.util.function.DoubleConsumer;
 import java.util.logging.Level;
 import ritzow.sandbox.client.audio.AudioSystem;
@@ -28,9 +27,13 @@ import ritzow.sandbox.client.world.ClientWorldRendererLightmap;
 import ritzow.sandbox.client.world.block.ClientBlockProperties;
 import ritzow.sandbox.client.world.entity.ClientPlayerEntity;
 import ritzow.sandbox.data.Bytes;
+import ritzow.sandbox.data.Codec;
 import ritzow.sandbox.data.Transportable;
+import ritzow.sandbox.network.EntitySnapshotReceiver;
 import ritzow.sandbox.network.NetworkUtility;
 import ritzow.sandbox.util.Utility;
+import ritzow.sandbox.world.BlockChunk;
+import ritzow.sandbox.world.BlockGrid;
 import ritzow.sandbox.world.World;
 import ritzow.sandbox.world.block.Block;
 import ritzow.sandbox.world.entity.Entity;
@@ -52,11 +55,21 @@ class InWorldContext implements GameTalker {
 	private GuiElement overlayGUI;
 	private Holder<Icon> blockGUI;
 	private EditableText framerateDisplay;
-	private World world;
+	private final World world;
 
-	private ByteBuffer worldDownloadBuffer;
+	/** The number of chunks around the player to receive before entering the world **/
+	private final int joinChunks;
+	private int chunksReceived;
+	private long lastJoiningPing;
 	private final DoubleConsumer downloadProgressAction;
-	private CompletableFuture<World> worldBuildTask;
+
+	/** The chunk currently being received, which may be split across several messages **/
+	private ByteBuffer chunkBuffer;
+	private int chunkIndex;
+
+	private final EntitySnapshotReceiver entitySnapshots = new EntitySnapshotReceiver();
+	private final PlayerPrediction prediction = new PlayerPrediction();
+	private final CorrectionSmoother corrections = new CorrectionSmoother();
 
 	private final ControlsContext controlsContext = new ControlsContext(
 		FULLSCREEN,
@@ -131,42 +144,78 @@ class InWorldContext implements GameTalker {
 		Map.entry(SLOT_SELECT_3, () -> selectSlot(2))
 	);
 
-	public InWorldContext(Client client, int downloadSize, int playerID, DoubleConsumer downloadProgress) {
-		log().info("Downloading " + Utility.formatSize(downloadSize) + " of world data");
+	public InWorldContext(Client client, int playerID, int width, int height, int joinChunks, DoubleConsumer downloadProgress) {
+		log().info("Joining " + width + " by " + height + " block world");
 		this.client = client;
-		this.worldDownloadBuffer = ByteBuffer.allocate(downloadSize);
+		this.world = new World(width, height);
+		this.joinChunks = joinChunks;
 		this.downloadProgressAction = downloadProgress;
 		downloadProgressAction.accept(0);
 		this.playerID = playerID;
 	}
 
+	/** Receives entities and the chunks around the player, the rest of the world is received after joining **/
 	public void updateJoining() {
-		if(worldBuildTask == null) {
-			client.update(data -> {
-				short type = data.getShort();
-				if(type == TYPE_SERVER_WORLD_DATA) {
-					downloadProgressAction.accept(worldDownloadBuffer.put(data).position()/(double)worldDownloadBuffer.limit());
-					if(!worldDownloadBuffer.hasRemaining()) {
-						log().info("Received all world data");
-						worldBuildTask = CompletableFuture.supplyAsync(this::buildWorld);
-					}
-				} else {
-					throw new ServerBadDataException("Received incorrect message type " + type + " during world download");
-				}
-				return true;
-			});
-		} else if(worldBuildTask.isDone()) {
+		if(Utility.nanosSince(lastJoiningPing) > RESEND_INTERVAL) {
+			sendPing();
+			lastJoiningPing = System.nanoTime();
+		}
+		client.update(this::processJoining);
+		if(chunksReceived >= joinChunks) {
 			setupAfterReceiveWorld();
-		} //TODO else maybe send a ping back to server or something?
+		}
+	}
+
+	private boolean processJoining(ByteBuffer data) {
+		short type = data.getShort();
+		switch(type) {
+			case TYPE_CONSOLE_MESSAGE -> processServerConsoleMessage(data);
+			case TYPE_SERVER_WORLD_CHUNK -> processWorldChunk(data);
+			case TYPE_SERVER_CREATE_ENTITY -> world.add(deserializeEntity(data));
+			case TYPE_SERVER_DELETE_ENTITY -> world.remove(data.getInt());
+			case TYPE_SERVER_REMOVE_BLOCK -> removeBlock(data.getInt(), data.getInt());
+			case TYPE_SERVER_PLACE_BLOCK -> placeBlock(data.getInt(), data.getInt(), deserialize(data));
+			case TYPE_SERVER_CLIENT_DISCONNECT -> processServerDisconnect(data);
+			default -> throw new ServerBadDataException("Received incorrect message type " + type + " while joining");
+		}
+		//leave remaining messages for process once there is enough of the world to enter it
+		return chunksReceived < joinChunks;
+	}
+
+	private void processWorldChunk(ByteBuffer data) {
+		int index = data.getInt(), size = data.getInt();
+		if(chunkBuffer == null) {
+			chunkBuffer = ByteBuffer.allocate(size);
+			chunkIndex = index;
+		} else if(index != chunkIndex || size != chunkBuffer.capacity()) {
+			throw new ServerBadDataException("Received part of chunk " + index + " before chunk " + chunkIndex + " was complete");
+		}
+
+		if(chunkBuffer.put(data).hasRemaining())
+			return;
+		BlockChunk chunk = SerializationProvider.getProvider().deserialize(Codec.decode(chunkBuffer.flip()));
+		chunkBuffer = null;
+		world.getBlocks().setChunk(index, chunk);
+		if(worldRenderer != null) {
+			worldRenderer.updateLighting(index * BlockGrid.CHUNK_WIDTH, 0, BlockGrid.CHUNK_WIDTH, world.getBlocks().getHeight());
+		} else {
+			chunksReceived++;
+			downloadProgressAction.accept(Math.min(1.0, chunksReceived/(double)joinChunks));
+		}
 	}
 
 	private void setupAfterReceiveWorld() {
-		world = worldBuildTask.join();
-		worldDownloadBuffer = null; //release the downloaded data to the garbage collector
-		worldBuildTask = null;
+		log().info("Received " + chunksReceived + " chunks around the player");
 		player = getEntity(playerID);
+		if(player == null)
+			throw new ServerBadDataException("Server did not send the player entity");
 		cameraGrip = new TrackingCameraController(2.5f, player.getWidth() / 20f, player.getWidth() / 2f);
 		worldRenderer = new ClientWorldRendererLightmap(GameState.display(), cameraGrip.getCamera(), world);
+		for(Entity entity : world) {
+			if(entity instanceof Lit e) {
+				worldRenderer.addLight(e);
+			}
+		}
 		interactionControls = new InteractionController();
 
 		GuiElement fpsBg = new Scaler(new Icon(GameModels.MODEL_SKY), 0.25f);
@@ -232,9 +281,13 @@ class InWorldContext implements GameTalker {
 		if(playerState != lastPlayerState || Utility.nanosSince(lastPlayerStateSend) > PLAYER_STATE_SEND_INTERVAL) {
 			//The player may do something client side, but not send the player state
 			//Solution: only send player state MORE FREQUENTLY (every frame) if it has changed from last state, and ALWAYS send it in that case
-			byte[] packet = new byte[4];
+			byte[] packet = new byte[12];
 			Bytes.putShort(packet, 0, TYPE_CLIENT_PLAYER_STATE);
 			Bytes.putShort(packet, 2, playerState);
+			//acknowledges the latest entity snapshot so the server can send only what changed since it
+			Bytes.putInteger(packet, 4, entitySnapshots.latest());
+			//the server sends this back with its state of the player so later frames can be simulated again
+			Bytes.putInteger(packet, 8, prediction.nextSequence());
 			client.sendUnreliable(packet);
 			lastPlayerStateSend = System.nanoTime();
 		}
@@ -243,6 +296,8 @@ class InWorldContext implements GameTalker {
 	private void updateRender(Display display, long deltaTime) {
 		if(!StandardClientOptions.DISABLE_CLIENT_UPDATE) {
 			world.update(deltaTime); //TODO should still have a max update step
+			prediction.record(player, deltaTime);
+			corrections.update(world, deltaTime);
 		}
 		cameraGrip.update(controlsContext, player, AudioSystem.getDefault(), deltaTime);
 		int width = display.width(), height = display.height();
@@ -267,12 +322,14 @@ class InWorldContext implements GameTalker {
 		short messageType = data.getShort();
 		switch(messageType) {
 			case TYPE_CONSOLE_MESSAGE -> processServerConsoleMessage(data);
+			case TYPE_SERVER_WORLD_CHUNK -> processWorldChunk(data);
 			case TYPE_SERVER_ENTITY_UPDATE -> processUpdateEntity(data);
 			case TYPE_SERVER_CREATE_ENTITY -> processAddEntity(data);
 			case TYPE_SERVER_DELETE_ENTITY -> processRemoveEntity(data);
 			case TYPE_SERVER_REMOVE_BLOCK -> processServerRemoveBlock(data);
 			case TYPE_SERVER_PLACE_BLOCK -> processServerPlaceBlock(data);
 			case TYPE_CLIENT_PLAYER_STATE -> processPlayerState(data);
+			case TYPE_SERVER_PLAYER_STATE -> processOwnPlayerState(data);
 			case TYPE_SERVER_CLIENT_DISCONNECT -> processServerDisconnect(data);
 			case TYPE_SERVER_CLIENT_SLOT_USE_COOLDOWN -> processBlockBreakCooldown(data);
 			default -> log().severe("Client received message of unknown protocol " + messageType);
@@ -328,25 +385,48 @@ class InWorldContext implements GameTalker {
 		}
 	}
 
+	/** Replays the frames the server hasn't simulated yet on top of its state, then moves the player to the result **/
+	private void processOwnPlayerState(ByteBuffer data) {
+		int applied = data.getInt();
+		long elapsed = data.getInt() * TICK_TIME;
+		short state = data.getShort();
+		float positionX = data.getFloat(), positionY = data.getFloat();
+		float velocityX = data.getFloat(), velocityY = data.getFloat();
+		boolean grounded = data.get() != 0;
+		float currentX = player.getPositionX(), currentY = player.getPositionY();
+		prediction.reconcile(world, player, applied, elapsed, state, positionX, positionY, velocityX, velocityY, grounded);
+		float predictedX = player.getPositionX(), predictedY = player.getPositionY();
+		player.setPositionX(currentX);
+		player.setPositionY(currentY);
+		corrections.correct(player, predictedX, predictedY);
+	}
+
 	private void processServerRemoveBlock(ByteBuffer data) {
 		int x = data.getInt(), y = data.getInt();
-		int layer = world.getBlocks().getTopBlockLayer(x, y);
-		if(layer >= 0) {
-			Block block = world.getBlocks().get(layer, x, y);
-			ClientBlockProperties prev = (ClientBlockProperties)world.getBlocks().set(layer, x, y, null);
-			if(prev != null) prev.onBreak(world, world.getBlocks(), cameraGrip.getCamera(), x, y);
+		ClientBlockProperties prev = removeBlock(x, y);
+		if(prev != null) {
+			prev.onBreak(world, world.getBlocks(), cameraGrip.getCamera(), x, y);
 			worldRenderer.updateLighting(x, y);
 		}
 	}
 
+	private ClientBlockProperties removeBlock(int x, int y) {
+		int layer = world.getBlocks().getTopBlockLayer(x, y);
+		return layer >= 0 ? (ClientBlockProperties)world.getBlocks().set(layer, x, y, null) : null;
+	}
+
 	private void processServerPlaceBlock(ByteBuffer data) {
 		int x = data.getInt(), y = data.getInt();
 		ClientBlockProperties newBlock = deserialize(data);
-		world.getBlocks().set(Utility.getBlockPlaceLayer(world.getBlocks(), x, y), x, y, newBlock);
+		placeBlock(x, y, newBlock);
 		newBlock.onPlace(world, world.getBlocks(), cameraGrip.getCamera(), x, y);
 		worldRenderer.updateLighting(x, y);
 	}
 
+	private void placeBlock(int x, int y, Block block) {
+		world.getBlocks().set(Utility.getBlockPlaceLayer(world.getBlocks(), x, y), x, y, block);
+	}
+
 	@SuppressWarnings("unchecked")
 	private <E extends Entity> E getEntity(int id) {
 		return (E)world.getEntityFromID(id);
@@ -360,29 +440,28 @@ class InWorldContext implements GameTalker {
 	}
 
 	private void processAddEntity(ByteBuffer data) {
-		Entity entity = deserialize(data.get() == 1 ? Bytes.decompress(data) : data);
-		if(entity instanceof PlayerEntity) log().info("Another player connected to the server");
+		Entity entity = deserializeEntity(data);
+		if(entity instanceof PlayerEntity) log().info("Another player came into view");
 		world.add(entity);
 		if(entity instanceof Lit e) {
 			worldRenderer.addLight(e);
 		}
 	}
 
-	private void processUpdateEntity(ByteBuffer data) {
-		for(int count = data.getInt(); count > 0; --count) {
-			Entity e = world.getEntityFromIdOrNull(data.getInt());
-			if(e != null) {
-				e.setPositionX(data.getFloat());
-				e.setPositionY(data.getFloat());
-				e.setVelocityX(data.getFloat());
-				e.setVelocityY(data.getFloat());
-			}
-		}
+	private static Entity deserializeEntity(ByteBuffer data) {
+		return deserialize(Codec.decode(data));
 	}
 
-	private World buildWorld() {
-		return SerializationProvider.getProvider().deserialize(COMPRESS_WORLD_DATA ?
-			Bytes.decompress(worldDownloadBuffer.flip()) : worldDownloadBuffer.flip());
+	private void processUpdateEntity(ByteBuffer data) {
+		entitySnapshots.receive(data, (id, positionX, positionY, velocityX, velocityY) -> {
+			//the local player is corrected separately, see processOwnPlayerState
+			Entity e = world.getEntityFromIdOrNull(id);
+			if(e != null && e != player) {
+				e.setVelocityX(velocityX);
+				e.setVelocityY(velocityY);
+				corrections.correct(e, positionX, positionY);
+			}
+		});
 	}
 
 	@Override
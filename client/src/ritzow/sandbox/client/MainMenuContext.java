@@ -222,8 +222,8 @@ class MainMenuContext {
 
 				case Protocol.CONNECT_STATUS_WORLD -> {
 					log().info("Connected to server");
-					//worldSize and playerID integers
-					worldContext = new InWorldContext(client, data.getInt(), data.getInt(), progress -> {
+					//playerID, world width, world height, and number of chunks to receive before joining
+					worldContext = new InWorldContext(client, data.getInt(), data.getInt(), data.getInt(), data.getInt(), progress -> {
 						if(progress < 1.0) {
 							displayText("Loading " + (int)(progress * 100) + "%");
 						} else displayText("Building world");
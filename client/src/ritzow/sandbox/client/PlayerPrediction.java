@@ -0,0 +1,83 @@
+package ritzow.sandbox.client;
+
+import ritzow.sandbox.network.Protocol.PlayerState;
+import ritzow.sandbox.world.World;
+import ritzow.sandbox.world.entity.PlayerEntity;
+
+/**
+ * Records the player state and duration of every frame the local player is simulated for, tagged with the sequence
+ * number of the player state last sent to the server. When the server sends its own state of the player along with
+ * the latest sequence number it has applied, the player is reset to the server's state and the frames the server
+ * hasn't simulated yet are simulated again on top of it.
+ * @author Solomon Ritzow
+ */
+final class PlayerPrediction {
+	/** Enough frames to cover half a second of latency at several hundred frames per second **/
+	private static final int FRAMES = 256;
+
+	private final int[] sequences = new int[FRAMES];
+	private final short[] states = new short[FRAMES];
+	private final long[] durations = new long[FRAMES];
+	/** The index of the oldest recorded frame and the number of recorded frames **/
+	private int first, count;
+	private int sequence;
+
+	/** @return the sequence number to send with a new player state **/
+	int nextSequence() {
+		return ++sequence;
+	}
+
+	/** Records a frame simulated with the player's current state **/
+	void record(PlayerEntity player, long nanoseconds) {
+		if(count == FRAMES) {
+			first = (first + 1) % FRAMES;
+			count--;
+		}
+		int index = (first + count++) % FRAMES;
+		sequences[index] = sequence;
+		states[index] = PlayerState.getState(player, false, false);
+		durations[index] = nanoseconds;
+	}
+
+	/**
+	 * Sets the player to the server's state, then simulates the frames recorded after the server applied the player
+	 * state with the provided sequence number. Frames older than that are no longer needed and are discarded.
+	 * @param applied the sequence number of the latest player state the server applied.
+	 * @param elapsed the time the server simulated after applying it, in nanoseconds.
+	 * @param state the player state the server has.
+	 */
+	void reconcile(World world, PlayerEntity player, int applied, long elapsed, short state,
+			float positionX, float positionY, float velocityX, float velocityY, boolean grounded) {
+		while(count > 0 && sequences[first] < applied) {
+			first = (first + 1) % FRAMES;
+			count--;
+		}
+
+		short current = PlayerState.getState(player, false, false);
+		//crouching moves the player, so the state is set before the position
+		PlayerState.updatePlayer(player, state);
+		player.setPositionX(positionX);
+		player.setPositionY(positionY);
+		player.setVelocityX(velocityX);
+		player.setVelocityY(velocityY);
+		player.setGrounded(grounded);
+
+		//the server has already simulated part of the frames with the applied state
+		long skip = elapsed;
+		for(int i = 0; i < count; i++) {
+			int index = (first + i) % FRAMES;
+			long duration = durations[index];
+			if(sequences[index] == applied) {
+				if(duration <= skip) {
+					skip -= duration;
+					continue;
+				}
+				duration -= skip;
+				skip = 0;
+			}
+			PlayerState.updatePlayer(player, states[index]);
+			world.simulate(player, duration);
+		}
+		PlayerState.updatePlayer(player, current);
+	}
+}
@@ -28,6 +28,13 @@ public final class OpenGLByteTexture extends OpenGLTexture {
 		glTexImage2D(GL_TEXTURE_2D, 0, GL_R8UI, width, height, 0, GL_RED_INTEGER, GL_UNSIGNED_BYTE, 0);
 	}
 
+	/** @param data {@code width * height} values in row order, starting from the bottom left of the region **/
+	public void setPixels(int x, int y, int width, int height, ByteBuffer data) {
+		glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+		glTextureSubImage2D(id, 0, x, y, width, height, GL_RED_INTEGER, GL_UNSIGNED_BYTE, data);
+		glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
+	}
+
 	public void setPixel(int x, int y, byte value) {
 		try(MemoryStack stack = MemoryStack.stackPush()) {
 			ByteBuffer val = stack.bytes(value);
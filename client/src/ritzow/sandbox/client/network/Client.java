@@ -7,11 +7,13 @@ import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
 import java.util.*;
 import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 import ritzow.sandbox.data.Bytes;
+import ritzow.sandbox.network.Acknowledgements;
 import ritzow.sandbox.network.NetworkUtility;
 import ritzow.sandbox.network.Protocol;
-import ritzow.sandbox.network.ReceivePacket;
-import ritzow.sandbox.network.SendPacket;
+import ritzow.sandbox.network.ReceiveWindow;
+import ritzow.sandbox.network.SendWindow;
 import ritzow.sandbox.util.Utility;
 
 /**
@@ -39,14 +41,15 @@ public class Client implements AutoCloseable {
 
 	//sender/receiver state
 	private final DatagramChannel channel;
-	/** sendQueue contains unsent reliable and unreliable messages and unacknowledged reliable messages **/
-	private final Queue<SendPacket> sendQueue;
-	private final PriorityQueue<ReceivePacket> received;
+	/** sendWindow contains unsent reliable and unreliable messages and unacknowledged reliable messages **/
+	private final SendWindow sendWindow;
+	private final ReceiveWindow received;
+	private final Acknowledgements acks;
 	private final Map<Integer, Runnable> messageSentActions;
-	private int sendMessageID = 0, lastSendReliableID = -1, headProcessedID = -1;
 	private long lastMessageProcessed;
 	private boolean isUp;
-	private long ping; //rount trip time in nanoseconds
+	private static final IntConsumer NO_ACTION = id -> {};
+	private long ping = -1; //round trip time in nanoseconds
 
 	public interface MessageProcessor {
 		//todo make this take one argument
@@ -97,8 +100,9 @@ public class Client implements AutoCloseable {
 				.bind(bindAddress)
 				.connect(serverAddress);
 		this.channel.configureBlocking(false);
-		this.sendQueue = new ArrayDeque<>();
-		this.received = new PriorityQueue<>();
+		this.sendWindow = new SendWindow();
+		this.received = new ReceiveWindow();
+		this.acks = new Acknowledgements();
 		this.messageSentActions = new HashMap<>();
 		this.isUp = true;
 	}
@@ -120,21 +124,21 @@ public class Client implements AutoCloseable {
 	}
 
 	/**
-	 * @return the round trip time for the last
-	 * reliable message sent to the server, in nanoseconds.
+	 * @return the estimated round trip time to the server in nanoseconds,
+	 * or -1 if no reliable message has been acknowledged yet.
 	 */
 	public long getPing() {
 		return ping;
 	}
 
 	/** Queues an unreliable message
-	 * @param data the packet message, including message type, to send **/
+	 * @param data the packet message, including message type, to send, which must not be modified afterwards **/
 	public void sendUnreliable(byte[] data) {
 		send(data, false);
 	}
 
 	/** Queues a reliable message
-	 * @param data the packet message, including message type, to send **/
+	 * @param data the packet message, including message type, to send, which must not be modified afterwards **/
 	public void sendReliable(byte[] data) {
 		send(data, true);
 	}
@@ -143,16 +147,13 @@ public class Client implements AutoCloseable {
 	 * @param data the packet message, including message type, to send
 	 * @param action an action to run when the message is acknowledged by the server **/
 	public void sendReliable(byte[] data, Runnable action) {
-		messageSentActions.put(sendMessageID, action);
-		send(data, true);
+		messageSentActions.put(send(data, true), action);
 	}
 
-	private void send(byte[] data, boolean reliable) {
-		SendPacket packet = new SendPacket(Arrays.copyOf(data, data.length), sendMessageID, lastSendReliableID, reliable, -1);
-		if(reliable) lastSendReliableID = sendMessageID;
-		sendMessageID++;
-		sendQueue.add(packet); //TODO don't queue the packet if it is unreliable and the send queue is empty
+	/** @return the ID of the message **/
+	private int send(byte[] data, boolean reliable) {
 		//TODO send immediately when there are no queued packets, even if reliable?
+		return sendWindow.add(data, reliable);
 	}
 
 	/**
@@ -177,7 +178,7 @@ public class Client implements AutoCloseable {
 	public void update(MessageProcessor processor) {
 		try {
 			//already connected to server so no need to check SocketAddress
-			boolean cont = true;
+			boolean cont = processQueued(processor);
 			while(isUp && cont && channel.read(receiveBuffer) > 0 /*channel.receive(receiveBuffer) != null*/) {
 				receiveBuffer.flip(); //flip to set limit and prepare to read packet data
 				cont = processReceived(processor); //process messages from the server
@@ -195,114 +196,70 @@ public class Client implements AutoCloseable {
 		}
 	}
 
+	/** Sends queued messages packed into as few packets as possible, or an acknowledgement if there is nothing else to send **/
 	private void sendQueued() throws IOException {
-		//TODO maybe separate reliable messages into a different datastructure and use queue only for unreliables?
-		//TODO possible to do in reverse to process oldest first (the ones holding the rest up)?
-		Iterator<SendPacket> packets = sendQueue.iterator();
-		while(packets.hasNext()) {
-			SendPacket packet = packets.next();
-			if(packet.reliable) {
-				long time = System.nanoTime();
-				if(packet.lastSendTime == -1 || time - packet.lastSendTime > Protocol.RESEND_INTERVAL) {
-					sendBuffer(Protocol.RELIABLE_TYPE, packet.messageID, packet.lastReliableID, packet.data);
-					packet.lastSendTime = time;
-				}
-			} else {
-				//always remove unreliable messages, they will never be re-sent
-				packets.remove();
-				sendBuffer(Protocol.UNRELIABLE_TYPE, packet.messageID, packet.lastReliableID, packet.data);
-			}
-		}
+		sendWindow.send(System.nanoTime(), sendBuffer, acks, channel::write);
 	}
 
-	private void sendBuffer(byte type, int messageID, int lastSendReliableID, byte[] data) throws IOException {
-		channel.write(sendBuffer.put(type).putInt(messageID).putInt(lastSendReliableID).put(data).flip());
-		sendBuffer.clear();
+	private void runSentAction(int messageID) {
+		Runnable action = messageSentActions.remove(messageID);
+		if(action != null) action.run();
 	}
 
-	private void sendResponse(int receivedMessageID) throws IOException {
-		channel.write(sendBuffer.put(Protocol.RESPONSE_TYPE).putInt(receivedMessageID).flip());
-		sendBuffer.clear();
-	}
-
-	private boolean processReceived(MessageProcessor processor) throws IOException {
+	private boolean processReceived(MessageProcessor processor) {
 		if(receiveBuffer.limit() >= Protocol.MIN_PACKET_SIZE) {
-			byte type = receiveBuffer.get(); //type of message (RESPONSE, RELIABLE, UNRELIABLE)
-			int messageID = receiveBuffer.getInt(); //received ID or messageID for ack.
-			switch(type) {
-				case Protocol.RESPONSE_TYPE -> {
-					//remove packet from send queue once acknowledged
-					Iterator<SendPacket> packets = sendQueue.iterator();
-					while(packets.hasNext()) { //always decreasing in ID
-						SendPacket packet = packets.next();
-						if(packet.messageID < messageID) {
-							break;
-						} else if(packet.messageID == messageID) {
-							//can run multiple times for duplicates
-							packets.remove();
-							var action = messageSentActions.get(packet.messageID);
-							if(action != null) action.run();
-						}
-					}
-				}
-
-				//predecessorID needs to be replaced with messageID in some of this, fix
-				case Protocol.RELIABLE_TYPE -> {
-					sendResponse(messageID);
-					if(messageID > headProcessedID) {
-						int predecessorID = receiveBuffer.getInt();
-						if(predecessorID <= headProcessedID) {
-							//no need to add to the queue, this is the next message in the stream.
-							sendResponse(messageID);
-							return process(processor, messageID, receiveBuffer);
-						} else if(predecessorID > headProcessedID) {
-							//predecessorID > headProcessedID
-							//this will also happen if the message was already received
-							//this wastes space in case of
-							queueReceived(messageID, predecessorID, true, receiveBuffer);
-						}
-					}
-				}
-
-				case Protocol.UNRELIABLE_TYPE -> {
-					//only process messages that aren't older than already processed messages
-					//in order to keep all message processing in order
-					if(messageID > headProcessedID) {
-						int predecessorID = receiveBuffer.getInt();
-						if(predecessorID > headProcessedID) {
-							queueReceived(messageID, predecessorID, false, receiveBuffer);
-						} else {
-							//don't need to queue something that can be processed immediately
-							return process(processor, messageID, receiveBuffer);
-						}
+			//every packet acknowledges the messages the server has received
+			sendWindow.acknowledge(System.nanoTime(), receiveBuffer.getInt(), receiveBuffer.getLong(),
+				messageSentActions.isEmpty() ? NO_ACTION : this::runSentAction);
+			ping = sendWindow.roundTripTime();
+			boolean cont = true;
+			//the rest of the packet is any number of messages, each with its own header
+			while(receiveBuffer.remaining() >= Protocol.MESSAGE_HEADER_SIZE) {
+				byte type = receiveBuffer.get();
+				int messageID = receiveBuffer.getInt();
+				int predecessorID = receiveBuffer.getInt();
+				int length = Short.toUnsignedInt(receiveBuffer.getShort());
+				if((type != Protocol.RELIABLE_TYPE && type != Protocol.UNRELIABLE_TYPE) || length > receiveBuffer.remaining())
+					break; //malformed, ignore the rest of the packet
+				ByteBuffer data = receiveBuffer.slice(receiveBuffer.position(), length);
+				receiveBuffer.position(receiveBuffer.position() + length);
+				//duplicates are acknowledged too, in case the acknowledgement was lost
+				if(type == Protocol.RELIABLE_TYPE) acks.receivedReliable(messageID);
+				//only process messages that aren't older than already processed messages
+				//in order to keep all message processing in order
+				if(messageID > acks.head()) {
+					if(cont && predecessorID <= acks.head()) {
+						//no need to add to the queue, this is the next message in the stream.
+						cont = process(processor, messageID, data);
+					} else {
+						//this will also happen if the message was already received, or if the
+						//processor stopped processing, in which case it is processed by the next update
+						//messages too far ahead are dropped, and resent by the server if reliable
+						received.add(acks.head(), messageID, predecessorID, data);
 					}
 				}
 			}
+			return cont;
 		}
 		return true; //if a message is not processed, always continue processing
 	}
 
-	private void queueReceived(int messageID, int predecessorID, boolean reliable, ByteBuffer data) {
-		byte[] copy = new byte[data.remaining()];
-		receiveBuffer.get(copy);
-		received.add(new ReceivePacket(messageID, predecessorID, reliable, copy));
+	private boolean process(MessageProcessor processor, int messageID, ByteBuffer data) {
+		lastMessageProcessed = System.nanoTime();
+		boolean cont = processor.process(data);
+		acks.processed(messageID);
+		return cont && processQueued(processor);
 	}
 
-	private boolean process(MessageProcessor processor, int messageID, ByteBuffer receiveBuffer) {
-		lastMessageProcessed = System.nanoTime();
-		boolean cont = processor.process(receiveBuffer);
-		headProcessedID = messageID;
-		//TODO dont do this part if unreliable message?
-		ReceivePacket packet = received.peek();
-		while(cont && packet != null && packet.predecessorReliableID() <= headProcessedID) {
-			received.poll();
-			if(packet.messageID() > headProcessedID) {
-				cont = processor.process(ByteBuffer.wrap(packet.data()));
-				headProcessedID = packet.messageID();
-			} //else was a duplicate
-			packet = received.peek();
+	/** Processes held messages that no longer have to wait for an earlier message **/
+	private boolean processQueued(MessageProcessor processor) {
+		boolean cont = true;
+		int next;
+		while(cont && (next = received.next(acks.head())) != -1) {
+			lastMessageProcessed = System.nanoTime();
+			cont = processor.process(received.take(next));
+			acks.processed(next);
 		}
-
 		return cont;
 	}
 }
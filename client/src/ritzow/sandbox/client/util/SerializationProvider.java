@@ -8,13 +8,16 @@ import ritzow.sandbox.client.world.entity.ClientPlayerEntity;
 import ritzow.sandbox.client.world.item.ClientBlockItem;
 import ritzow.sandbox.data.SerializerReaderWriter;
 import ritzow.sandbox.network.Protocol;
+import ritzow.sandbox.world.BlockChunk;
 import ritzow.sandbox.world.BlockGrid;
 import ritzow.sandbox.world.World;
 import ritzow.sandbox.world.component.Inventory;
 
 public final class SerializationProvider {
 	private static final SerializerReaderWriter provider = new SerializerReaderWriter()
-			.registerRead(Protocol.DATA_BLOCK_GRID, BlockGrid::new)
+			.registerRead(Protocol.DATA_BLOCK_GRID_RLE, BlockGrid::new)
+			.registerRead(Protocol.DATA_BLOCK_GRID, BlockGrid::readLegacy)
+			.registerRead(Protocol.DATA_BLOCK_CHUNK, BlockChunk::new)
 			.registerRead(Protocol.DATA_WORLD, World::new)
 			.registerRead(Protocol.DATA_BLOCK_ITEM, ClientBlockItem::new)
 			.registerRead(Protocol.DATA_DIRT_BLOCK, ClientDirtBlock::getSingleton)
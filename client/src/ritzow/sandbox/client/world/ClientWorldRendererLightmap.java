@@ -4,6 +4,7 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import org.lwjgl.BufferUtils;
+import org.lwjgl.system.MemoryUtil;
 import ritzow.sandbox.client.graphics.*;
 import ritzow.sandbox.client.util.ClientUtility;
 import ritzow.sandbox.client.world.block.ClientBlockProperties;
@@ -65,6 +66,25 @@ public final class ClientWorldRendererLightmap {
 		solidMap.setPixel(x, y, light(x, y));
 	}
 
+	/** Updates the lighting of a rectangular region of blocks, clamped to the world **/
+	public void updateLighting(int x, int y, int width, int height) {
+		BlockGrid blocks = world.getBlocks();
+		int right = Math.min(x + width, blocks.getWidth()), top = Math.min(y + height, blocks.getHeight());
+		if(right > x && top > y) {
+			ByteBuffer buffer = MemoryUtil.memAlloc((right - x) * (top - y));
+			try {
+				for(int row = y; row < top; row++) {
+					for(int column = x; column < right; column++) {
+						buffer.put(light(column, row));
+					}
+				}
+				solidMap.setPixels(x, y, right - x, top - y, buffer.flip());
+			} finally {
+				MemoryUtil.memFree(buffer);
+			}
+		}
+	}
+
 	private byte light(int x, int y) {
 		int layer = world.getBlocks().getTopBlockLayer(x, y);
 		return switch(layer) {
@@ -33,8 +33,8 @@ public final class ClientItemEntity<I extends Item> extends ItemEntity<I> implem
 			g.getModel(),
 			g.getOpacity(),
 			exposure,
-			positionX,
-			positionY,
+			getPositionX(),
+			getPositionY(),
 			g.getScaleX() * 0.5f,
 			g.getScaleY() * 0.5f,
 			g.getRotation() + rotation
@@ -24,8 +24,8 @@ public class ClientPlayerEntity extends PlayerEntity implements Renderable, Lit
 			GameModels.MODEL_GREEN_FACE,
 			1.0f,
 			exposure,
-			positionX,
-			positionY + (down ? 0 : SIZE_SCALE / 2),
+			getPositionX(),
+			getPositionY() + (down ? 0 : SIZE_SCALE / 2),
 			SIZE_SCALE,
 			SIZE_SCALE,
 			0.0f
@@ -35,8 +35,8 @@ public class ClientPlayerEntity extends PlayerEntity implements Renderable, Lit
 				GameModels.MODEL_BLUE_SQUARE,
 				1.0f,
 				exposure,
-				positionX,
-				positionY - SIZE_SCALE / 2,
+				getPositionX(),
+				getPositionY() - SIZE_SCALE / 2,
 				SIZE_SCALE,
 				SIZE_SCALE,
 				0
@@ -3,8 +3,10 @@ package ritzow.sandbox.server;
 import ritzow.sandbox.data.SerializerReaderWriter;
 import ritzow.sandbox.network.Protocol;
 import ritzow.sandbox.server.world.entity.ServerPlayerEntity;
+import ritzow.sandbox.world.BlockChunk;
 import ritzow.sandbox.world.BlockGrid;
 import ritzow.sandbox.world.World;
+import ritzow.sandbox.world.WorldSnapshot;
 import ritzow.sandbox.world.block.DirtBlock;
 import ritzow.sandbox.world.block.GlassBlock;
 import ritzow.sandbox.world.block.GrassBlock;
@@ -15,7 +17,11 @@ import ritzow.sandbox.world.item.BlockItem;
 public class SerializationProvider {
 	private static final SerializerReaderWriter provider = new SerializerReaderWriter()
 			.register(Protocol.DATA_WORLD, World.class, World::new)
-			.register(Protocol.DATA_BLOCK_GRID, BlockGrid.class, BlockGrid::new)
+			.registerWrite(Protocol.DATA_WORLD, WorldSnapshot.class)
+			.register(Protocol.DATA_BLOCK_GRID_RLE, BlockGrid.class, BlockGrid::new)
+			.registerRead(Protocol.DATA_BLOCK_GRID, BlockGrid::readLegacy)
+			.register(Protocol.DATA_BLOCK_GRID_DIMENSIONS, BlockGrid.Dimensions.class, BlockGrid::readDimensions)
+			.register(Protocol.DATA_BLOCK_CHUNK, BlockChunk.class, BlockChunk::new)
 			.register(Protocol.DATA_BLOCK_ITEM, BlockItem.class, BlockItem::new)
 			.register(Protocol.DATA_DIRT_BLOCK, DirtBlock.class, reader -> DirtBlock.INSTANCE)
 			.register(Protocol.DATA_GRASS_BLOCK, GrassBlock.class, reader -> GrassBlock.INSTANCE)
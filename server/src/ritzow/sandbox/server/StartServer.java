@@ -1,27 +1,51 @@
 package ritzow.sandbox.server;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.BindException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
-import ritzow.sandbox.data.Bytes;
+import java.util.stream.Stream;
+import ritzow.sandbox.data.Codec;
 import ritzow.sandbox.network.NetworkUtility;
 import ritzow.sandbox.network.Protocol;
 import ritzow.sandbox.server.network.GameServer;
+import ritzow.sandbox.server.world.RegionChunkStore;
 import ritzow.sandbox.util.Utility;
 import ritzow.sandbox.world.World;
+import ritzow.sandbox.world.WorldSnapshot;
 import ritzow.sandbox.world.entity.ItemEntity;
 import ritzow.sandbox.world.generator.SinusoidWorldGenerator;
 
 public class StartServer {
-	private static final Path SAVE_FILE = Path.of("world.dat");
-	private static final long FRAME_TIME_LIMIT = Utility.frameRateToFrameTimeNanos(120);
+	/** Holds the level file, which contains entities and the size of the world, and the region files holding its chunks **/
+	private static final Path SAVE_DIRECTORY = Path.of("world"), LEVEL_FILE = SAVE_DIRECTORY.resolve("level.dat");
+	/** Worlds saved before region files were introduced, loaded if there is no level file **/
+	private static final Path LEGACY_SAVE_FILE = Path.of("world.dat");
 	private static final int WIDTH = 2000, HEIGHT = 200;
+	private static final long AUTOSAVE_INTERVAL = Utility.millisToNanos(30 * 1000);
 
 	private static GameServer server;
-	private static boolean save = true;
+	private static boolean save = true, reset;
+
+	/** Serializes, compresses, and writes chunks and level files so that saving doesn't delay world updates **/
+	private static final ExecutorService saver = Executors.newSingleThreadExecutor(task -> {
+		Thread thread = new Thread(task, "World Saver");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static Future<?> saveTask;
+	private static RegionChunkStore chunkStore;
+	private static long lastSave;
 
 	public static void main(String... args) throws IOException {
 		InetSocketAddress bind = args.length > 0 ?
@@ -30,13 +54,20 @@ public class StartServer {
 			CommandParser parser = createParser();
 			new Thread(parser, "Command Parser").start();
 			startServer(bind);
+			lastSave = System.nanoTime();
 			while(server.isOpen()) {
-				long start = System.nanoTime();
 				parser.update();
 				server.update();
-				Utility.limitFramerate(start, FRAME_TIME_LIMIT);
+				if(save && Utility.nanosSince(lastSave) > AUTOSAVE_INTERVAL) {
+					saveWorldAsync(server.world(), false);
+				}
+				server.waitForNextTick();
+			}
+			if(reset) {
+				deleteSave();
+			} else {
+				saveWorld(server.world());
 			}
-			saveWorld(server.world());
 		} catch(BindException e) {
 			System.out.println("Couldn't start server on address " + NetworkUtility.formatAddress(bind));
 		}
@@ -46,32 +77,103 @@ public class StartServer {
 		server = new GameServer(bind);
 		System.out.println("Started server on " + NetworkUtility.formatAddress(server.getAddress()) + ".");
 		long time = System.nanoTime();
-		boolean loadFromFile = Files.exists(SAVE_FILE);
-		System.out.print((loadFromFile ? "Loading" : "Generating") + " world... ");
-		server.setCurrentWorld(loadFromFile ? loadWorld(SAVE_FILE) : SinusoidWorldGenerator.builder()
+		Path saveFile = Files.exists(LEVEL_FILE) ? LEVEL_FILE : Files.exists(LEGACY_SAVE_FILE) ? LEGACY_SAVE_FILE : null;
+		System.out.print((saveFile != null ? "Loading" : "Generating") + " world... ");
+		SinusoidWorldGenerator generator = SinusoidWorldGenerator.builder()
 			.width(WIDTH)
-			.baseHeight(HEIGHT)
-			.generate());
+			.baseHeight(HEIGHT);
+		World world = saveFile != null ? loadWorld(saveFile) : generator.generate();
+		world.getBlocks().setGenerator(generator);
+		//evicted chunks are written straight to the saved world, and chunks not in memory are loaded from it
+		chunkStore = new RegionChunkStore(SAVE_DIRECTORY, saver);
+		world.getBlocks().setChunkStore(chunkStore);
+		server.setCurrentWorld(world);
 		System.out.println("took " + Utility.formatTime(Utility.nanosSince(time)) + ".");
 	}
 
 	public static World loadWorld(Path file) throws IOException {
-		return SerializationProvider.getProvider().deserialize(Utility.loadCompressedFile(file));
+		return SerializationProvider.getProvider().deserialize(file.equals(LEGACY_SAVE_FILE) ?
+			Utility.loadCompressedFile(file) : Codec.decode(Utility.load(file, ByteBuffer::allocate)));
 	}
 
+	/** Saves the world and waits for the save to finish, used when the server stops **/
 	private static void saveWorld(World world) {
 		if(save) {
-			try {
-				System.out.print("Saving world... ");
-				byte[] serialized = Bytes.compress(SerializationProvider.getProvider().serialize(world));
-				Files.write(SAVE_FILE, serialized);
-				System.out.println("world saved to " + Utility.formatSize(serialized.length) + ".");
-			} catch(IOException e) {
-				System.out.println("Error while saving world to file '" + SAVE_FILE + "':"
-					+ e.getClass().getTypeName() + ":" + e.getMessage());
-			}
+			awaitWrites();
+			saveWorldAsync(world, true);
+			awaitWrites();
 		} else {
-			System.out.println("Server stopped without saving to file.");
+			System.out.println("Server stopped without saving the level file, chunks evicted while running were saved.");
+		}
+	}
+
+	/**
+	 * Queues chunks modified since the last save and the level file to be written on the saver thread,
+	 * unless the previous save hasn't finished. Only modified chunks are written, so the cost of a save
+	 * depends on how much of the world has changed rather than on the size of the world.
+	 */
+	private static void saveWorldAsync(World world, boolean report) {
+		lastSave = System.nanoTime();
+		if(saveTask == null || saveTask.isDone()) {
+			long start = System.nanoTime();
+			chunkStore.retryFailed();
+			int chunks = world.getBlocks().storeUnsaved();
+			WorldSnapshot snapshot = world.snapshotEntities(SerializationProvider.getProvider());
+			//the saver runs tasks in order, so the level file is written after the chunks
+			saveTask = saver.submit(() -> writeLevel(snapshot, chunks, start, report));
+		}
+	}
+
+	/** Waits for every queued chunk and level file write to finish **/
+	private static void awaitWrites() {
+		try {
+			saver.submit(() -> {}).get();
+		} catch(InterruptedException | ExecutionException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void writeLevel(WorldSnapshot snapshot, int chunks, long start, boolean report) {
+		//the level file would refer to chunks that haven't been written, which are kept in memory and retried instead
+		Exception failure = chunkStore.failure();
+		if(failure != null) {
+			System.out.println("Error while saving world to directory '" + SAVE_DIRECTORY + "', chunks couldn't be written:"
+				+ failure.getClass().getTypeName() + ":" + failure.getMessage());
+			return;
+		}
+		try {
+			//the level file is rewritten by every autosave, so it is compressed quickly rather than as small as possible
+			byte[] serialized = Codec.DEFLATE_FAST.encode(SerializationProvider.getProvider().serialize(snapshot));
+			//write to a temporary file first so that a failed save doesn't destroy the previous one
+			Path temp = SAVE_DIRECTORY.resolve("level.tmp");
+			Files.write(temp, serialized);
+			Files.move(temp, LEVEL_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			if(report) {
+				System.out.println("World saved, " + chunks + " modified chunks and " + Utility.formatSize(serialized.length)
+					+ " level file written in " + Utility.formatTime(Utility.nanosSince(start)) + ".");
+			}
+		} catch(IOException e) {
+			System.out.println("Error while saving world to file '" + LEVEL_FILE + "':"
+				+ e.getClass().getTypeName() + ":" + e.getMessage());
+		}
+	}
+
+	private static void deleteSave() {
+		awaitWrites();
+		try {
+			if(Files.deleteIfExists(LEGACY_SAVE_FILE))
+				System.out.println("Deleted world " + LEGACY_SAVE_FILE + ".");
+			if(Files.exists(SAVE_DIRECTORY)) {
+				try(Stream<Path> files = Files.list(SAVE_DIRECTORY)) {
+					for(Path file : (Iterable<Path>)files::iterator) {
+						Files.delete(file);
+					}
+				}
+				Files.delete(SAVE_DIRECTORY);
+				System.out.println("Deleted world " + SAVE_DIRECTORY + ".");
+			}
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
 		}
 	}
 
@@ -85,7 +187,37 @@ public class StartServer {
 			.register("say", 		StartServer::sayCommand, false)
 			.register("debug",		StartServer::debugCommand, false)
 			.register("printworld", StartServer::printworldCommand, false)
-			.register("killitems", 	StartServer::killItemsCommand, false);
+			.register("parallel", 	StartServer::parallelCommand, false)
+			.register("save", 		StartServer::saveCommand, false)
+			.register("killitems", 	StartServer::killItemsCommand, false)
+			.register("viewradius", StartServer::viewRadiusCommand, false)
+			.register("queuelimit", StartServer::queueLimitCommand, false);
+	}
+
+	private static void viewRadiusCommand(String args) {
+		if(!args.isEmpty()) {
+			try {
+				server.setViewRadius(Float.parseFloat(args));
+			} catch(IllegalArgumentException e) {
+				System.out.println("Usage: viewradius [blocks greater than zero]");
+				return;
+			}
+		}
+		System.out.println("Clients receive changes within " + server.getViewRadius() + " blocks of their player.");
+	}
+
+	private static void queueLimitCommand(String args) {
+		if(!args.isEmpty()) {
+			try {
+				String[] limits = args.split(" ");
+				server.setClientQueueLimits(Integer.parseInt(limits[0]), Long.parseLong(limits[1]) * 1024);
+			} catch(IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+				System.out.println("Usage: queuelimit [messages kilobytes]");
+				return;
+			}
+		}
+		System.out.println("Clients are limited to " + server.getMaxQueuedMessages() + " queued messages and "
+			+ Utility.formatSize(server.getMaxQueuedBytes()) + ".");
 	}
 
 	private static void killItemsCommand(String args) {
@@ -94,6 +226,32 @@ public class StartServer {
 		System.out.println("Removed " + (entities - server.world().entities()) + " items from the world.");
 	}
 
+	private static void parallelCommand(String args) {
+		switch(args) {
+			case "on" -> {
+				server.world().setParallelism(ForkJoinPool.commonPool());
+				server.setEncodeParallelism(ForkJoinPool.commonPool());
+				System.out.println("World updates and entity update encoding will run on "
+					+ ForkJoinPool.commonPool().getParallelism() + " threads.");
+			}
+			case "off" -> {
+				server.world().setParallelism(null);
+				server.setEncodeParallelism(null);
+				System.out.println("World updates and entity update encoding will run on the main thread.");
+			}
+			default -> System.out.println("Usage: parallel on|off");
+		}
+	}
+
+	private static void saveCommand(String args) {
+		if(saveTask != null && !saveTask.isDone()) {
+			System.out.println("A save is already in progress.");
+		} else {
+			saveWorldAsync(server.world(), true);
+			System.out.println("Saving world in the background.");
+		}
+	}
+
 	private static void printworldCommand(String args) {
 		System.out.println(server.world());
 	}
@@ -103,13 +261,9 @@ public class StartServer {
 	}
 
 	private static void resetCommand(String args) {
+		//the save is deleted once the server has stopped, so that nothing is written to it afterwards
+		reset = true;
 		abortCommand(args);
-		try {
-			if(Files.deleteIfExists(SAVE_FILE))
-				System.out.println("Deleted world " + SAVE_FILE + ".");
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
 	}
 
 	private static void stopCommand(String args) {
@@ -0,0 +1,78 @@
+package ritzow.sandbox.server.network;
+
+import java.util.BitSet;
+import java.util.function.IntConsumer;
+import ritzow.sandbox.network.EntitySnapshot;
+import ritzow.sandbox.world.entity.Entity;
+
+/**
+ * Tracks which entities a client has been sent, which are the entities within a view radius of its player.
+ * Entities are added as they come within the radius, and removed once they are further than the radius plus
+ * {@link #MARGIN} so that an entity moving along the edge isn't repeatedly created and deleted on the client.
+ * Distances are measured along each axis separately, so the area is a square centered on the player.
+ * @author Solomon Ritzow
+ */
+public final class AreaOfInterest {
+	/** How far past the view radius, in blocks, a known entity can move before it is removed **/
+	public static final float MARGIN = 8;
+
+	private final BitSet known = new BitSet();
+	private int[] included = new int[64];
+
+	public static boolean inRange(float centerX, float centerY, float x, float y, float radius) {
+		return Math.abs(x - centerX) <= radius && Math.abs(y - centerY) <= radius;
+	}
+
+	public boolean knows(int id) {
+		return known.get(id);
+	}
+
+	/**
+	 * Adds an entity if it is within the view radius of the center entity.
+	 * @return true if the entity was added and should be sent to the client.
+	 */
+	public boolean enter(Entity e, Entity center, float radius) {
+		if(!known.get(e.getID()) && inRange(center.getPositionX(), center.getPositionY(), e.getPositionX(), e.getPositionY(), radius)) {
+			known.set(e.getID());
+			return true;
+		}
+		return false;
+	}
+
+	/** @return true if the entity was known and the client should be told it has been removed **/
+	public boolean remove(int id) {
+		boolean wasKnown = known.get(id);
+		known.clear(id);
+		return wasKnown;
+	}
+
+	/**
+	 * Adds the entities that have come within the view radius and removes the ones that have left it.
+	 * @param entities the current state of every entity in the world.
+	 * @param entered receives the ID of each entity that was added.
+	 * @param left receives the ID of each entity that was removed.
+	 * @return the part of {@code entities} the client knows about afterwards.
+	 */
+	public EntitySnapshot update(EntitySnapshot entities, float centerX, float centerY, float radius,
+			IntConsumer entered, IntConsumer left) {
+		if(included.length < entities.size()) {
+			included = new int[Math.max(entities.size(), included.length * 2)];
+		}
+		int count = 0;
+		for(int i = 0; i < entities.size(); i++) {
+			int id = entities.id(i);
+			boolean isKnown = known.get(id);
+			if(inRange(centerX, centerY, entities.positionX(i), entities.positionY(i), isKnown ? radius + MARGIN : radius)) {
+				if(!isKnown) {
+					known.set(id);
+					entered.accept(id);
+				}
+				included[count++] = i;
+			} else if(isKnown) {
+				known.clear(id);
+				left.accept(id);
+			}
+		}
+		return entities.subset(included, count);
+	}
+}
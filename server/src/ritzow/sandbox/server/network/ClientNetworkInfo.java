@@ -1,26 +1,57 @@
 package ritzow.sandbox.server.network;
 
 import java.net.InetSocketAddress;
-import java.util.ArrayDeque;
-import java.util.PriorityQueue;
-import java.util.Queue;
-import ritzow.sandbox.network.ReceivePacket;
-import ritzow.sandbox.network.SendPacket;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import ritzow.sandbox.network.Acknowledgements;
+import ritzow.sandbox.network.NetworkUtility;
+import ritzow.sandbox.network.ReceiveWindow;
+import ritzow.sandbox.network.SendWindow;
+import ritzow.sandbox.util.Utility;
 
+import static ritzow.sandbox.network.Protocol.MAX_MESSAGE_LENGTH;
+
+/** The connection state of a client. The send window, receive window, and acknowledgements are only used by the
+ * server's network thread, the game thread queues messages with {@link #send}. **/
 public class ClientNetworkInfo {
 	final InetSocketAddress address;
-	final Queue<SendPacket> sendQueue;
-	final Queue<ReceivePacket> receiveQueue;
-	int sendMessageID = 0, lastSendReliableID = -1, headProcessedID = -1;
-	long lastMessageProcessTime;
+	final SendWindow sendWindow;
+	final ReceiveWindow receiveWindow;
+	final Acknowledgements acks;
+	volatile long lastMessageProcessTime;
+
+	/** Client reliable message round trip time in nanoseconds, or -1 if not measured yet */
+	volatile long ping = -1;
+
+	/** Messages sent by the game thread that the network thread hasn't put in the send window yet, each a byte[]
+	 * or a CompletableFuture of the messages that are still being encoded **/
+	private final OutgoingQueue outgoing;
+
+	/** Messages sent that haven't been acknowledged, or sent if unreliable, and their total length **/
+	private final AtomicInteger pending;
+	private final AtomicLong pendingBytes;
+
+	/** The size of the send window when pending was last updated by the network thread **/
+	private int windowSize;
+	private long windowBytes;
 
-	/** Client reliable message round trip time in nanoseconds */
-	long ping;
+	/** Messages received by the network thread that the game thread hasn't processed yet **/
+	final AtomicInteger unprocessed;
 
 	ClientNetworkInfo(InetSocketAddress address) {
 		this.address = address;
-		sendQueue = new ArrayDeque<>();
-		receiveQueue = new PriorityQueue<>();
+		sendWindow = new SendWindow();
+		receiveWindow = new ReceiveWindow();
+		acks = new Acknowledgements();
+		outgoing = new OutgoingQueue();
+		pending = new AtomicInteger();
+		pendingBytes = new AtomicLong();
+		unprocessed = new AtomicInteger();
+		lastMessageProcessTime = System.nanoTime();
 	}
 
 	@Override
@@ -28,10 +59,95 @@ public class ClientNetworkInfo {
 		return obj instanceof ClientNetworkInfo client && address.equals(client.address);
 	}
 
+	/**
+	 * Queues a message to be sent by the network thread, on the game thread. The message is kept by reference until it
+	 * is sent or acknowledged, so the same array can be sent to any number of clients but must not be modified.
+	 */
 	public void send(byte[] data, boolean reliable) {
-		sendQueue.add(new SendPacket(data, sendMessageID, lastSendReliableID, reliable, -1));
-		if(reliable) lastSendReliableID = sendMessageID;
-		sendMessageID++;
+		if(data.length > MAX_MESSAGE_LENGTH)
+			throw new IllegalArgumentException("message is " + data.length + " bytes, longer than " + MAX_MESSAGE_LENGTH);
+		pending.incrementAndGet();
+		pendingBytes.addAndGet(data.length);
+		outgoing.add(data, reliable);
+	}
+
+	/**
+	 * Queues messages that are being encoded on another thread. Messages queued after them aren't sent until they
+	 * have been encoded and sent, so the order messages are received in is the order they were queued in.
+	 */
+	void sendEncoded(CompletableFuture<List<byte[]>> messages, boolean reliable) {
+		//counted as a single empty message until its messages are known
+		pending.incrementAndGet();
+		outgoing.add(messages, reliable);
+	}
+
+	/** @return the number of messages that haven't been sent or, if reliable, acknowledged **/
+	int pendingCount() {
+		return pending.get();
+	}
+
+	/** @return the total length of the messages counted by {@link #pendingCount()}, not including any being encoded **/
+	long pendingBytes() {
+		return pendingBytes.get();
+	}
+
+	/** Moves queued messages to the send window, up to the first that is still being encoded, on the network thread **/
+	@SuppressWarnings("unchecked")
+	void takeQueued() {
+		Object next;
+		while((next = outgoing.peek()) != null) {
+			boolean reliable = outgoing.peekReliable();
+			if(next instanceof byte[] message) {
+				sendWindow.add(message, reliable);
+				windowSize++;
+				windowBytes += message.length;
+			} else {
+				CompletableFuture<List<byte[]>> encoding = (CompletableFuture<List<byte[]>>)next;
+				if(!encoding.isDone())
+					break;
+				List<byte[]> messages = encoded(encoding);
+				long bytes = 0;
+				for(byte[] message : messages) {
+					sendWindow.add(message, reliable);
+					bytes += message.length;
+				}
+				windowSize += messages.size();
+				windowBytes += bytes;
+				pending.addAndGet(messages.size() - 1);
+				pendingBytes.addAndGet(bytes);
+			}
+			outgoing.remove();
+		}
+	}
+
+	/**
+	 * @return the encoded messages, or none if encoding failed, so that a bug in encoding can't stop the network
+	 * thread. A lost entity update is made up for by a later one, since updates are relative to the latest snapshot
+	 * the client has acknowledged, and a full update is sent again once its snapshot is too old to be a baseline.
+	 */
+	private List<byte[]> encoded(CompletableFuture<List<byte[]>> encoding) {
+		try {
+			return encoding.join();
+		} catch(CompletionException | CancellationException e) {
+			Throwable cause = e.getCause() == null ? e : e.getCause();
+			System.out.println("Failed to encode messages for " + NetworkUtility.formatAddress(address) + ": "
+				+ cause.getClass().getTypeName() + ": " + cause.getMessage());
+			return List.of();
+		}
+	}
+
+	/** Counts the messages that have left the send window since the last call, on the network thread **/
+	void updatePending() {
+		int size = sendWindow.size();
+		if(size != windowSize) {
+			pending.addAndGet(size - windowSize);
+			windowSize = size;
+		}
+		long bytes = sendWindow.bytes();
+		if(bytes != windowBytes) {
+			pendingBytes.addAndGet(bytes - windowBytes);
+			windowBytes = bytes;
+		}
 	}
 
 	@Override
@@ -43,11 +159,11 @@ public class ClientNetworkInfo {
 	public String toString() {
 		return "ClientNetworkInfo{" +
 		   "address=" + address +
-		   ", sendQueue=" + sendQueue +
-		   ", receiveQueue=" + receiveQueue +
-		   ", sendMessageID=" + sendMessageID +
-		   ", lastSendReliableID=" + lastSendReliableID +
-		   ", headProcessedID=" + headProcessedID +
+		   ", pending=" + pending + " (" + Utility.formatSize(pendingBytes.get()) + ")" +
+		   ", unprocessed=" + unprocessed +
+		   ", sendWindow=" + sendWindow +
+		   ", receiveWindow=" + receiveWindow +
+		   ", acks=" + acks +
 		   ", lastMessageReceiveTime=" + lastMessageProcessTime +
 		   ", ping=" + ping +
 		   '}';
@@ -2,9 +2,8 @@ package ritzow.sandbox.server.network;
 
 import java.net.InetSocketAddress;
 import java.time.Instant;
-import java.util.ArrayDeque;
-import java.util.Queue;
-import ritzow.sandbox.data.Bytes;
+import java.util.BitSet;
+import ritzow.sandbox.network.EntitySnapshot;
 import ritzow.sandbox.network.NetworkUtility;
 import ritzow.sandbox.server.world.entity.ServerPlayerEntity;
 
@@ -23,11 +22,34 @@ public class ClientState extends ClientNetworkInfo {
 		/** if the client has received the world and player and notifies server */
 		STATUS_IN_GAME = 5,
 		/** if the client sent data that didn't make sense */
-		STATUS_INVALID = 6;
+		STATUS_INVALID = 6,
+		/** if the client has been sent the world header and entities and is receiving the chunks around its player */
+		STATUS_JOINING = 7;
 
 	byte status;
 	String disconnectReason;
-	Queue<byte[]> recordedSend;
+
+	/** The time the client's queued messages went over the server's limits, or -1 if they are within them **/
+	long backlogStart = -1;
+	/** The time the client was kicked, after which it is removed once it acknowledges its last messages **/
+	long kickTime;
+
+	/** Chunks to send to the client in the order they will be sent, null once all have been sent **/
+	int[] chunkOrder;
+	int chunksSent;
+
+	/** Entity snapshots recently sent to the client, indexed by sequence number, and the latest one it is known to have **/
+	final EntitySnapshot[] entitySnapshots = new EntitySnapshot[EntitySnapshot.HISTORY];
+	EntitySnapshot entityBaseline;
+	int entitySequence;
+
+	/** The entities the client has been sent, and the chunks that changed while outside of its view **/
+	final AreaOfInterest interest = new AreaOfInterest();
+	final BitSet staleChunks = new BitSet();
+
+	/** The sequence number of the latest player state applied, and the tick it was applied on **/
+	int playerStateSequence;
+	long playerStateTick;
 
 	/** Last player action times in nanoseconds offset */
 	long lastPlayerStateUpdate;
@@ -37,19 +59,9 @@ public class ClientState extends ClientNetworkInfo {
 	ClientState(InetSocketAddress address) {
 		super(address);
 		status = STATUS_CONNECTED;
-		recordedSend = new ArrayDeque<>();
 		nextUseTime = Instant.EPOCH;
 	}
 
-	public void sendRecorded() {
-		while(!recordedSend.isEmpty()) {
-			var val =recordedSend.poll();
-			System.out.println(Bytes.getShort(val, 0));
-			send(val, true);
-		}
-		recordedSend = null;
-	}
-
 	static String statusToString(byte status) {
 		return switch(status) {
 			case STATUS_CONNECTED -> 	"connected";
@@ -59,6 +71,7 @@ public class ClientState extends ClientNetworkInfo {
 			case STATUS_REJECTED -> 	"rejected";
 			case STATUS_IN_GAME -> 		"in-game";
 			case STATUS_INVALID ->		"invalid";
+			case STATUS_JOINING ->		"joining";
 			default -> 					"unknown";
 		};
 	}
@@ -67,8 +80,22 @@ public class ClientState extends ClientNetworkInfo {
 		return status == STATUS_IN_GAME;
 	}
 
+	/** @return true if the client has a copy of the world and should receive world changes **/
+	boolean hasWorld() {
+		return status == STATUS_JOINING || status == STATUS_IN_GAME;
+	}
+
+	/** Uses a snapshot the client has received as the baseline for later ones, if it is still available **/
+	void acknowledgeSnapshot(int sequence) {
+		EntitySnapshot snapshot = entitySnapshots[Math.floorMod(sequence, EntitySnapshot.HISTORY)];
+		if(snapshot != null && snapshot.sequence() == sequence
+			&& (entityBaseline == null || sequence > entityBaseline.sequence())) {
+			entityBaseline = snapshot;
+		}
+	}
+
 	boolean hasPending() {
-		return !sendQueue.isEmpty();
+		return pendingCount() > 0;
 	}
 
 	public String formattedName() {
@@ -4,15 +4,19 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.time.Instant;
-import java.util.Iterator;
+import java.util.List;
 import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
 import ritzow.sandbox.data.Bytes;
-import ritzow.sandbox.data.Transportable;
+import ritzow.sandbox.data.Codec;
+import ritzow.sandbox.network.EntitySnapshot;
 import ritzow.sandbox.network.NetworkUtility;
 import ritzow.sandbox.server.SerializationProvider;
 import ritzow.sandbox.server.world.entity.ServerPlayerEntity;
+import ritzow.sandbox.util.TickScheduler;
 import ritzow.sandbox.util.Utility;
 import ritzow.sandbox.world.BlockGrid;
 import ritzow.sandbox.world.World;
@@ -35,14 +39,38 @@ public class GameServer {
 	private static final long NETWORK_SEND_INTERVAL_NANOSECONDS = Utility.millisToNanos(200);
 	private static final long PLAYER_STATE_BROADCAST_INTERVAL = Utility.millisToNanos(500);
 	private static final float BLOCK_DROP_VELOCITY = Utility.convertPerSecondToPerNano(7f);
+	private static final long CHUNK_EVICT_INTERVAL = Utility.millisToNanos(5000);
+	private static final int CHUNK_IDLE_SWEEPS = 6;
+	/** The most ticks to run in a single update before dropping simulation time, 200 milliseconds at 60 Hz **/
+	private static final int MAX_CATCH_UP_TICKS = 12;
+	/** Chunks within this many chunks of a joining player are sent before the player enters the world **/
+	private static final int JOIN_CHUNK_RADIUS = 2;
+	/** Chunks are only sent to a client while it has fewer than this many unacknowledged messages **/
+	private static final int MAX_PENDING_CHUNK_MESSAGES = 64;
+	/** A little more than the distance in blocks the client camera shows when fully zoomed out **/
+	private static final float DEFAULT_VIEW_RADIUS = 48;
+	/** The most messages, and bytes of messages, queued for a client before it is sent only what can't be dropped **/
+	private static final int DEFAULT_MAX_QUEUED_MESSAGES = 4096;
+	private static final long DEFAULT_MAX_QUEUED_BYTES = 1024 * 1024;
+	/** A client that stays over the queue limits for this long isn't keeping up and is kicked **/
+	private static final long MAX_BACKLOG_TIME = Utility.millisToNanos(5000);
 
 	private final Server<ClientState> server;
+	private final TickScheduler ticks;
+	private final Runnable worldTick;
 	private World world;
-	private long lastWorldUpdateTime;
 	private boolean shutdown;
+	private float viewRadius = DEFAULT_VIEW_RADIUS;
+	private int maxQueuedMessages = DEFAULT_MAX_QUEUED_MESSAGES;
+	private long maxQueuedBytes = DEFAULT_MAX_QUEUED_BYTES;
+	/** Encodes entity updates while the next tick is simulated, or null to encode them on the calling thread.
+	 * With a single processor the encoding would only compete with the simulation, so it isn't done in parallel. **/
+	private ForkJoinPool encoder = Runtime.getRuntime().availableProcessors() > 1 ? ForkJoinPool.commonPool() : null;
 
 	public GameServer(InetSocketAddress bind) throws IOException {
-		this.server = new Server<>(bind);
+		this.server = new Server<>(bind, ClientState::new);
+		this.ticks = new TickScheduler(TICK_TIME, MAX_CATCH_UP_TICKS);
+		this.worldTick = () -> world.update(TICK_TIME);
 	}
 
 	private static void log(String message) {
@@ -64,7 +92,7 @@ public class GameServer {
 	public void setCurrentWorld(World world) {
 		world.setRemoveEntities(this::broadcastRemoveEntity);
 		this.world = world;
-		this.lastWorldUpdateTime = System.nanoTime();
+		this.ticks.reset();
 	}
 
 	public InetSocketAddress getAddress() throws IOException {
@@ -83,9 +111,72 @@ public class GameServer {
 		return world;
 	}
 
+	/**
+	 * Enables or disables encoding entity updates on other threads while the world continues to update.
+	 * @param pool the pool to encode on, or null to encode on the thread updating the server.
+	 */
+	public void setEncodeParallelism(ForkJoinPool pool) {
+		this.encoder = pool;
+	}
+
+	public float getViewRadius() {
+		return viewRadius;
+	}
+
+	/**
+	 * Sets the distance in blocks from each client's player within which entity and block changes are sent
+	 * to the client. Entities further away are removed from the client's world.
+	 */
+	public void setViewRadius(float radius) {
+		if(!(radius > 0))
+			throw new IllegalArgumentException("view radius must be positive");
+		this.viewRadius = radius;
+	}
+
+	public int getMaxQueuedMessages() {
+		return maxQueuedMessages;
+	}
+
+	public long getMaxQueuedBytes() {
+		return maxQueuedBytes;
+	}
+
+	/**
+	 * Sets how many messages, and bytes of messages, can be queued for a client that haven't been sent or
+	 * acknowledged. A client over either limit is only sent messages that can't be dropped or sent later,
+	 * and is kicked if it stays over them for too long.
+	 */
+	public void setClientQueueLimits(int messages, long bytes) {
+		if(messages <= 0 || bytes <= 0)
+			throw new IllegalArgumentException("queue limits must be positive");
+		this.maxQueuedMessages = messages;
+		this.maxQueuedBytes = bytes;
+	}
+
 	private static void kickClient(ClientState client, String reason) {
 		client.status = STATUS_KICKED;
-		sendDisconnect(client, "kicked for " + reason, true);
+		client.disconnectReason = "kicked for " + reason;
+		client.kickTime = System.nanoTime();
+		sendDisconnect(client, client.disconnectReason, true);
+	}
+
+	/** @return true if the client has more messages queued than the limits allow **/
+	private boolean backlogged(ClientState client) {
+		return client.pendingCount() > maxQueuedMessages || client.pendingBytes() > maxQueuedBytes;
+	}
+
+	/** Kicks a client that has stayed over the queue limits for too long, since it isn't keeping up with what it is sent
+	 * @return true if the client was kicked **/
+	private boolean checkBacklog(ClientState client) {
+		if(!backlogged(client)) {
+			client.backlogStart = -1;
+		} else if(client.backlogStart == -1) {
+			client.backlogStart = System.nanoTime();
+		} else if(Utility.nanosSince(client.backlogStart) > MAX_BACKLOG_TIME) {
+			kickClient(client, "falling behind with " + client.pendingCount() + " messages queued");
+			return true;
+		}
+		return false;
 	}
 
 	private static void sendDisconnect(ClientState client, String reason, boolean reliable) {
@@ -110,7 +201,6 @@ public class GameServer {
 			case STATUS_CONNECTED -> {
 				switch(type) {
 					case TYPE_CLIENT_CONNECT_REQUEST -> processClientConnectRequest(client);
-					case TYPE_CLIENT_WORLD_BUILT -> processClientWorldBuilt(client);
 					default -> {
 						client.status = STATUS_INVALID;
 						sendDisconnect(client, "invalid", false);
@@ -119,6 +209,15 @@ public class GameServer {
 				}
 			}
 
+			case STATUS_JOINING -> {
+				switch(type) {
+					case TYPE_CLIENT_WORLD_BUILT -> processClientWorldBuilt(client);
+					case TYPE_CLIENT_DISCONNECT -> processClientSelfDisconnect(client);
+					case TYPE_PING -> {} //do nothing
+					default -> throw new ClientBadDataException("received protocol " + type + " while joining");
+				}
+			}
+
 			case STATUS_IN_GAME -> {
 				switch(type) {
 					case TYPE_CLIENT_DISCONNECT -> processClientSelfDisconnect(client);
@@ -134,14 +233,10 @@ public class GameServer {
 		}
 	}
 
-	private long lastClientsUpdate;
-	private static final int
-		ENTITY_UPDATE_HEADER_SIZE = 6,
-		BYTES_PER_ENTITY = 20,
-		MAX_ENTITIES_PER_PACKET = (MAX_MESSAGE_LENGTH - ENTITY_UPDATE_HEADER_SIZE)/BYTES_PER_ENTITY;
+	private long lastClientsUpdate, lastChunkEvict;
 
 	public void update() throws IOException {
-		server.receive(ClientState::new, this::handleReceive);
+		server.receive(this::handleReceive);
 		handleClientStatus();
 		if(shutdown) {
 			if(!server.clients().isEmpty()) {
@@ -150,20 +245,27 @@ public class GameServer {
 				server.close();
 			}
 		} else {
-			lastWorldUpdateTime = Utility.updateWorld(
-				world,
-				lastWorldUpdateTime,
-				MAX_UPDATE_TIMESTEP
-			);
+			ticks.run(worldTick);
+			sendWorldChunks();
 
 			if(Utility.nanosSince(lastClientsUpdate) > NETWORK_SEND_INTERVAL_NANOSECONDS) {
 				lastClientsUpdate = System.nanoTime();
 				sendEntityUpdates();
 			}
+
+			if(Utility.nanosSince(lastChunkEvict) > CHUNK_EVICT_INTERVAL) {
+				lastChunkEvict = System.nanoTime();
+				world.getBlocks().evictIdle(CHUNK_IDLE_SWEEPS);
+			}
 			server.sendQueued();
 		}
 	}
 
+	/** Sleeps until the next world tick is due **/
+	public void waitForNextTick() {
+		ticks.sleep();
+	}
+
 	//TODO deal with limbo states such as when client responds, but isn't actually doing anything
 	private void handleClientStatus() { //TODO this is not allowing disconnect messages to be sent!
 		var iterator = server.clients().iterator();
@@ -171,20 +273,32 @@ public class GameServer {
 			ClientState client = iterator.next();
 			switch(client.status) {
 				//check that the client is still sending pings
-				case STATUS_CONNECTED -> checkTimeout(client);
+				case STATUS_CONNECTED, STATUS_JOINING -> {
+					if(!checkTimeout(client)) {
+						checkBacklog(client);
+					}
+				}
 
 				case STATUS_IN_GAME -> {
 					if(checkTimeout(client)) {
 						iterator.remove();
 						handleDisconnect(client);
-					} else if(Utility.nanosSince(client.lastPlayerStateUpdate)
+					} else if(!checkBacklog(client) && Utility.nanosSince(client.lastPlayerStateUpdate)
 								  > PLAYER_STATE_BROADCAST_INTERVAL) {
 						client.lastPlayerStateUpdate = System.nanoTime();
-						broadcastUnsafe(buildPlayerStateMessage(client.player), false, ClientState::inGame);
+						broadcastPlayerState(client, true);
+					}
+				}
+
+				//a kicked client might never acknowledge the messages queued for it
+				case STATUS_KICKED -> {
+					if(!client.hasPending() || Utility.nanosSince(client.kickTime) > TIMEOUT_DISCONNECT) {
+						iterator.remove();
+						handleDisconnect(client);
 					}
 				}
 
-				case STATUS_KICKED, STATUS_LEAVE, STATUS_REJECTED -> {
+				case STATUS_LEAVE, STATUS_REJECTED -> {
 					if(!client.hasPending()) {
 						iterator.remove();
 						handleDisconnect(client);
@@ -228,34 +342,93 @@ public class GameServer {
 		}
 	}
 
+	/**
+	 * Sends each client the entities near its player, creating and deleting them as they enter and leave its view.
+	 * A client over the queue limits isn't sent entity updates or stale chunks until it catches up, since the next
+	 * entity update includes every change since the last one the client acknowledged and chunks stay stale until sent.
+	 */
 	private void sendEntityUpdates() {
-		int entitiesRemaining = world.entities();
-		Iterator<Entity> iterator = world.iterator();
-		while(iterator.hasNext()) {
-			int count = Math.min(entitiesRemaining, MAX_ENTITIES_PER_PACKET);
-			byte[] packet = new byte[ENTITY_UPDATE_HEADER_SIZE + count * BYTES_PER_ENTITY];
-			Bytes.putShort(packet, 0, TYPE_SERVER_ENTITY_UPDATE);
-			Bytes.putInteger(packet, 2, count);
-			for(int index = 0; index < count; index++) {
-				Entity entity = iterator.next();
-				populateEntityUpdate(packet, ENTITY_UPDATE_HEADER_SIZE + index * BYTES_PER_ENTITY, entity);
-				entitiesRemaining--;
+		EntitySnapshot entities = EntitySnapshot.capture(world, world.entities());
+		for(ClientState client : server.clients()) {
+			if(client.inGame()) {
+				EntitySnapshot visible = client.interest.update(entities,
+					client.player.getPositionX(), client.player.getPositionY(), viewRadius,
+					id -> client.send(buildAddEntity(world.getEntityFromID(id)), true),
+					id -> client.send(buildRemoveEntity(id), true));
+				if(!backlogged(client)) {
+					sendEntityUpdate(client, visible);
+					client.send(buildOwnPlayerState(client), false);
+					sendStaleChunks(client);
+				}
 			}
-			broadcastUnsafe(packet, false, ClientState::inGame);
 		}
 	}
 
-	private static void populateEntityUpdate(byte[] packet, int index, Entity e) {
-		Bytes.putInteger(packet, index + 0, e.getID());
-		Bytes.putFloat(packet, index + 4, e.getPositionX());
-		Bytes.putFloat(packet, index + 8, e.getPositionY());
-		Bytes.putFloat(packet, index + 12, e.getVelocityX());
-		Bytes.putFloat(packet, index + 16, e.getVelocityY());
+	/**
+	 * Builds the server's state of a client's own player, unquantized, with the latest player state sequence number
+	 * applied and the number of ticks simulated since, so that the client can replay the inputs that came after it.
+	 */
+	private byte[] buildOwnPlayerState(ClientState client) {
+		PlayerEntity player = client.player;
+		byte[] message = new byte[2 + 4 + 4 + 2 + 4 * 4 + 1];
+		Bytes.putShort(message, 0, TYPE_SERVER_PLAYER_STATE);
+		Bytes.putInteger(message, 2, client.playerStateSequence);
+		Bytes.putInteger(message, 6, (int)Math.min(Integer.MAX_VALUE, ticks.totalTicks() - client.playerStateTick));
+		Bytes.putShort(message, 10, PlayerState.getState(player, false, false));
+		Bytes.putFloat(message, 12, player.getPositionX());
+		Bytes.putFloat(message, 16, player.getPositionY());
+		Bytes.putFloat(message, 20, player.getVelocityX());
+		Bytes.putFloat(message, 24, player.getVelocityY());
+		message[28] = (byte)(player.isGrounded() ? 1 : 0);
+		return message;
+	}
+
+	/** Resends the chunks that changed while out of the client's view once they are back in view **/
+	private void sendStaleChunks(ClientState client) {
+		for(int chunk = client.staleChunks.nextSetBit(0); chunk >= 0; chunk = client.staleChunks.nextSetBit(chunk + 1)) {
+			if(chunkInView(client, chunk)) {
+				client.staleChunks.clear(chunk);
+				sendChunk(client, chunk);
+			}
+		}
+	}
+
+	/** @return true if any column of a chunk is within the view radius of the client's player **/
+	private boolean chunkInView(ClientState client, int chunk) {
+		float x = client.player.getPositionX();
+		return (chunk + 1) * BlockGrid.CHUNK_WIDTH >= x - viewRadius && chunk * BlockGrid.CHUNK_WIDTH <= x + viewRadius;
+	}
+
+	/**
+	 * Sends the entities that changed since the latest snapshot the client has acknowledged. If the client
+	 * has no snapshot that is still kept by both sides, every entity is sent reliably instead. The snapshot
+	 * is encoded by the encoder pool, if there is one, and sent once it is encoded.
+	 */
+	private void sendEntityUpdate(ClientState client, EntitySnapshot entities) {
+		EntitySnapshot snapshot = entities.withSequence(client.entitySequence++);
+		EntitySnapshot baseline = client.entityBaseline;
+		boolean full = baseline == null || snapshot.sequence() - baseline.sequence() >= EntitySnapshot.HISTORY;
+		EntitySnapshot encodeBaseline = full ? null : baseline;
+		if(encoder == null) {
+			for(byte[] message : snapshot.encode(encodeBaseline)) {
+				client.send(message, full);
+			}
+		} else {
+			//snapshots are immutable, so they can be encoded while the world keeps updating
+			CompletableFuture<List<byte[]>> messages = CompletableFuture.supplyAsync(() -> snapshot.encode(encodeBaseline), encoder);
+			client.sendEncoded(messages, full);
+			messages.thenRun(server::sendQueued);
+		}
+		client.entitySnapshots[snapshot.sequence() % EntitySnapshot.HISTORY] = snapshot;
+		if(full) {
+			//messages are processed in order after reliable ones, so later snapshots can be sent relative to this one
+			client.entityBaseline = snapshot;
+		}
 	}
 
 	public void broadcastConsoleMessage(String message) { //TODO still send for kicked, etc.
 		broadcastUnsafe(buildConsoleMessage(message), true, clientState -> switch (clientState.status) {
-			case STATUS_CONNECTED, STATUS_IN_GAME -> true;
+			case STATUS_CONNECTED, STATUS_JOINING, STATUS_IN_GAME -> true;
 			default -> false;
 		});
 	}
@@ -267,7 +440,6 @@ public class GameServer {
 
 	private void processClientWorldBuilt(ClientState client) {
 		client.status = STATUS_IN_GAME;
-		client.sendRecorded();
 		log(NetworkUtility.formatAddress(client.address) + " joined ("
 				+ getClientCount() + " player(s) connected)");
 	}
@@ -284,8 +456,11 @@ public class GameServer {
 			throw new ClientBadDataException("client has no associated player to perform an action");
 		if(world.contains(player)) {
 			short state = packet.getShort();
+			client.acknowledgeSnapshot(packet.getInt());
+			client.playerStateSequence = packet.getInt();
+			client.playerStateTick = ticks.totalTicks();
 			PlayerState.updatePlayer(player, state);
-			broadcastUnsafe(buildPlayerStateMessage(client.player), false, r -> r.inGame() && !r.equals(client));
+			broadcastPlayerState(client, false);
 			//TODO for now ignore the primary/secondary actions
 		} else {
 			//else what is the point of the player performing the action
@@ -293,6 +468,13 @@ public class GameServer {
 		}
 	}
 
+	/** Sends a player's state to the clients that have the player in view **/
+	private void broadcastPlayerState(ClientState client, boolean includeSelf) {
+		int id = client.player.getID();
+		broadcastUnsafe(buildPlayerStateMessage(client.player), false,
+			r -> r.inGame() && r.interest.knows(id) && (includeSelf || !r.equals(client)));
+	}
+
 	private static byte[] buildPlayerStateMessage(PlayerEntity player) {
 		byte[] message = new byte[8];
 		Bytes.putShort(message, 0, TYPE_CLIENT_PLAYER_STATE);
@@ -302,10 +484,12 @@ public class GameServer {
 	}
 
 	public String getDebugInfo() {
+		String chunks = ticks + "\n" + server.stats().sample(ticks.totalTicks()) + "\n"
+			+ world.getBlocks().residentChunks() + " chunks in memory.\n" + queueInfo() + "\n";
 		if(server.clients().isEmpty()) {
-			return "No connected clients.";
+			return chunks + "No connected clients.";
 		} else {
-			StringJoiner joiner = new StringJoiner("\n");
+			StringJoiner joiner = new StringJoiner("\n", chunks, "");
 			for(ClientState client : server.clients()) {
 				joiner.add(client.toString());
 			}
@@ -313,6 +497,24 @@ public class GameServer {
 		}
 	}
 
+	/** Describes the depth of the client queues against the limits **/
+	private String queueInfo() {
+		int messages = 0, maxMessages = 0, backlogged = 0;
+		long bytes = 0, maxBytes = 0;
+		for(ClientState client : server.clients()) {
+			int count = client.pendingCount();
+			long size = client.pendingBytes();
+			messages += count;
+			bytes += size;
+			maxMessages = Math.max(maxMessages, count);
+			maxBytes = Math.max(maxBytes, size);
+			if(client.backlogStart != -1) backlogged++;
+		}
+		return "Client queues hold " + messages + " messages (" + Utility.formatSize(bytes) + "), deepest "
+			+ maxMessages + " messages (" + Utility.formatSize(maxBytes) + ") of " + maxQueuedMessages + " ("
+			+ Utility.formatSize(maxQueuedBytes) + ") allowed, " + backlogged + " clients over the limits.";
+	}
+
 	private void processClientBreakBlock(ClientState client, ByteBuffer data) {
 		int x = data.getInt();
 		int y = data.getInt();
@@ -392,25 +594,32 @@ public class GameServer {
 		Bytes.putShort(packet, 0, TYPE_SERVER_REMOVE_BLOCK);
 		Bytes.putInteger(packet, 2, x);
 		Bytes.putInteger(packet, 6, y);
-		for(ClientState client : server.clients()) {
-			switch(client.status) {
-				case STATUS_CONNECTED -> client.recordedSend.add(packet);
-				case STATUS_IN_GAME -> client.send(packet, true);
-			}
-		}
+		broadcastBlockChange(packet, x);
 	}
 
 	private void broadcastPlaceBlock(Block block, int x, int y) {
-		byte[] blockData = serialize(block, false);
+		byte[] blockData = SerializationProvider.getProvider().serialize(block);
 		byte[] packet = new byte[10 + blockData.length];
 		Bytes.putShort(packet, 0, TYPE_SERVER_PLACE_BLOCK);
 		Bytes.putInteger(packet, 2, x);
 		Bytes.putInteger(packet, 6, y);
 		Bytes.copy(blockData, packet, 10);
+		broadcastBlockChange(packet, x);
+	}
+
+	/**
+	 * Sends a block change to the clients that have its chunk in view. Clients that don't are sent the
+	 * whole chunk once it comes into view instead, since chunks span the height of the world.
+	 */
+	private void broadcastBlockChange(byte[] packet, int x) {
+		int chunk = x / BlockGrid.CHUNK_WIDTH;
 		for(ClientState client : server.clients()) {
-			switch(client.status) {
-				case STATUS_CONNECTED -> client.recordedSend.add(packet);
-				case STATUS_IN_GAME -> client.send(packet, true);
+			if(client.hasWorld()) {
+				if(chunkInView(client, chunk)) {
+					client.send(packet, true);
+				} else {
+					client.staleChunks.set(chunk);
+				}
 			}
 		}
 	}
@@ -421,15 +630,25 @@ public class GameServer {
 			placePlayer(player, world.getBlocks());
 			world.add(player);
 			client.player = player;
+			client.playerStateTick = ticks.totalTicks();
 			//send entity to already connected players
-			broadcastUnsafe(buildAddEntity(player), true, ClientState::inGame);
-
-			//log("Serializing world to send to " + client.formattedName());
-			//TODO don't send world size in ack, takes too long to serialize entire world
-			for(byte[] packet : buildAcknowledgementPackets(world, player.getID())) {
-				client.send(packet, true);
+			broadcastAddEntity(player);
+
+			//send the world dimensions and entities in view now, and stream the chunks nearest the player first
+			BlockGrid blocks = world.getBlocks();
+			int spawnChunk = Math.min(blocks.getChunkCount() - 1, Math.max(0, (int)player.getPositionX() / BlockGrid.CHUNK_WIDTH));
+			client.chunkOrder = chunksByDistance(spawnChunk, blocks.getChunkCount());
+			client.chunksSent = 0;
+			int joinChunks = Math.min(spawnChunk, JOIN_CHUNK_RADIUS)
+				+ Math.min(blocks.getChunkCount() - 1 - spawnChunk, JOIN_CHUNK_RADIUS) + 1;
+			client.send(buildConnectAcknowledgement(player.getID(), blocks, joinChunks), true);
+			for(Entity e : world) {
+				if(client.interest.enter(e, player, viewRadius)) {
+					client.send(buildAddEntity(e), true);
+				}
 			}
-			//log("World serialized and sent to " + client.formattedName());
+			client.status = STATUS_JOINING;
+			sendWorldChunks(client);
 		} else {
 			byte[] response = new byte[3];
 			Bytes.putShort(response, 0, TYPE_SERVER_CONNECT_ACKNOWLEDGMENT);
@@ -440,6 +659,51 @@ public class GameServer {
 		}
 	}
 
+	/** @return every chunk index ordered by distance from the center chunk, alternating left and right **/
+	private static int[] chunksByDistance(int center, int count) {
+		int[] order = new int[count];
+		order[0] = center;
+		for(int i = 1, distance = 1; i < count; distance++) {
+			if(center - distance >= 0) order[i++] = center - distance;
+			if(center + distance < count) order[i++] = center + distance;
+		}
+		return order;
+	}
+
+	private void sendWorldChunks() {
+		for(ClientState client : server.clients()) {
+			if(client.chunkOrder != null && client.hasWorld()) {
+				sendWorldChunks(client);
+			}
+		}
+	}
+
+	/** Sends chunks to a client until its queue of unacknowledged messages is full, so that sending keeps pace with the client **/
+	private void sendWorldChunks(ClientState client) {
+		while(client.chunksSent < client.chunkOrder.length && client.pendingCount() < MAX_PENDING_CHUNK_MESSAGES) {
+			sendChunk(client, client.chunkOrder[client.chunksSent++]);
+		}
+		if(client.chunksSent == client.chunkOrder.length) {
+			client.chunkOrder = null;
+		}
+	}
+
+	/** Sends the current contents of a chunk, split into as many messages as needed **/
+	private void sendChunk(ClientState client, int index) {
+		byte[] data = SerializationProvider.getProvider().serialize(world.getBlocks().getChunk(index));
+		data = (COMPRESS_WORLD_DATA ? Codec.DEFLATE_DICTIONARY : Codec.NONE).encode(data);
+		int fragmentSize = MAX_MESSAGE_LENGTH - WORLD_CHUNK_HEADER_SIZE;
+		for(int offset = 0; offset < data.length; offset += fragmentSize) {
+			int length = Math.min(fragmentSize, data.length - offset);
+			byte[] packet = new byte[WORLD_CHUNK_HEADER_SIZE + length];
+			Bytes.putShort(packet, 0, TYPE_SERVER_WORLD_CHUNK);
+			Bytes.putInteger(packet, 2, index);
+			Bytes.putInteger(packet, 6, data.length);
+			System.arraycopy(data, offset, packet, WORLD_CHUNK_HEADER_SIZE, length);
+			client.send(packet, true);
+		}
+	}
+
 	private static void placePlayer(Entity player, BlockGrid grid) {
 		float posX = grid.getWidth()/2f;
 		player.setPositionX(posX);
@@ -452,66 +716,52 @@ public class GameServer {
 		player.setPositionY(grid.getHeight());
 	}
 
-	private static byte[][] buildAcknowledgementPackets(World world, int playerID) {
-		byte[] worldBytes = serialize(world, COMPRESS_WORLD_DATA);
-		byte[][] packets = Bytes.split(worldBytes, MAX_MESSAGE_LENGTH - 2, 2, 1);
-		packets[0] = buildConnectAcknowledgement(worldBytes.length, playerID);
-		for(int i = 1; i < packets.length; i++) {
-			Bytes.putShort(packets[i], 0, TYPE_SERVER_WORLD_DATA);
-		}
-		return packets;
-	}
-
-	private static byte[] buildConnectAcknowledgement(int worldSize, int playerID) {
-		byte[] head = new byte[2 + 1 + 4 + 4];
+	private static byte[] buildConnectAcknowledgement(int playerID, BlockGrid blocks, int joinChunks) {
+		byte[] head = new byte[2 + 1 + 4 + 4 + 4 + 4];
 		Bytes.putShort(head, 0, TYPE_SERVER_CONNECT_ACKNOWLEDGMENT);
 		head[2] = CONNECT_STATUS_WORLD;
-		Bytes.putInteger(head, 3, worldSize);
-		Bytes.putInteger(head, 7, playerID);
+		Bytes.putInteger(head, 3, playerID);
+		Bytes.putInteger(head, 7, blocks.getWidth());
+		Bytes.putInteger(head, 11, blocks.getHeight());
+		Bytes.putInteger(head, 15, joinChunks);
 		return head;
 	}
 
-	private static byte[] serialize(Transportable object, boolean compress) {
-		byte[] serialized = SerializationProvider.getProvider().serialize(object);
-		return compress ? Bytes.compress(serialized) : serialized;
-	}
-
+	/** Sends a new entity to the clients that have it in view, the rest receive it if it comes into view later **/
 	public void broadcastAddEntity(Entity e) {
-		byte[] message = buildAddEntity(e);
+		byte[] message = null;
 		for(ClientState client : server.clients()) {
-			switch(client.status) {
-				case STATUS_CONNECTED -> client.recordedSend.add(message);
-				case STATUS_IN_GAME -> client.send(message, true);
+			if(client.hasWorld() && client.interest.enter(e, client.player, viewRadius)) {
+				if(message == null) message = buildAddEntity(e);
+				client.send(message, true);
 			}
 		}
 	}
 
 	private static byte[] buildAddEntity(Entity e) {
-		byte[] entity = SerializationProvider.getProvider().serialize(e);
-		boolean compress = entity.length > MAX_MESSAGE_LENGTH - 3;
-		entity = compress ? Bytes.compress(entity) : entity;
-		byte[] packet = new byte[3 + entity.length];
+		byte[] entity = Codec.DEFLATE_DICTIONARY.encode(SerializationProvider.getProvider().serialize(e));
+		byte[] packet = new byte[2 + entity.length];
 		Bytes.putShort(packet, 0, TYPE_SERVER_CREATE_ENTITY);
-		Bytes.putBoolean(packet, 2, compress);
-		Bytes.copy(entity, packet, 3);
+		Bytes.copy(entity, packet, 2);
 		return packet;
 	}
 
 	public void broadcastRemoveEntity(Entity e) {
+		byte[] packet = buildRemoveEntity(e.getID());
+		broadcastUnsafe(packet, true, client -> client.hasWorld() && client.interest.remove(e.getID()));
+	}
+
+	private static byte[] buildRemoveEntity(int id) {
 		byte[] packet = new byte[2 + 4];
 		Bytes.putShort(packet, 0, TYPE_SERVER_DELETE_ENTITY);
-		Bytes.putInteger(packet, 2, e.getID());
-		for(ClientState client : server.clients()) {
-			switch(client.status) {
-				case STATUS_CONNECTED -> client.recordedSend.add(packet);
-				case STATUS_IN_GAME -> client.send(packet, true);
-			}
-		}
+		Bytes.putInteger(packet, 2, id);
+		return packet;
 	}
 
+	/** Sends a message to the clients that match, leaving out clients over the queue limits if it is unreliable **/
 	private void broadcastUnsafe(byte[] data, boolean reliable, Predicate<ClientState> sendToClient) {
 		for(ClientState client : server.clients()) {
-			if(sendToClient.test(client)) {
+			if((reliable || !backlogged(client)) && sendToClient.test(client)) {
 				client.send(data, reliable);
 			}
 		}
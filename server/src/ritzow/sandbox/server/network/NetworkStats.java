@@ -0,0 +1,131 @@
+package ritzow.sandbox.server.network;
+
+import ritzow.sandbox.util.Histogram;
+import ritzow.sandbox.util.Utility;
+
+/**
+ * Counts the packets, bytes, and socket calls of a {@link Server}. Rates are measured over the time between calls
+ * to {@link #sample(long)}, so that each sample reports the traffic since the previous one. Counts are recorded by
+ * the network thread and sampled by the game thread.
+ * @author Solomon Ritzow
+ */
+public final class NetworkStats {
+	private long packetsSent, packetsReceived, bytesSent, bytesReceived, calls, dropped, malformed, outsideWindow;
+	private long deferred, overLimit;
+
+	/** The number of packets received by each pass of the network thread **/
+	private final Histogram receiveBatches = new Histogram();
+
+	/** The totals as of the last sample **/
+	private long sampleTime = System.nanoTime(), sampleTicks;
+	private long samplePacketsSent, samplePacketsReceived, sampleBytesSent, sampleBytesReceived, sampleCalls;
+
+	synchronized void sent(int bytes) {
+		packetsSent++;
+		bytesSent += bytes;
+		calls++;
+	}
+
+	synchronized void received(int bytes) {
+		packetsReceived++;
+		bytesReceived += bytes;
+		calls++;
+	}
+
+	/** Records a receive call that returned no packet **/
+	synchronized void receivedNothing() {
+		calls++;
+	}
+
+	/** Records a send call that sent nothing because the socket's send buffer was full **/
+	synchronized void sendFailed() {
+		dropped++;
+		calls++;
+	}
+
+	/** Records a packet, or the rest of a packet, that was discarded because it was malformed **/
+	synchronized void receivedMalformed() {
+		malformed++;
+	}
+
+	/** Records a message discarded because it was too far ahead of the messages processed so far **/
+	synchronized void receivedOutsideWindow() {
+		outsideWindow++;
+	}
+
+	/** Records a message discarded because too many messages from its client were waiting to be processed **/
+	synchronized void receivedOverLimit() {
+		overLimit++;
+	}
+
+	/** Records that the network thread stopped receiving with packets possibly left in the socket's receive buffer **/
+	synchronized void deferred() {
+		deferred++;
+	}
+
+	synchronized void receiveBatch(int packets) {
+		receiveBatches.record(packets);
+	}
+
+	public synchronized long packetsSent() {
+		return packetsSent;
+	}
+
+	public synchronized long packetsReceived() {
+		return packetsReceived;
+	}
+
+	public synchronized long bytesSent() {
+		return bytesSent;
+	}
+
+	public synchronized long bytesReceived() {
+		return bytesReceived;
+	}
+
+	/** @return the number of send and receive calls made on the socket **/
+	public synchronized long calls() {
+		return calls;
+	}
+
+	/** @return the number of packets that couldn't be sent because the socket's send buffer was full **/
+	public synchronized long dropped() {
+		return dropped;
+	}
+
+	public synchronized long malformed() {
+		return malformed;
+	}
+
+	/**
+	 * Describes the traffic since the previous sample and starts a new one.
+	 * @param ticks the total number of world ticks run so far, to report socket calls per tick.
+	 */
+	public synchronized String sample(long ticks) {
+		long now = System.nanoTime();
+		double seconds = Math.max(now - sampleTime, 1) / 1_000_000_000d;
+		long tickCount = ticks - sampleTicks;
+		String result = "Sent " + rate(packetsSent - samplePacketsSent, seconds) + " packets/s, "
+			+ Utility.formatSize((long)((bytesSent - sampleBytesSent) / seconds)) + "/s. "
+			+ "Received " + rate(packetsReceived - samplePacketsReceived, seconds) + " packets/s, "
+			+ Utility.formatSize((long)((bytesReceived - sampleBytesReceived) / seconds)) + "/s.\n"
+			+ (tickCount > 0 ? Utility.formatNumber((calls - sampleCalls) / (double)tickCount, 2) : "-")
+			+ " socket calls per tick, " + dropped + " packets dropped on send, " + malformed + " malformed packets, "
+			+ outsideWindow + " messages outside the receive window, "
+			+ overLimit + " messages refused while the game thread was behind, "
+			+ deferred + " receives cut short.\n"
+			+ "Packets per receive: " + receiveBatches.summary(Long::toString);
+		sampleTime = now;
+		sampleTicks = ticks;
+		samplePacketsSent = packetsSent;
+		samplePacketsReceived = packetsReceived;
+		sampleBytesSent = bytesSent;
+		sampleBytesReceived = bytesReceived;
+		sampleCalls = calls;
+		return result;
+	}
+
+	private static String rate(long count, double seconds) {
+		return Utility.formatNumber(count / seconds, 2);
+	}
+}
@@ -0,0 +1,82 @@
+package ritzow.sandbox.server.network;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Messages queued by the game thread for the network thread to send to a client. Entries are stored in fixed size
+ * segments linked together, with no object allocated per entry, and a segment the network thread has finished with is
+ * handed back to the game thread for reuse, so a client that keeps up with its messages allocates nothing. Only one
+ * thread may add entries and only one other thread may take them.
+ * @author Solomon Ritzow
+ */
+final class OutgoingQueue {
+	private static final int SEGMENT_SIZE = 256;
+
+	private static final class Segment {
+		final Object[] entries = new Object[SEGMENT_SIZE];
+		final boolean[] reliable = new boolean[SEGMENT_SIZE];
+		volatile Segment next;
+	}
+
+	/** Written by the adding thread after an entry is stored, so the taking thread sees the entry when it sees the count **/
+	private volatile long added;
+
+	/** A segment that has been emptied, waiting to be reused by the adding thread **/
+	private final AtomicReference<Segment> spare = new AtomicReference<>();
+
+	//only used by the adding thread
+	private Segment tail;
+	private int tailIndex;
+
+	//only used by the taking thread
+	private Segment head;
+	private int headIndex;
+	private long taken;
+
+	OutgoingQueue() {
+		head = tail = new Segment();
+	}
+
+	/** Adds an entry, called by the adding thread **/
+	void add(Object entry, boolean reliable) {
+		if(tailIndex == SEGMENT_SIZE) {
+			Segment segment = spare.getAndSet(null);
+			if(segment == null) {
+				segment = new Segment();
+			} else {
+				segment.next = null;
+			}
+			tail.next = segment;
+			tail = segment;
+			tailIndex = 0;
+		}
+		tail.entries[tailIndex] = entry;
+		tail.reliable[tailIndex] = reliable;
+		tailIndex++;
+		added++; //only this thread writes added
+	}
+
+	/** @return the oldest entry, or null if there are none, called by the taking thread **/
+	Object peek() {
+		if(taken == added)
+			return null;
+		if(headIndex == SEGMENT_SIZE) {
+			Segment emptied = head;
+			head = head.next;
+			headIndex = 0;
+			spare.compareAndSet(null, emptied);
+		}
+		return head.entries[headIndex];
+	}
+
+	/** @return whether the entry returned by {@link #peek()} is reliable **/
+	boolean peekReliable() {
+		return head.reliable[headIndex];
+	}
+
+	/** Removes the entry returned by {@link #peek()}, called by the taking thread **/
+	void remove() {
+		head.entries[headIndex++] = null;
+		taken++;
+	}
+}
@@ -2,42 +2,120 @@ package ritzow.sandbox.server.network;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
+import java.util.function.IntConsumer;
 import ritzow.sandbox.network.NetworkUtility;
-import ritzow.sandbox.network.ReceivePacket;
-import ritzow.sandbox.network.SendPacket;
+import ritzow.sandbox.network.ReceiveWindow;
 
 import static ritzow.sandbox.network.Protocol.*;
 
-/** The server manages connected game clients, sends game updates,
- * receives client input, and broadcasts information for clients. */
+/**
+ * The server manages connected game clients, sends game updates, receives client input, and broadcasts information
+ * for clients. The socket is read and written by a dedicated network thread, so acknowledgements and resends don't
+ * wait for the world to update and a burst of packets can't delay it. Received messages are put in order by the
+ * network thread and handed to the game thread through a queue, which {@link #receive} drains once per update.
+ * Messages sent with {@link ClientNetworkInfo#send} go to the network thread through a queue for each client.
+ */
 public class Server<T extends ClientNetworkInfo> {
 
+	/** The number of packets received from the socket before any of them are processed **/
+	private static final int RECEIVE_BATCH_SIZE = 64;
+
+	/** The most packets the network thread receives before it sends queued messages and acknowledgements.
+	 * Packets past the limit are left in the socket's receive buffer until the next pass. **/
+	private static final int MAX_RECEIVE_PACKETS = 16 * RECEIVE_BATCH_SIZE;
+
+	/** The most messages processed by a single call to {@link #receive}, so that a burst of messages can't delay
+	 * the world update **/
+	private static final int MAX_PROCESS_MESSAGES = MAX_RECEIVE_PACKETS;
+
+	/** The most messages from one client that can wait for the game thread. Further messages aren't acknowledged,
+	 * so a client sending faster than they are processed has to resend them rather than using more memory. **/
+	private static final int MAX_UNPROCESSED_MESSAGES = ReceiveWindow.CAPACITY;
+
+	/** Large enough to hold every packet that could arrive while the network thread is busy **/
+	private static final int SOCKET_RECEIVE_BUFFER_SIZE = 4 * MAX_RECEIVE_PACKETS * MAX_PACKET_SIZE;
+
+	/** The longest the network thread waits for a packet before checking for messages to resend, in milliseconds **/
+	private static final long SELECT_TIMEOUT = 5;
+
+	/** A message that is ready to be processed by the game thread **/
+	private record Received<T>(T client, byte[] data) {}
+
 	private final DatagramChannel channel;
-	private final ByteBuffer receiveBuffer, sendBuffer;
+	private final Selector selector;
+	private final Thread networkThread;
+	private final ByteBuffer sendBuffer;
+	/** Reused direct buffers to receive a batch of packets into, and the sender of each **/
+	private final ByteBuffer[] receiveBuffers;
+	private final InetSocketAddress[] senders;
 	private final Map<InetSocketAddress, T> clients;
+	private final Function<InetSocketAddress, T> init;
+	private final Queue<Received<T>> received;
+	private final NetworkStats stats;
+	private volatile boolean running;
+	private volatile Exception failure;
+
+	private static final IntConsumer NO_ACTION = id -> {};
 
-	public Server(InetSocketAddress bind) throws IOException {
+	/**
+	 * Binds a server socket and starts its network thread.
+	 * @param init creates the state of a client the first time a packet is received from its address.
+	 */
+	public Server(InetSocketAddress bind, Function<InetSocketAddress, T> init) throws IOException {
 		channel = DatagramChannel.open(NetworkUtility.protocolOf(bind.getAddress())).bind(bind);
 		channel.configureBlocking(false);
-		clients = new HashMap<>();
+		channel.setOption(StandardSocketOptions.SO_RCVBUF, SOCKET_RECEIVE_BUFFER_SIZE);
+		selector = Selector.open();
+		channel.register(selector, SelectionKey.OP_READ);
+		this.init = init;
+		clients = new ConcurrentHashMap<>();
+		received = new ConcurrentLinkedQueue<>();
+		stats = new NetworkStats();
 		sendBuffer = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
-		receiveBuffer = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+		receiveBuffers = new ByteBuffer[RECEIVE_BATCH_SIZE];
+		senders = new InetSocketAddress[RECEIVE_BATCH_SIZE];
+		for(int i = 0; i < receiveBuffers.length; i++) {
+			receiveBuffers[i] = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+		}
+		running = true;
+		networkThread = new Thread(this::run, "Server Network I/O");
+		networkThread.setDaemon(true);
+		networkThread.start();
 	}
 
+	public NetworkStats stats() {
+		return stats;
+	}
+
+	/** @return the connected clients, which may be removed from by the game thread while iterating **/
 	public Collection<T> clients() {
 		return clients.values();
 	}
 
+	/** Stops the network thread, sending nothing further, and closes the socket **/
 	public void close() throws IOException {
-		channel.close();
+		running = false;
+		selector.wakeup();
+		try {
+			networkThread.join();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			selector.close();
+			channel.close();
+		}
 	}
 
 	public boolean isOpen() {
@@ -48,120 +126,156 @@ public class Server<T extends ClientNetworkInfo> {
 		return (InetSocketAddress)channel.getLocalAddress();
 	}
 
-	public void receive(Function<InetSocketAddress, T> init, BiConsumer<T, ByteBuffer> messageProcessor) throws IOException {
-		InetSocketAddress sender;
-		while((sender = (InetSocketAddress)channel.receive(receiveBuffer)) != null) {
-			processPacket(sender, init, messageProcessor);
-			receiveBuffer.clear();
+	/**
+	 * Processes messages received by the network thread, in the order they were received, until there are none left
+	 * or {@link #MAX_PROCESS_MESSAGES} have been processed. Messages from clients that have been removed are ignored.
+	 * @throws IOException if the network thread stopped because of an error.
+	 */
+	public void receive(BiConsumer<T, ByteBuffer> messageProcessor) throws IOException {
+		if(failure != null)
+			throw new IOException("network thread stopped", failure);
+		Received<T> message;
+		for(int count = 0; count < MAX_PROCESS_MESSAGES && (message = received.poll()) != null; count++) {
+			T client = message.client();
+			client.unprocessed.decrementAndGet();
+			if(clients.get(client.address) == client) {
+				messageProcessor.accept(client, ByteBuffer.wrap(message.data()));
+			}
+		}
+	}
+
+	/** Wakes the network thread so that messages queued during this update are sent right away **/
+	public void sendQueued() {
+		selector.wakeup();
+	}
+
+	private void run() {
+		try {
+			while(running) {
+				selector.select(SELECT_TIMEOUT);
+				selector.selectedKeys().clear();
+				receivePackets();
+				sendPackets();
+			}
+		} catch(IOException | RuntimeException e) {
+			failure = e;
 		}
 	}
 
-	private void sendResponse(InetSocketAddress recipient, ByteBuffer sendBuffer, int receivedMessageID) throws IOException {
-		channel.send(sendBuffer.put(RESPONSE_TYPE).putInt(receivedMessageID).flip(), recipient);
-		sendBuffer.clear();
+	/**
+	 * Receives and processes packets in batches until there are none left or {@link #MAX_RECEIVE_PACKETS} have been
+	 * processed. Each batch is received before any of it is processed, so the socket is read in a tight loop.
+	 */
+	private void receivePackets() throws IOException {
+		int total = 0, count;
+		do {
+			count = receiveBatch();
+			for(int i = 0; i < count; i++) {
+				processPacket(senders[i], receiveBuffers[i].flip());
+				receiveBuffers[i].clear();
+				senders[i] = null;
+			}
+			total += count;
+		} while(count == RECEIVE_BATCH_SIZE && total < MAX_RECEIVE_PACKETS);
+		if(count == RECEIVE_BATCH_SIZE) stats.deferred();
+		stats.receiveBatch(total);
+	}
+
+	private int receiveBatch() throws IOException {
+		for(int i = 0; i < RECEIVE_BATCH_SIZE; i++) {
+			InetSocketAddress sender = (InetSocketAddress)channel.receive(receiveBuffers[i]);
+			if(sender == null) {
+				stats.receivedNothing();
+				return i;
+			}
+			senders[i] = sender;
+			stats.received(receiveBuffers[i].position());
+		}
+		return RECEIVE_BATCH_SIZE;
 	}
 
-	//use min heap (PriorityQueue) to keep messages in order while queued for processing
-	//if message received is next message, don't bother putting it in queue
-	private void processPacket(InetSocketAddress sender, Function<InetSocketAddress, T> init, BiConsumer<T, ByteBuffer> messageProcessor) throws IOException {
-		if(receiveBuffer.flip().limit() >= MIN_PACKET_SIZE) { //check that packet is large enough
+	//messages received before the messages they follow are held in the client's receive window
+	//if message received is next message, don't bother putting it in the window
+	private void processPacket(InetSocketAddress sender, ByteBuffer receiveBuffer) {
+		if(receiveBuffer.limit() >= MIN_PACKET_SIZE) { //check that packet is large enough
 			T client = clients.computeIfAbsent(sender, init);
-			byte type = receiveBuffer.get(); //type of message (RESPONSE, RELIABLE, UNRELIABLE)
-			int messageID = receiveBuffer.getInt();
-			switch(type) {
-				case RESPONSE_TYPE -> {
-					//remove packet from send queue once acknowledged
-					Iterator<SendPacket> packets = client.sendQueue.iterator();
-					while(packets.hasNext()) {
-						SendPacket packet = packets.next();
-						if(packet.messageID < messageID) {
-							break;
-						} else if(packet.messageID == messageID) {
-							packets.remove();
-							break;
-						}
-					}
+			//every packet acknowledges the messages the client has received
+			client.sendWindow.acknowledge(System.nanoTime(), receiveBuffer.getInt(), receiveBuffer.getLong(), NO_ACTION);
+			client.ping = client.sendWindow.roundTripTime();
+			//the rest of the packet is any number of messages, each with its own header
+			while(receiveBuffer.remaining() >= MESSAGE_HEADER_SIZE) {
+				byte type = receiveBuffer.get(); //type of message (RELIABLE, UNRELIABLE)
+				int messageID = receiveBuffer.getInt();
+				int predecessorID = receiveBuffer.getInt();
+				int length = Short.toUnsignedInt(receiveBuffer.getShort());
+				if((type != RELIABLE_TYPE && type != UNRELIABLE_TYPE) || length > receiveBuffer.remaining()) {
+					stats.receivedMalformed();
+					break; //malformed, ignore the rest of the packet
 				}
-
-				//predecessorID needs to be replaced with messageID in some of this, fix
-				case RELIABLE_TYPE -> {
-					sendResponse(client.address, sendBuffer, messageID);
-					if(messageID > client.headProcessedID) {
-						int predecessorID = receiveBuffer.getInt();
-						if(predecessorID <= client.headProcessedID) {
-							//no need to add to the queue, this is the next message in the stream.
-							sendResponse(client.address, sendBuffer, messageID);
-							process(client, messageID, receiveBuffer, messageProcessor);
-						} else if(predecessorID > client.headProcessedID) {
-							//predecessorID > headProcessedID
-							//this will also happen if the message was already received
-							//this wastes space in case of
-							queueReceived(client, messageID, predecessorID, true, receiveBuffer);
-						} //else error in packet data
-					}
+				ByteBuffer data = receiveBuffer.slice(receiveBuffer.position(), length);
+				receiveBuffer.position(receiveBuffer.position() + length);
+				if(messageID > client.acks.head() && client.unprocessed.get() >= MAX_UNPROCESSED_MESSAGES) {
+					//not acknowledged, a reliable message will be resent once the game thread has caught up
+					stats.receivedOverLimit();
+					continue;
 				}
-
-				case UNRELIABLE_TYPE -> {
-					//only process messages that aren't older than already processed messages
-					//in order to keep all message processing in order
-					if(messageID > client.headProcessedID) {
-						int predecessorID = receiveBuffer.getInt();
-						if(predecessorID > client.headProcessedID) {
-							queueReceived(client, messageID, predecessorID, false, receiveBuffer);
-						} else {
-							//don't need to queue something that can be processed immediately
-							process(client, messageID, receiveBuffer, messageProcessor);
-						}
+				//duplicates are acknowledged too, in case the acknowledgement was lost
+				if(type == RELIABLE_TYPE) client.acks.receivedReliable(messageID);
+				//only process messages that aren't older than already processed messages
+				//in order to keep all message processing in order
+				if(messageID > client.acks.head()) {
+					if(predecessorID <= client.acks.head()) {
+						//no need to add to the queue, this is the next message in the stream.
+						process(client, messageID, data);
+					} else if(!client.receiveWindow.add(client.acks.head(), messageID, predecessorID, data)) {
+						//too far ahead, a reliable message will be resent once the client sees it wasn't acknowledged
+						stats.receivedOutsideWindow();
 					}
 				}
 			}
+		} else {
+			stats.receivedMalformed();
 		}
 	}
 
-	private void queueReceived(ClientNetworkInfo client, int messageID, int predecessorID, boolean reliable, ByteBuffer data) {
-		byte[] copy = new byte[data.remaining()];
-		receiveBuffer.get(copy);
-		client.receiveQueue.add(new ReceivePacket(messageID, predecessorID, reliable, copy));
-	}
-
-	private void process(T client, int messageID, ByteBuffer receiveBuffer, BiConsumer<T, ByteBuffer> messageProcessor) {
-		messageProcessor.accept(client, receiveBuffer);
+	/** Hands a message and the held messages that were waiting for it to the game thread **/
+	private void process(T client, int messageID, ByteBuffer data) {
+		received.add(new Received<>(client, copy(data)));
+		client.unprocessed.incrementAndGet();
 		client.lastMessageProcessTime = System.nanoTime();
-		client.headProcessedID = messageID;
-		ReceivePacket packet = client.receiveQueue.peek();
-		while(packet != null && packet.predecessorReliableID() <= client.headProcessedID) {
-			client.receiveQueue.poll();
-			if(packet.messageID() > client.headProcessedID) {
-				messageProcessor.accept(client, ByteBuffer.wrap(packet.data()));
-				client.headProcessedID = packet.messageID();
-			} //else was a duplicate
-			packet = client.receiveQueue.peek();
+		client.acks.processed(messageID);
+		int next;
+		while((next = client.receiveWindow.next(client.acks.head())) != -1) {
+			received.add(new Received<>(client, copy(client.receiveWindow.take(next))));
+			client.unprocessed.incrementAndGet();
+			client.acks.processed(next);
 		}
 	}
 
-	public void sendQueued() throws IOException {
-		//TODO maybe separate reliable messages into a different datastructure and use queue only for unreliables?
-		for(ClientNetworkInfo client : clients.values()) {
-			Iterator<SendPacket> packets = client.sendQueue.iterator();
-			while(packets.hasNext()) {
-				SendPacket packet = packets.next();
-				if(packet.reliable) {
-					long time = System.nanoTime();
-					if(packet.lastSendTime == -1 || time - packet.lastSendTime > RESEND_INTERVAL) {
-						sendBuffer(client, RELIABLE_TYPE, packet);
-						packet.lastSendTime = time;
-					}
-				} else {
-					//always remove unreliable messages, they will never be re-sent
-					packets.remove();
-					sendBuffer(client, UNRELIABLE_TYPE, packet);
-				}
-			}
+	private static byte[] copy(ByteBuffer data) {
+		byte[] copy = new byte[data.remaining()];
+		data.get(copy);
+		return copy;
+	}
+
+	/** Sends queued messages to every client packed into as few packets as possible,
+	 * and an acknowledgement to clients that weren't sent anything else **/
+	private void sendPackets() throws IOException {
+		long time = System.nanoTime();
+		for(T client : clients.values()) {
+			client.takeQueued();
+			client.sendWindow.send(time, sendBuffer, client.acks, packet -> send(packet, client.address));
+			client.updatePending();
 		}
 	}
 
-	private void sendBuffer(ClientNetworkInfo client, byte type, SendPacket packet) throws IOException {
-		channel.send(sendBuffer.put(type).putInt(packet.messageID).putInt(packet.lastReliableID).put(packet.data).flip(), client.address);
-		sendBuffer.clear();
+	private void send(ByteBuffer packet, InetSocketAddress address) throws IOException {
+		int size = packet.remaining();
+		//a non-blocking send that doesn't fit in the socket's send buffer sends nothing, like any lost packet
+		if(channel.send(packet, address) == 0) {
+			stats.sendFailed();
+		} else {
+			stats.sent(size);
+		}
 	}
 }
@@ -0,0 +1,206 @@
+package ritzow.sandbox.server.world;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import ritzow.sandbox.data.Codec;
+import ritzow.sandbox.data.SerializationException;
+import ritzow.sandbox.server.SerializationProvider;
+import ritzow.sandbox.world.BlockChunk;
+import ritzow.sandbox.world.ChunkStore;
+
+/**
+ * Saves chunks in region files that each hold a fixed number of consecutive chunks. Chunks are written on an executor
+ * in the order they are stored, so storing never waits for I/O, and chunks waiting to be written are returned by load.
+ * Each region file is written to a temporary file and then moved into place, so a crash leaves either the previous
+ * or the new version of a region, never a partially written one. If a region can't be written its chunks are kept
+ * until a later write of the region succeeds, see {@link #retryFailed()}. A region file starts with an index of the length
+ * of each chunk, so loading a chunk reads the index and that chunk only.
+ * @author Solomon Ritzow
+ */
+public class RegionChunkStore implements ChunkStore {
+	/** The number of chunks in each region file **/
+	public static final int REGION_CHUNKS = 16;
+	private static final int FORMAT_VERSION = 2;
+	private static final int HEADER_SIZE = Integer.BYTES * (2 + REGION_CHUNKS);
+
+	private final Path directory;
+	private final Executor writer;
+
+	/** Chunks that have been stored but not yet written, which are newer than the chunks in the region files **/
+	private final Map<Integer, BlockChunk> pending = new ConcurrentHashMap<>();
+
+	/** Regions with a write queued on the executor that hasn't started yet **/
+	private final Set<Integer> queued = ConcurrentHashMap.newKeySet();
+
+	/** Regions whose last write failed, and the reason **/
+	private final Map<Integer, Exception> failed = new ConcurrentHashMap<>();
+
+	/**
+	 * @param directory the directory to keep region files in, created if it doesn't exist.
+	 * @param writer the executor to write regions on, which must run tasks one at a time in the order they are submitted.
+	 */
+	public RegionChunkStore(Path directory, Executor writer) throws IOException {
+		this.directory = Files.createDirectories(directory);
+		this.writer = writer;
+	}
+
+	private Path file(int region) {
+		return directory.resolve("region_" + region + ".dat");
+	}
+
+	@Override
+	public BlockChunk load(int chunkX) {
+		BlockChunk chunk = pending.get(chunkX);
+		if(chunk == null) {
+			ByteBuffer entry = readEntry(chunkX / REGION_CHUNKS, chunkX % REGION_CHUNKS);
+			if(entry != null) {
+				chunk = SerializationProvider.getProvider().deserialize(Codec.decode(entry));
+			}
+		}
+		return chunk;
+	}
+
+	/** @return a single compressed chunk read from a region file, or null if it has never been saved **/
+	private ByteBuffer readEntry(int region, int entry) {
+		Path file = file(region);
+		//positional reads rather than a mapping, because a mapped file can't be replaced on some platforms
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = readFully(channel, ByteBuffer.allocate(HEADER_SIZE), 0);
+			checkHeader(header, file);
+			long offset = HEADER_SIZE;
+			for(int i = 0; i < entry; i++) {
+				offset += header.getInt();
+			}
+			int length = header.getInt();
+			return length == 0 ? null : readFully(channel, ByteBuffer.allocate(length), offset);
+		} catch(NoSuchFileException e) {
+			return null;
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static ByteBuffer readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer, position + buffer.position()) < 0)
+				throw new EOFException("region file is shorter than its index");
+		}
+		return buffer.flip();
+	}
+
+	/** Reads the format version and chunk count at the start of a region file, leaving the buffer at the index **/
+	private static void checkHeader(ByteBuffer data, Path file) {
+		int version = data.getInt(), count = data.getInt();
+		if(version != FORMAT_VERSION || count != REGION_CHUNKS)
+			throw new SerializationException("unsupported region file " + file);
+	}
+
+	@Override
+	public void store(int chunkX, BlockChunk chunk) {
+		pending.put(chunkX, chunk);
+		queueWrite(chunkX / REGION_CHUNKS);
+	}
+
+	/** Queues another write of every region whose last write failed **/
+	public void retryFailed() {
+		for(int region : failed.keySet()) {
+			queueWrite(region);
+		}
+	}
+
+	/**
+	 * @return the reason a region couldn't be written if the last write of any region failed, or null if every
+	 * chunk stored before the last write finished has been written.
+	 */
+	public Exception failure() {
+		return failed.values().stream().findAny().orElse(null);
+	}
+
+	private void queueWrite(int region) {
+		if(queued.add(region)) {
+			writer.execute(() -> writeRegion(region));
+		}
+	}
+
+	/** Writes every pending chunk in a region, along with the chunks already saved in it. If the write fails the
+	 * chunks stay pending, so they are still loaded from memory and are written by the next write of the region. **/
+	private void writeRegion(int region) {
+		//chunks stored from now on need another write
+		queued.remove(region);
+		try {
+			writeRegionFile(region);
+			failed.remove(region);
+		} catch(IOException | SerializationException | BufferUnderflowException e) {
+			//a damaged region file fails the same way every time, but the chunks in memory are still kept
+			failed.put(region, e);
+		}
+	}
+
+	private void writeRegionFile(int region) throws IOException {
+		byte[][] entries = readRegion(region);
+		Map<Integer, BlockChunk> written = new HashMap<>();
+		for(int i = 0; i < REGION_CHUNKS; i++) {
+			int chunkX = region * REGION_CHUNKS + i;
+			BlockChunk chunk = pending.get(chunkX);
+			if(chunk != null) {
+				entries[i] = Codec.DEFLATE_DICTIONARY.encode(SerializationProvider.getProvider().serialize(chunk));
+				written.put(chunkX, chunk);
+			}
+		}
+
+		int size = HEADER_SIZE;
+		for(byte[] entry : entries) {
+			size += entry == null ? 0 : entry.length;
+		}
+		ByteBuffer data = ByteBuffer.allocate(size).putInt(FORMAT_VERSION).putInt(REGION_CHUNKS);
+		for(byte[] entry : entries) {
+			data.putInt(entry == null ? 0 : entry.length);
+		}
+		for(byte[] entry : entries) {
+			if(entry != null) {
+				data.put(entry);
+			}
+		}
+
+		Path temp = directory.resolve("region_" + region + ".tmp");
+		Files.write(temp, data.array());
+		Files.move(temp, file(region), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		//a chunk stored again while this region was being written stays pending for the next write
+		written.forEach(pending::remove);
+	}
+
+	/** @return the compressed chunks in a region, with null for chunks that have never been saved **/
+	private byte[][] readRegion(int region) throws IOException {
+		byte[][] entries = new byte[REGION_CHUNKS][];
+		Path file = file(region);
+		if(Files.exists(file)) {
+			ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file));
+			checkHeader(data, file);
+			int[] lengths = new int[REGION_CHUNKS];
+			for(int i = 0; i < REGION_CHUNKS; i++) {
+				lengths[i] = data.getInt();
+			}
+			for(int i = 0; i < REGION_CHUNKS; i++) {
+				if(lengths[i] > 0) {
+					data.get(entries[i] = new byte[lengths[i]]);
+				}
+			}
+		}
+		return entries;
+	}
+}
@@ -22,7 +22,7 @@ public class ServerPlayerEntity extends PlayerEntity {
 	public void onCollision(World world, Entity e, long nanoseconds) {
 		if(e instanceof ItemEntity && e.getVelocityY() <= 0) {
 			Utility.launchAtRandomRatio(random, e, 1/8d, 3/8d, LAUNCH_VELOCITY * random.nextFloat(1, 2));
-			e.setVelocityX(e.getVelocityX() + this.velocityX);
+			e.setVelocityX(e.getVelocityX() + getVelocityX());
 		}
 	}
 
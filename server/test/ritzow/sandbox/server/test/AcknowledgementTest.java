@@ -0,0 +1,211 @@
+package ritzow.sandbox.server.test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import ritzow.sandbox.network.Acknowledgements;
+import ritzow.sandbox.network.ReceiveWindow;
+import ritzow.sandbox.network.SendWindow;
+import ritzow.sandbox.util.Utility;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static ritzow.sandbox.network.Protocol.*;
+
+public class AcknowledgementTest {
+	private static final long STEP = Utility.millisToNanos(10);
+
+	/** One end of a connection, receiving the same way the client and server do **/
+	private static final class Endpoint {
+		final SendWindow window = new SendWindow();
+		final Acknowledgements acks = new Acknowledgements();
+		final ReceiveWindow queue = new ReceiveWindow();
+		final ByteBuffer buffer = ByteBuffer.allocate(MAX_PACKET_SIZE);
+		final List<Integer> processed = new ArrayList<>();
+		int packets, responses, next;
+		long time;
+
+		void sendMessages(int count) {
+			for(int i = 0; i < count; i++) {
+				window.add(ByteBuffer.allocate(4).putInt(next++).array(), true);
+			}
+		}
+
+		void send(long time, List<ByteBuffer> link) throws Exception {
+			this.time = time;
+			window.send(time, buffer, acks, packet -> {
+				link.add(ByteBuffer.allocate(packet.remaining()).put(packet).flip());
+				if(packet.limit() == MIN_PACKET_SIZE) {
+					responses++;
+				} else {
+					packets++;
+				}
+			});
+		}
+
+		void receive(ByteBuffer packet) {
+			window.acknowledge(time, packet.getInt(), packet.getLong(), id -> {});
+			while(packet.remaining() >= MESSAGE_HEADER_SIZE) {
+				byte type = packet.get();
+				int id = packet.getInt(), predecessor = packet.getInt();
+				assertEquals(RELIABLE_TYPE, type);
+				assertEquals(Integer.BYTES, packet.getShort());
+				acks.receivedReliable(id);
+				int value = packet.getInt();
+				if(id > acks.head()) {
+					if(predecessor <= acks.head()) {
+						process(id, value);
+					} else {
+						queue.add(acks.head(), id, predecessor, ByteBuffer.allocate(4).putInt(value).flip());
+					}
+				}
+			}
+		}
+
+		void process(int id, int value) {
+			processed.add(value);
+			acks.processed(id);
+			int next;
+			while((next = queue.next(acks.head())) != -1) {
+				processed.add(queue.take(next).getInt(0));
+				acks.processed(next);
+			}
+		}
+	}
+
+	@Test
+	void lossyReorderedStreamIsDeliveredInOrder() throws Exception {
+		Endpoint a = new Endpoint(), b = new Endpoint();
+		Random random = new Random(0);
+		List<ByteBuffer> toA = new ArrayList<>(), toB = new ArrayList<>();
+		for(int round = 0; round < 2000; round++) {
+			long time = round * STEP;
+			if(round < 1000) {
+				a.sendMessages(random.nextInt(3));
+				b.sendMessages(random.nextInt(3));
+			}
+			a.send(time, toB);
+			b.send(time, toA);
+			deliver(toA, a, random);
+			deliver(toB, b, random);
+		}
+		assertEquals(range(a.next), b.processed);
+		assertEquals(range(b.next), a.processed);
+		assertTrue(a.window.isEmpty() && b.window.isEmpty(), a.window + ", " + b.window);
+	}
+
+	@Test
+	void oversizedMessageIsRejected() {
+		assertThrows(IllegalArgumentException.class, () -> new SendWindow().add(new byte[MAX_MESSAGE_LENGTH + 1], true));
+	}
+
+	@Test
+	void acknowledgementsArePiggybacked() throws Exception {
+		Endpoint a = new Endpoint(), b = new Endpoint();
+		List<ByteBuffer> toA = new ArrayList<>(), toB = new ArrayList<>();
+		for(int round = 0; round < 1000; round++) {
+			a.sendMessages(1);
+			b.sendMessages(1);
+			a.send(round * STEP, toB);
+			b.send(round * STEP, toA);
+			toA.forEach(a::receive);
+			toB.forEach(b::receive);
+			toA.clear();
+			toB.clear();
+		}
+		//a separate response for every message would double the packets sent
+		assertEquals(0, a.responses + b.responses);
+		assertEquals(2000, a.packets + b.packets);
+	}
+
+	@Test
+	void messagesArePackedIntoFewPackets() throws Exception {
+		Endpoint a = new Endpoint(), b = new Endpoint();
+		List<ByteBuffer> toA = new ArrayList<>(), toB = new ArrayList<>();
+		//as many as the congestion control allows to be sent at once
+		a.sendMessages(500);
+		a.send(0, toB);
+		//each message takes its header and 4 bytes of data after the acknowledgement at the start of each packet
+		int perPacket = (MAX_PACKET_SIZE - MIN_PACKET_SIZE) / (MESSAGE_HEADER_SIZE + Integer.BYTES);
+		assertEquals((500 + perPacket - 1) / perPacket, a.packets);
+		assertTrue(toB.stream().allMatch(packet -> packet.limit() <= MAX_PACKET_SIZE));
+		toB.forEach(b::receive);
+		assertEquals(range(500), b.processed);
+		//the single acknowledgement for all of them
+		b.send(STEP, toA);
+		toA.forEach(a::receive);
+		assertEquals(1, b.responses);
+		assertTrue(a.window.isEmpty());
+	}
+
+	@Test
+	void sharedMessageIsSentByEveryWindow() throws Exception {
+		//the same array queued on several connections, as a broadcast is
+		byte[] message = ByteBuffer.allocate(4).putInt(0).array();
+		Endpoint[] senders = {new Endpoint(), new Endpoint(), new Endpoint()};
+		for(Endpoint sender : senders) {
+			assertEquals(0, sender.window.add(message, true));
+			Endpoint receiver = new Endpoint();
+			List<ByteBuffer> toReceiver = new ArrayList<>(), toSender = new ArrayList<>();
+			sender.send(0, toReceiver);
+			toReceiver.forEach(receiver::receive);
+			receiver.send(STEP, toSender);
+			toSender.forEach(sender::receive);
+			assertEquals(List.of(0), receiver.processed);
+			assertTrue(sender.window.isEmpty());
+		}
+		assertEquals(0, ByteBuffer.wrap(message).getInt());
+	}
+
+	@Test
+	void queuedBytesAreCountedUntilAcknowledged() throws Exception {
+		SendWindow window = new SendWindow();
+		window.add(new byte[100], true);
+		window.add(new byte[50], false);
+		assertEquals(150, window.bytes());
+		window.send(0, ByteBuffer.allocate(MAX_PACKET_SIZE), new Acknowledgements(), packet -> {});
+		//the unreliable message is gone once sent
+		assertEquals(100, window.bytes());
+		window.acknowledge(STEP, 0, 0, id -> {});
+		assertEquals(0, window.bytes());
+		assertTrue(window.isEmpty());
+	}
+
+	@Test
+	void windowGrowsAndAcknowledgesOutOfOrder() throws Exception {
+		SendWindow window = new SendWindow();
+		for(int i = 0; i < 1000; i++) {
+			window.add(new byte[0], true);
+		}
+		//more than the congestion control allows at once, but the rest are sent before any are resent
+		ByteBuffer buffer = ByteBuffer.allocate(MAX_PACKET_SIZE);
+		window.send(0, buffer, new Acknowledgements(), packet -> {});
+		window.send(5 * STEP, buffer, new Acknowledgements(), packet -> {});
+		List<Integer> acknowledged = new ArrayList<>();
+		//messages up to 499 and every other message after 500
+		window.acknowledge(6 * STEP, 499, 0x5555_5555_5555_5555L, acknowledged::add);
+		assertEquals(500 + 32, acknowledged.size());
+		assertEquals(1000 - 532, window.size());
+		window.acknowledge(6 * STEP, 999, 0, acknowledged::add);
+		assertEquals(1000, acknowledged.size());
+		assertTrue(window.isEmpty());
+	}
+
+	private static void deliver(List<ByteBuffer> link, Endpoint receiver, Random random) {
+		Collections.shuffle(link, random);
+		for(ByteBuffer packet : link) {
+			if(random.nextDouble() >= 0.2) {
+				receiver.receive(packet);
+			}
+		}
+		link.clear();
+	}
+
+	private static List<Integer> range(int count) {
+		List<Integer> values = new ArrayList<>();
+		for(int i = 0; i < count; i++) values.add(i);
+		return values;
+	}
+}
@@ -0,0 +1,70 @@
+package ritzow.sandbox.server.test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+import ritzow.sandbox.network.EntitySnapshot;
+import ritzow.sandbox.server.network.AreaOfInterest;
+import ritzow.sandbox.world.block.GlassBlock;
+import ritzow.sandbox.world.entity.Entity;
+import ritzow.sandbox.world.entity.ItemEntity;
+import ritzow.sandbox.world.item.BlockItem;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AreaOfInterestTest {
+	private static final float RADIUS = 48;
+
+	@Test
+	void onlyEntitiesInViewAreSent() {
+		List<Entity> entities = new ArrayList<>();
+		SplittableRandom random = new SplittableRandom(0);
+		for(int i = 0; i < 2000; i++) {
+			entities.add(item(i, (float)random.nextDouble(1000), (float)random.nextDouble(100)));
+		}
+
+		AreaOfInterest interest = new AreaOfInterest();
+		Set<Integer> known = new HashSet<>();
+		for(float centerX = 0; centerX <= 1000; centerX += 25) {
+			float x = centerX;
+			EntitySnapshot visible = interest.update(EntitySnapshot.capture(entities, entities.size()), x, 50, RADIUS,
+				id -> assertTrue(known.add(id)), id -> assertTrue(known.remove(id)));
+			assertEquals(known.size(), visible.size());
+			for(int i = 0; i < visible.size(); i++) {
+				assertTrue(interest.knows(visible.id(i)));
+				assertTrue(Math.abs(visible.positionX(i) - x) <= RADIUS + AreaOfInterest.MARGIN);
+			}
+			for(Entity e : entities) {
+				if(AreaOfInterest.inRange(x, 50, e.getPositionX(), e.getPositionY(), RADIUS)) {
+					assertTrue(known.contains(e.getID()));
+				}
+			}
+		}
+		assertTrue(known.size() < entities.size() / 5, known.size() + " entities in view");
+	}
+
+	@Test
+	void entitiesAtTheEdgeAreNotResent() {
+		Entity e = item(0, RADIUS - 1, 0);
+		AreaOfInterest interest = new AreaOfInterest();
+		int[] events = new int[2];
+		for(int step = 0; step < 20; step++) {
+			e.setPositionX(RADIUS + (step % 2 == 0 ? -1 : 1));
+			interest.update(EntitySnapshot.capture(List.of(e), 1), 0, 0, RADIUS, id -> events[0]++, id -> events[1]++);
+		}
+		assertArrayEquals(new int[] {1, 0}, events);
+
+		e.setPositionX(RADIUS + AreaOfInterest.MARGIN + 1);
+		EntitySnapshot visible = interest.update(EntitySnapshot.capture(List.of(e), 1), 0, 0, RADIUS, id -> events[0]++, id -> events[1]++);
+		assertArrayEquals(new int[] {1, 1}, events);
+		assertEquals(0, visible.size());
+		assertFalse(interest.knows(0));
+	}
+
+	private static Entity item(int id, float x, float y) {
+		return new ItemEntity<>(id, new BlockItem(GlassBlock.INSTANCE), x, y);
+	}
+}
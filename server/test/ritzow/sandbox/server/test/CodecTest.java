@@ -0,0 +1,81 @@
+package ritzow.sandbox.server.test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+import ritzow.sandbox.data.Codec;
+import ritzow.sandbox.data.SerializationException;
+import ritzow.sandbox.server.SerializationProvider;
+import ritzow.sandbox.world.BlockGrid;
+import ritzow.sandbox.world.World;
+import ritzow.sandbox.world.block.GlassBlock;
+import ritzow.sandbox.world.entity.ItemEntity;
+import ritzow.sandbox.world.generator.SinusoidWorldGenerator;
+import ritzow.sandbox.world.item.BlockItem;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CodecTest {
+
+	@Test
+	void everyCodecRoundTrips() {
+		for(byte[] sample : samples()) {
+			for(Codec codec : Codec.values()) {
+				byte[] encoded = codec.encode(sample);
+				assertTrue(encoded.length <= sample.length + Codec.HEADER_SIZE);
+				assertArrayEquals(sample, Codec.decode(ByteBuffer.wrap(encoded)).array(), codec.name());
+			}
+		}
+	}
+
+	@Test
+	void dictionaryCompressesSmallPayloads() {
+		var provider = SerializationProvider.getProvider();
+		byte[] entity = provider.serialize(new ItemEntity<>(10, new BlockItem(GlassBlock.INSTANCE), 150.5f, 90));
+		byte[] chunk = provider.serialize(SinusoidWorldGenerator.builder().width(320).generate().getBlocks().getChunk(3));
+		assertTrue(Codec.DEFLATE_DICTIONARY.encode(entity).length < Codec.DEFLATE_BEST.encode(entity).length);
+		assertTrue(Codec.DEFLATE_DICTIONARY.encode(chunk).length < Codec.DEFLATE_BEST.encode(chunk).length);
+	}
+
+	@Test
+	void invalidDataIsRejected() {
+		byte[] data = new byte[1000];
+		Arrays.fill(data, (byte)7);
+		for(Codec codec : List.of(Codec.DEFLATE_FAST, Codec.LZ)) {
+			byte[] encoded = codec.encode(data);
+			assertThrows(SerializationException.class, () -> Codec.decode(ByteBuffer.wrap(encoded, 0, encoded.length - 1)));
+			encoded[1]++; //decompressed length
+			assertThrows(SerializationException.class, () -> Codec.decode(ByteBuffer.wrap(encoded)));
+		}
+		assertThrows(SerializationException.class, () -> Codec.decode(ByteBuffer.wrap(new byte[] {(byte)200, 0, 0, 0, 0})));
+	}
+
+	@Test
+	void trainingIsDeterministic() {
+		List<byte[]> samples = samples();
+		byte[] dictionary = Codec.trainDictionary(samples, 512);
+		assertTrue(dictionary.length > 0 && dictionary.length <= 512);
+		assertArrayEquals(dictionary, Codec.trainDictionary(samples, 512));
+	}
+
+	private static List<byte[]> samples() {
+		List<byte[]> samples = new ArrayList<>();
+		var provider = SerializationProvider.getProvider();
+		World world = SinusoidWorldGenerator.builder().width(320).generate();
+		BlockGrid blocks = world.getBlocks();
+		blocks.set(World.LAYER_MAIN, 40, 10, GlassBlock.INSTANCE);
+		for(int chunk = 0; chunk < blocks.getChunkCount(); chunk++) {
+			samples.add(provider.serialize(blocks.getChunk(chunk)));
+		}
+		samples.add(provider.serialize(new ItemEntity<>(1, new BlockItem(GlassBlock.INSTANCE), 5, 60)));
+		samples.add(provider.serialize(blocks));
+		byte[] random = new byte[5000];
+		new SplittableRandom(0).nextBytes(random);
+		samples.add(random);
+		samples.add(new byte[0]);
+		return samples;
+	}
+}
@@ -0,0 +1,66 @@
+package ritzow.sandbox.server.test;
+
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Test;
+import ritzow.sandbox.network.Acknowledgements;
+import ritzow.sandbox.network.SendWindow;
+import ritzow.sandbox.util.Utility;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static ritzow.sandbox.network.Protocol.*;
+
+public class CongestionControlTest {
+	private static final long STEP = Utility.millisToNanos(10);
+
+	@Test
+	void roundTripIsEstimated() throws Exception {
+		SendWindow window = new SendWindow();
+		ByteBuffer buffer = ByteBuffer.allocate(MAX_PACKET_SIZE);
+		long roundTrip = Utility.millisToNanos(30);
+		for(int i = 0; i < 20; i++) {
+			window.add(new byte[16], true);
+			window.send(i * STEP * 5, buffer, new Acknowledgements(), packet -> {});
+			window.acknowledge(i * STEP * 5 + roundTrip, i, 0, id -> {});
+		}
+		assertEquals(roundTrip, window.roundTripTime());
+		assertTrue(window.congestion().timeout() >= roundTrip);
+		assertTrue(window.isEmpty());
+	}
+
+	@Test
+	void unresponsiveClientIsNotFlooded() throws Exception {
+		SendWindow window = new SendWindow();
+		ByteBuffer buffer = ByteBuffer.allocate(MAX_PACKET_SIZE);
+		int messages = 200, size = 500;
+		for(int i = 0; i < messages; i++) {
+			window.add(new byte[size], true);
+		}
+		long[] bytes = {0};
+		for(long time = 0; time < TIMEOUT_DISCONNECT; time += STEP) {
+			window.send(time, buffer, new Acknowledgements(), packet -> bytes[0] += packet.remaining());
+		}
+		//resending every message every resend interval until the connection times out
+		long fixedInterval = (long)messages * size * (TIMEOUT_DISCONNECT / RESEND_INTERVAL);
+		assertTrue(bytes[0] < fixedInterval / 10, bytes[0] + " bytes sent");
+		assertEquals(messages, window.size());
+	}
+
+	@Test
+	void unreliableMessagesAreDroppedFirst() throws Exception {
+		SendWindow window = new SendWindow();
+		ByteBuffer buffer = ByteBuffer.allocate(MAX_PACKET_SIZE);
+		for(int i = 0; i < 20; i++) {
+			window.add(new byte[900], true);
+			window.add(new byte[900], false);
+		}
+		//each message fills its own packet
+		int[] reliable = {0}, unreliable = {0};
+		window.send(0, buffer, new Acknowledgements(), packet -> {
+			if(packet.get(MIN_PACKET_SIZE) == RELIABLE_TYPE) reliable[0]++; else unreliable[0]++;
+		});
+		assertTrue(reliable[0] + unreliable[0] < 40, "everything was sent at once");
+		//reliable messages that couldn't be sent are still queued, the rest of the unreliable messages are gone
+		assertEquals(20, window.size());
+		assertEquals(20 - unreliable[0], window.unreliableDropped());
+	}
+}
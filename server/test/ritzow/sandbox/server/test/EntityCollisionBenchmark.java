@@ -0,0 +1,29 @@
+package ritzow.sandbox.server.test;
+
+import ritzow.sandbox.world.World;
+
+import static ritzow.sandbox.server.test.EntityCollisionTest.*;
+
+/** Measures the time taken to update a world per entity as the number of entities grows. Run manually,
+ * since timings depend on the machine and its load. **/
+public class EntityCollisionBenchmark {
+	public static void main(String[] args) {
+		//warm up so that both measurements use compiled code
+		measure(5_000);
+		double small = measure(5_000);
+		double large = measure(50_000);
+		System.out.printf("Entity update: %.0f ns/entity at 5k, %.0f ns/entity at 50k, %.1fx%n", small, large, large / small);
+	}
+
+	/** @return the best time taken to update a world in nanoseconds per entity **/
+	private static double measure(int entities) {
+		World world = populate(entities, WORLD_WIDTH, PLAYERS, 0);
+		long best = Long.MAX_VALUE;
+		for(int i = 0; i < 10; i++) {
+			long start = System.nanoTime();
+			world.update(STEP);
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return (double)best / entities;
+	}
+}
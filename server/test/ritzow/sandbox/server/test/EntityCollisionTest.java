@@ -0,0 +1,74 @@
+package ritzow.sandbox.server.test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+import ritzow.sandbox.server.world.entity.ServerPlayerEntity;
+import ritzow.sandbox.util.Utility;
+import ritzow.sandbox.world.World;
+import ritzow.sandbox.world.block.DirtBlock;
+import ritzow.sandbox.world.entity.Entity;
+import ritzow.sandbox.world.entity.ItemEntity;
+import ritzow.sandbox.world.item.BlockItem;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EntityCollisionTest {
+	static final int WORLD_WIDTH = 2000, WORLD_HEIGHT = 100, PLAYERS = 16;
+	static final long STEP = Utility.frameRateToFrameTimeNanos(60);
+
+	@Test
+	void candidatesScaleLinearly() {
+		//players collide with each other, at the same number per column in a world ten times as wide
+		double small = candidatesPerEntity(5_000, WORLD_WIDTH);
+		double large = candidatesPerEntity(50_000, WORLD_WIDTH * 10);
+		assertTrue(small > 0, "no entities were found close enough to collide");
+		assertTrue(large / small < 1.5, "collision candidates per entity grew by a factor of " + large / small);
+	}
+
+	@Test
+	void rectangleQueryMatchesScan() {
+		World world = populate(10_000, WORLD_WIDTH, PLAYERS, 1);
+		world.update(STEP);
+		SplittableRandom random = new SplittableRandom(2);
+		for(int query = 0; query < 100; query++) {
+			float x = (float)random.nextDouble(WORLD_WIDTH), y = (float)random.nextDouble(WORLD_HEIGHT);
+			float width = (float)random.nextDouble(1, 30), height = (float)random.nextDouble(1, 30);
+			Set<Entity> expected = new HashSet<>();
+			for(Entity e : world) {
+				if(Utility.intersection(x, y, width, height, e.getPositionX(), e.getPositionY(), e.getWidth(), e.getHeight())) {
+					expected.add(e);
+				}
+			}
+			assertEquals(expected, new HashSet<>(world.getEntitiesInRectangle(x, y, width, height)));
+		}
+	}
+
+	/** @return the number of entity pairs checked for collisions by an update per entity **/
+	private static double candidatesPerEntity(int entities, int width) {
+		World world = populate(entities, width, entities, 0);
+		world.update(STEP);
+		return (double)world.collisionCandidates() / entities;
+	}
+
+	/** Creates a world of randomly placed entities, the first {@code players} of them players and the rest items **/
+	static World populate(int entities, int width, int players, long seed) {
+		World world = new World(width, WORLD_HEIGHT);
+		SplittableRandom random = new SplittableRandom(seed);
+		BlockItem item = new BlockItem(DirtBlock.INSTANCE);
+		for(int i = 0; i < entities; i++) {
+			float x = (float)random.nextDouble(width), y = (float)random.nextDouble(WORLD_HEIGHT);
+			if(i < players) {
+				Entity player = new ServerPlayerEntity(world.nextEntityID());
+				player.setPositionX(x);
+				player.setPositionY(y);
+				world.add(player);
+			} else {
+				world.add(new ItemEntity<>(world.nextEntityID(), item, x, y));
+			}
+		}
+		return world;
+	}
+}
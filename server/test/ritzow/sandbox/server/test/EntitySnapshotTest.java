@@ -0,0 +1,150 @@
+package ritzow.sandbox.server.test;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+import ritzow.sandbox.network.EntitySnapshot;
+import ritzow.sandbox.network.EntitySnapshotReceiver;
+import ritzow.sandbox.util.Utility;
+import ritzow.sandbox.world.World;
+import ritzow.sandbox.world.block.GlassBlock;
+import ritzow.sandbox.world.entity.Entity;
+import ritzow.sandbox.world.entity.ItemEntity;
+import ritzow.sandbox.world.generator.SinusoidWorldGenerator;
+import ritzow.sandbox.world.item.BlockItem;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EntitySnapshotTest {
+	private static final long STEP = Utility.frameRateToFrameTimeNanos(60);
+	private static final float POSITION_ERROR = 0.5f / 256, VELOCITY_ERROR = Utility.convertPerSecondToPerNano(0.5f / 256);
+
+	/** The sending side of GameServer, with messages dropped at random unless sent reliably **/
+	private static final class Connection {
+		final EntitySnapshot[] sent = new EntitySnapshot[EntitySnapshot.HISTORY];
+		final EntitySnapshotReceiver receiver = new EntitySnapshotReceiver();
+		final Map<Integer, float[]> received = new HashMap<>();
+		final SplittableRandom random = new SplittableRandom(0);
+		final double loss;
+		EntitySnapshot baseline;
+		int sequence, bytes;
+
+		Connection(double loss) {
+			this.loss = loss;
+		}
+
+		/** @return true if every message arrived **/
+		boolean send(World world) {
+			EntitySnapshot snapshot = EntitySnapshot.capture(world, world.entities()).withSequence(sequence++);
+			boolean full = baseline == null || snapshot.sequence() - baseline.sequence() >= EntitySnapshot.HISTORY;
+			List<byte[]> messages = snapshot.encode(full ? null : baseline);
+			sent[snapshot.sequence() % EntitySnapshot.HISTORY] = snapshot;
+			if(full) baseline = snapshot;
+			received.clear();
+			bytes = 0;
+			boolean complete = true;
+			for(byte[] message : messages) {
+				bytes += message.length;
+				if(full || random.nextDouble() >= loss) {
+					ByteBuffer data = ByteBuffer.wrap(message, 2, message.length - 2);
+					assertTrue(receiver.receive(data, (id, x, y, vx, vy) -> received.put(id, new float[] {x, y, vx, vy})));
+				} else {
+					complete = false;
+				}
+			}
+
+			int ack = receiver.latest();
+			EntitySnapshot acked = sent[Math.floorMod(ack, EntitySnapshot.HISTORY)];
+			if(acked != null && acked.sequence() == ack && ack > baseline.sequence()) {
+				baseline = acked;
+			}
+			return complete;
+		}
+	}
+
+	@Test
+	void valuesAtTheLimitsAreEncoded() {
+		ItemEntity<BlockItem> item = new ItemEntity<>(0, new BlockItem(GlassBlock.INSTANCE), -1e9f, -1e9f);
+		item.setVelocityX(-1e9f);
+		item.setVelocityY(-1e9f);
+		EntitySnapshot first = EntitySnapshot.capture(List.of(item), 1).withSequence(0);
+		//moving from one limit to the other changes each value by the most it can
+		item.setPositionX(1e9f);
+		item.setPositionY(1e9f);
+		item.setVelocityX(1e9f);
+		item.setVelocityY(1e9f);
+		EntitySnapshot second = EntitySnapshot.capture(List.of(item), 1).withSequence(1);
+
+		EntitySnapshotReceiver receiver = new EntitySnapshotReceiver();
+		float[] state = new float[4];
+		for(EntitySnapshot snapshot : List.of(first, second)) {
+			for(byte[] message : snapshot.encode(snapshot == first ? null : first)) {
+				assertTrue(receiver.receive(ByteBuffer.wrap(message, 2, message.length - 2),
+					(id, x, y, vx, vy) -> System.arraycopy(new float[] {x, y, vx, vy}, 0, state, 0, 4)));
+			}
+			float sign = snapshot == first ? -1 : 1;
+			for(float value : state) {
+				assertEquals(sign, Math.signum(value));
+			}
+		}
+		assertEquals(1, receiver.latest());
+	}
+
+	@Test
+	void receivedStateMatchesWorld() {
+		World world = populate();
+		Connection connection = new Connection(0.2);
+		int complete = 0;
+		for(int update = 0; update < 100; update++) {
+			for(int tick = 0; tick < 12; tick++) {
+				world.update(STEP);
+			}
+			if(update % 10 == 5) {
+				world.remove(world.iterator().next());
+				world.add(new ItemEntity<>(world.nextEntityID(), new BlockItem(GlassBlock.INSTANCE), 50, 80));
+			}
+
+			if(connection.send(world)) {
+				complete++;
+				assertEquals(world.entities(), connection.received.size());
+				for(Entity e : world) {
+					float[] state = connection.received.get(e.getID());
+					assertEquals(e.getPositionX(), state[0], POSITION_ERROR);
+					assertEquals(e.getPositionY(), state[1], POSITION_ERROR);
+					assertEquals(e.getVelocityX(), state[2], VELOCITY_ERROR);
+					assertEquals(e.getVelocityY(), state[3], VELOCITY_ERROR);
+				}
+			}
+		}
+		assertTrue(complete > 10);
+	}
+
+	@Test
+	void restingEntitiesAreNotResent() {
+		World world = populate();
+		Connection connection = new Connection(0);
+		for(int update = 0; update < 30; update++) {
+			for(int tick = 0; tick < 12; tick++) {
+				world.update(STEP);
+			}
+			connection.send(world);
+		}
+		//the previous format sent 20 bytes for every entity
+		assertTrue(connection.bytes < world.entities() * 2, connection.bytes + " bytes");
+	}
+
+	private static World populate() {
+		World world = SinusoidWorldGenerator.builder().width(500).generate();
+		world.setRemoveEntities();
+		SplittableRandom random = new SplittableRandom(0);
+		float top = world.getBlocks().getHeight() - 1;
+		for(int i = 0; i < 2000; i++) {
+			float x = (float)random.nextDouble(500), y = top - (float)random.nextDouble(10);
+			world.add(new ItemEntity<>(world.nextEntityID(), new BlockItem(GlassBlock.INSTANCE), x, y));
+		}
+		return world;
+	}
+}
@@ -0,0 +1,83 @@
+package ritzow.sandbox.server.test;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.Test;
+import ritzow.sandbox.util.Utility;
+import ritzow.sandbox.world.World;
+import ritzow.sandbox.world.block.GrassBlock;
+import ritzow.sandbox.world.entity.Entity;
+import ritzow.sandbox.world.entity.ItemEntity;
+import ritzow.sandbox.world.entity.PlayerEntity;
+import ritzow.sandbox.world.generator.SinusoidWorldGenerator;
+import ritzow.sandbox.world.item.BlockItem;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ParallelUpdateTest {
+	private static final long STEP = Utility.frameRateToFrameTimeNanos(60);
+
+	/** A player that pushes entities it collides with, deterministically unlike ServerPlayerEntity **/
+	private static final class PushingPlayer extends PlayerEntity {
+		PushingPlayer(int entityID) {
+			super(entityID);
+		}
+
+		@Override
+		public void onCollision(World world, Entity e, long nanoseconds) {
+			e.setVelocityX(e.getVelocityX() + getVelocityX());
+			e.setVelocityY(Utility.convertPerSecondToPerNano(5));
+		}
+
+		@Override
+		public boolean interactsWithEntities() {
+			return true;
+		}
+
+		@Override
+		public boolean collidesWithEntities() {
+			return true;
+		}
+	}
+
+	@Test
+	void parallelMatchesSerial() {
+		World serial = populate(), parallel = populate();
+		parallel.setParallelism(ForkJoinPool.commonPool());
+		for(int tick = 0; tick < 300; tick++) {
+			serial.update(STEP);
+			parallel.update(STEP);
+		}
+
+		assertEquals(serial.entities(), parallel.entities());
+		for(Entity expected : serial) {
+			Entity actual = parallel.getEntityFromID(expected.getID());
+			assertEquals(Float.floatToRawIntBits(expected.getPositionX()), Float.floatToRawIntBits(actual.getPositionX()));
+			assertEquals(Float.floatToRawIntBits(expected.getPositionY()), Float.floatToRawIntBits(actual.getPositionY()));
+			assertEquals(Float.floatToRawIntBits(expected.getVelocityX()), Float.floatToRawIntBits(actual.getVelocityX()));
+			assertEquals(Float.floatToRawIntBits(expected.getVelocityY()), Float.floatToRawIntBits(actual.getVelocityY()));
+		}
+	}
+
+	private static World populate() {
+		World world = SinusoidWorldGenerator.builder().width(1000).generate();
+		world.setRemoveEntities();
+		SplittableRandom random = new SplittableRandom(0);
+		BlockItem item = new BlockItem(GrassBlock.INSTANCE);
+		for(int i = 0; i < 20_000; i++) {
+			float x = (float)random.nextDouble(1000), y = (float)random.nextDouble(45, 75);
+			if(i % 50 == 0) {
+				PlayerEntity player = new PushingPlayer(world.nextEntityID());
+				player.setPositionX(x);
+				player.setPositionY(y);
+				player.setLeft(random.nextBoolean());
+				player.setRight(random.nextBoolean());
+				player.setUp(random.nextBoolean());
+				world.add(player);
+			} else {
+				world.add(new ItemEntity<>(world.nextEntityID(), item, x, y));
+			}
+		}
+		return world;
+	}
+}
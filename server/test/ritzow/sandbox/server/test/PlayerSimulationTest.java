@@ -0,0 +1,59 @@
+package ritzow.sandbox.server.test;
+
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+import ritzow.sandbox.network.Protocol.PlayerState;
+import ritzow.sandbox.server.world.entity.ServerPlayerEntity;
+import ritzow.sandbox.util.Utility;
+import ritzow.sandbox.world.World;
+import ritzow.sandbox.world.entity.PlayerEntity;
+import ritzow.sandbox.world.generator.SinusoidWorldGenerator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+public class PlayerSimulationTest {
+	private static final long STEP = Utility.frameRateToFrameTimeNanos(60);
+	private static final int STEPS = 600;
+
+	/** Clients replay their player with World.simulate, which must match what the server's world update does **/
+	@Test
+	void simulateMatchesUpdate() {
+		World world = SinusoidWorldGenerator.builder().width(200).generate();
+		PlayerEntity player = new ServerPlayerEntity(world.nextEntityID());
+		player.setPositionX(100);
+		player.setPositionY(world.getBlocks().getHeight() - 1);
+		world.add(player);
+		short[] states = new short[STEPS];
+		SplittableRandom random = new SplittableRandom(0);
+		for(int i = 0; i < STEPS; i++) {
+			//hold each combination of movement inputs for a while, as a person would
+			states[i] = i % 30 == 0 ? (short)random.nextInt(16) : states[i - 1];
+		}
+
+		float[] start = state(player);
+		float[] updated = new float[STEPS * 4];
+		for(int i = 0; i < STEPS; i++) {
+			PlayerState.updatePlayer(player, states[i]);
+			world.update(STEP);
+			System.arraycopy(state(player), 0, updated, i * 4, 4);
+		}
+
+		PlayerState.updatePlayer(player, (short)0);
+		player.setPositionX(start[0]);
+		player.setPositionY(start[1]);
+		player.setVelocityX(start[2]);
+		player.setVelocityY(start[3]);
+		player.setGrounded(false);
+		float[] simulated = new float[STEPS * 4];
+		for(int i = 0; i < STEPS; i++) {
+			PlayerState.updatePlayer(player, states[i]);
+			world.simulate(player, STEP);
+			System.arraycopy(state(player), 0, simulated, i * 4, 4);
+		}
+		assertArrayEquals(updated, simulated);
+	}
+
+	private static float[] state(PlayerEntity player) {
+		return new float[] {player.getPositionX(), player.getPositionY(), player.getVelocityX(), player.getVelocityY()};
+	}
+}
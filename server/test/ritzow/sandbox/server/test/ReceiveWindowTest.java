@@ -0,0 +1,80 @@
+package ritzow.sandbox.server.test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import ritzow.sandbox.network.ReceiveWindow;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReceiveWindowTest {
+
+	/** Receives messages the way the client and server do, recording the order they are processed in **/
+	private static final class Receiver {
+		final ReceiveWindow window = new ReceiveWindow();
+		final List<Integer> processed = new ArrayList<>();
+		int head = -1;
+
+		boolean receive(int id, int predecessor) {
+			if(id > head) {
+				if(predecessor <= head) {
+					process(id);
+				} else {
+					return window.add(head, id, predecessor, ByteBuffer.allocate(4).putInt(id).flip());
+				}
+			}
+			return true;
+		}
+
+		void process(int id) {
+			processed.add(id);
+			head = id;
+			int next;
+			while((next = window.next(head)) != -1) {
+				assertEquals(next, window.take(next).getInt(0));
+				processed.add(next);
+				head = next;
+			}
+		}
+	}
+
+	@Test
+	void reorderedMessagesAreProcessedInOrder() {
+		Receiver receiver = new Receiver();
+		//0 and 3 are reliable, 1, 2, and 4 are unreliable and 2 is lost
+		receiver.receive(4, 3);
+		receiver.receive(3, 0);
+		receiver.receive(1, 0);
+		assertTrue(receiver.processed.isEmpty());
+		receiver.receive(0, -1);
+		assertEquals(List.of(0, 1, 3, 4), receiver.processed);
+	}
+
+	@Test
+	void duplicateAndSkippedMessagesAreIgnored() {
+		Receiver receiver = new Receiver();
+		//0 is reliable, 1 and 2 are unreliable
+		receiver.receive(2, 0);
+		receiver.receive(2, 0);
+		receiver.receive(0, -1);
+		assertEquals(List.of(0, 2), receiver.processed);
+		//1 arrived too late to be processed in order
+		receiver.receive(1, 0);
+		receiver.receive(2, 0);
+		assertEquals(List.of(0, 2), receiver.processed);
+		assertEquals(-1, receiver.window.next(receiver.head));
+	}
+
+	@Test
+	void messagesTooFarAheadAreRejected() {
+		Receiver receiver = new Receiver();
+		assertTrue(receiver.receive(ReceiveWindow.CAPACITY - 1, 0));
+		assertFalse(receiver.receive(ReceiveWindow.CAPACITY, 0));
+		assertFalse(receiver.receive(Integer.MAX_VALUE, 0));
+		receiver.receive(0, -1);
+		assertEquals(List.of(0, ReceiveWindow.CAPACITY - 1), receiver.processed);
+		//the window moves forward as messages are processed
+		assertTrue(receiver.receive(2 * ReceiveWindow.CAPACITY - 2, ReceiveWindow.CAPACITY));
+	}
+}
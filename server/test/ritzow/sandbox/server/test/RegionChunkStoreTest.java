@@ -0,0 +1,110 @@
+package ritzow.sandbox.server.test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ritzow.sandbox.server.SerializationProvider;
+import ritzow.sandbox.server.world.RegionChunkStore;
+import ritzow.sandbox.world.BlockGrid;
+import ritzow.sandbox.world.World;
+import ritzow.sandbox.world.block.DirtBlock;
+import ritzow.sandbox.world.block.GlassBlock;
+import ritzow.sandbox.world.entity.ItemEntity;
+import ritzow.sandbox.world.generator.SinusoidWorldGenerator;
+import ritzow.sandbox.world.item.BlockItem;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RegionChunkStoreTest {
+	private final ExecutorService writer = Executors.newSingleThreadExecutor();
+
+	@TempDir
+	Path directory;
+
+	/** Waits for queued writes so they don't race the deletion of the directory **/
+	@AfterEach
+	void shutdown() throws InterruptedException {
+		writer.shutdown();
+		assertTrue(writer.awaitTermination(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void onlyModifiedChunksAreSaved() throws Exception {
+		SinusoidWorldGenerator generator = SinusoidWorldGenerator.builder().width(1000);
+		World world = generator.generate();
+		BlockGrid blocks = world.getBlocks();
+		blocks.setChunkStore(new RegionChunkStore(directory, writer));
+		ItemEntity<BlockItem> item = new ItemEntity<>(world.nextEntityID(), new BlockItem(GlassBlock.INSTANCE), 20, 60);
+		world.add(item);
+
+		blocks.set(World.LAYER_MAIN, 10, 5, GlassBlock.INSTANCE);
+		blocks.set(World.LAYER_MAIN, 900, 5, GlassBlock.INSTANCE);
+		assertEquals(2, blocks.storeUnsaved());
+		byte[] level = SerializationProvider.getProvider().serialize(world.snapshotEntities(SerializationProvider.getProvider()));
+
+		//changed after saving, so it must not appear in the saved world
+		blocks.set(World.LAYER_MAIN, 11, 5, GlassBlock.INSTANCE);
+		item.setPositionX(200);
+		world.add(new ItemEntity<>(world.nextEntityID(), new BlockItem(DirtBlock.INSTANCE), 30, 60));
+		assertEquals(1, blocks.unsavedChunks());
+		writer.submit(() -> {}).get();
+
+		World loaded = SerializationProvider.getProvider().deserialize(level);
+		loaded.getBlocks().setGenerator(generator);
+		loaded.getBlocks().setChunkStore(new RegionChunkStore(directory, writer));
+		assertEquals(0, loaded.getBlocks().residentChunks());
+		assertEquals(1, loaded.entities());
+		assertEquals(20, loaded.getEntityFromID(item.getID()).getPositionX());
+		assertSame(GlassBlock.INSTANCE, loaded.getBlocks().get(World.LAYER_MAIN, 10, 5));
+		assertSame(GlassBlock.INSTANCE, loaded.getBlocks().get(World.LAYER_MAIN, 900, 5));
+		assertNotSame(GlassBlock.INSTANCE, loaded.getBlocks().get(World.LAYER_MAIN, 11, 5));
+		assertNotSame(GlassBlock.INSTANCE, loaded.getBlocks().get(World.LAYER_MAIN, 500, 5));
+	}
+
+	@Test
+	void failedWritesAreKeptAndRetried() throws Exception {
+		Path regions = directory.resolve("regions");
+		RegionChunkStore store = new RegionChunkStore(regions, writer);
+		World world = SinusoidWorldGenerator.builder().width(1000).generate();
+		BlockGrid blocks = world.getBlocks();
+		blocks.setChunkStore(store);
+		blocks.set(World.LAYER_MAIN, 400, 5, GlassBlock.INSTANCE);
+
+		//region files can't be created once the directory is replaced by a file
+		Files.delete(regions);
+		Files.createFile(regions);
+		blocks.storeUnsaved();
+		writer.submit(() -> {}).get();
+		assertNotNull(store.failure());
+		assertSame(GlassBlock.INSTANCE, store.load(400 / BlockGrid.CHUNK_WIDTH).get(World.LAYER_MAIN, 400 % BlockGrid.CHUNK_WIDTH, 5));
+
+		Files.delete(regions);
+		Files.createDirectory(regions);
+		store.retryFailed();
+		writer.submit(() -> {}).get();
+		assertNull(store.failure());
+		World loaded = new World(blocks.getWidth(), blocks.getHeight());
+		loaded.getBlocks().setChunkStore(new RegionChunkStore(regions, writer));
+		assertSame(GlassBlock.INSTANCE, loaded.getBlocks().get(World.LAYER_MAIN, 400, 5));
+	}
+
+	@Test
+	void evictedChunksAreReloaded() throws IOException {
+		World world = SinusoidWorldGenerator.builder().width(1000).generate();
+		BlockGrid blocks = world.getBlocks();
+		blocks.setChunkStore(new RegionChunkStore(directory, writer));
+		blocks.set(World.LAYER_MAIN, 400, 5, GlassBlock.INSTANCE);
+		blocks.evictIdle(0);
+		blocks.evictIdle(0);
+		assertEquals(0, blocks.residentChunks());
+		assertEquals(0, blocks.unsavedChunks());
+		//may be loaded before or after the writer has written it
+		assertSame(GlassBlock.INSTANCE, blocks.get(World.LAYER_MAIN, 400, 5));
+	}
+}
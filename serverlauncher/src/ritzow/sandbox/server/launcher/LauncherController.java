@@ -80,12 +80,10 @@ class LauncherController {
 
 	private static void runServer(GameServer server) {
 		try {
-			long frameTime = Utility.frameRateToFrameTimeNanos(60);
 			System.out.println("Started server on " + server.getAddress());
 			while(server.isOpen()) {
-				long start = System.nanoTime();
 				server.update();
-				Utility.limitFramerate(start, frameTime);
+				server.waitForNextTick();
 			}
 		} catch(IOException e) {
 			e.printStackTrace();
@@ -2,10 +2,7 @@ package ritzow.sandbox.data;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
-import java.util.Arrays;
-import java.util.Collection;
 import java.util.zip.DataFormatException;
-import java.util.zip.Deflater;
 import java.util.zip.Inflater;
 
 /**
@@ -37,26 +34,6 @@ public final class Bytes {
 		return dest;
 	}
 
-	public static <T extends Transportable> byte[] serializeCollection(Collection<T> elements, Serializer ser) {
-		byte[][] serialized = new byte[elements.size()][]; //store each serialized object's data
-		int bytes = 0; //for counting total number of bytes
-		int index = 0; //for putting each serialized object into the correct array index
-		for(T element : elements) {
-			byte[] s = ser.serialize(element);
-			serialized[index] = s;
-			bytes += s.length;
-			index++;
-		}
-
-		byte[] finalized = concatenate(4, bytes, serialized);
-		putInteger(finalized, 0, index);
-		return finalized;
-	}
-
-	public static byte[] serializeArray(Transportable[] elements, Serializer ser) {
-		return serializeCollection(Arrays.asList(elements), ser);
-	}
-
 	/**
 	 * Places a set of byte arrays into a destination array consecutively starting at the given offset.
 	 * WARNING: This method has very few safety checks
@@ -225,32 +202,12 @@ public final class Bytes {
 		return new String(get(in, length), charset);
 	}
 
-	public static byte[] compress(byte[] data) {
-		return compress(data, false);
-	}
-
-	//TODO add custom optimized huffman-coding compression, especially regarding World/Entity data.
 	/**
-	 * Compressed byte data using the deflate algorithm provided by java
-	 * @param data the byte array to compress
-	 * @return a new compressed byte array
+	 * Decompresses raw deflate data without a {@link Codec} header, as written by older versions.
+	 * New data should be compressed using {@link Codec#encode(byte[])}.
+	 * @param data the compressed data.
+	 * @return a buffer containing the decompressed data.
 	 */
-	public static byte[] compress(byte[] data, boolean isRandom) {
-		Deflater deflate = new Deflater(Deflater.BEST_COMPRESSION, true);
-		deflate.setStrategy(isRandom ? Deflater.FILTERED : Deflater.DEFAULT_STRATEGY);
-		deflate.setInput(data);
-		deflate.finish();
-		byte[] out = new byte[data.length];
-		int length = deflate.deflate(out);
-		while(!deflate.finished()) {
-			//in case the compressed data ends up being larger than the input
-			out = Bytes.expand(out, length/2);
-			length += deflate.deflate(out, length, length/2); //add new data
-		}
-		deflate.end();
-		return Bytes.subArray(out, 0, length);
-	}
-
 	public static ByteBuffer decompress(ByteBuffer data) {
 		try {
 			Inflater inflater = new Inflater(true);
@@ -0,0 +1,216 @@
+package ritzow.sandbox.data;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Ways of compressing serialized data. Encoded data starts with a header containing the id of the codec and the
+ * length of the original data, so it can be decoded without knowing which codec was used and into a buffer of
+ * exactly the right size. Each use of compression picks the codec that suits its data, and encoding falls back
+ * to {@link #NONE} for data that a codec can't make smaller. The id of a codec is its ordinal, so new codecs must
+ * be added after the existing ones.
+ * @author Solomon Ritzow
+ */
+public enum Codec {
+	/** Stores data as is **/
+	NONE {
+		@Override
+		int compress(byte[] data, byte[] out, int offset) {
+			System.arraycopy(data, 0, out, offset, data.length);
+			return data.length;
+		}
+
+		@Override
+		void decompress(ByteBuffer data, byte[] out) {
+			if(data.remaining() != out.length)
+				throw new SerializationException("stored data doesn't match its length");
+			data.get(out);
+		}
+	},
+
+	/** Deflate at its fastest level, for large data that is compressed often **/
+	DEFLATE_FAST {
+		private final DeflateCodec codec = new DeflateCodec(Deflater.BEST_SPEED, null);
+
+		@Override
+		int compress(byte[] data, byte[] out, int offset) {
+			return codec.compress(data, out, offset);
+		}
+
+		@Override
+		void decompress(ByteBuffer data, byte[] out) {
+			codec.decompress(data, out);
+		}
+	},
+
+	/** Deflate at its highest level, for data that is compressed once and read many times **/
+	DEFLATE_BEST {
+		private final DeflateCodec codec = new DeflateCodec(Deflater.BEST_COMPRESSION, null);
+
+		@Override
+		int compress(byte[] data, byte[] out, int offset) {
+			return codec.compress(data, out, offset);
+		}
+
+		@Override
+		void decompress(ByteBuffer data, byte[] out) {
+			codec.decompress(data, out);
+		}
+	},
+
+	/** An LZ77 codec that compresses and decompresses several times faster than deflate but compresses less **/
+	LZ {
+		@Override
+		int compress(byte[] data, byte[] out, int offset) {
+			return LZCodec.compress(data, out, offset);
+		}
+
+		@Override
+		void decompress(ByteBuffer data, byte[] out) {
+			LZCodec.decompress(data, out);
+		}
+	},
+
+	/**
+	 * Deflate with a preset dictionary of serialized block chunks and entities, for small payloads such as
+	 * single chunks and entities which are too short for deflate to find much repetition in by themselves.
+	 */
+	DEFLATE_DICTIONARY {
+		private final DeflateCodec codec = new DeflateCodec(Deflater.BEST_COMPRESSION, DeflateCodec.SERIALIZED_DATA_DICTIONARY);
+
+		@Override
+		int compress(byte[] data, byte[] out, int offset) {
+			return codec.compress(data, out, offset);
+		}
+
+		@Override
+		void decompress(ByteBuffer data, byte[] out) {
+			codec.decompress(data, out);
+		}
+	};
+
+	/** The size of the codec id and original length at the start of encoded data **/
+	public static final int HEADER_SIZE = 1 + Integer.BYTES;
+
+	private static final Codec[] CODECS = values();
+
+	/** @return the number of bytes written to {@code out}, or -1 if the compressed data doesn't fit **/
+	abstract int compress(byte[] data, byte[] out, int offset);
+
+	/** Decompresses the remaining data into {@code out}, which must be exactly the size of the original data **/
+	abstract void decompress(ByteBuffer data, byte[] out);
+
+	/**
+	 * Compresses data along with a header so that it can be read by {@link #decode(ByteBuffer)}.
+	 * @param data the data to compress.
+	 * @return the compressed data, or the original data stored as is if this codec didn't make it smaller.
+	 */
+	public byte[] encode(byte[] data) {
+		//if the compressed data doesn't fit in the space the original data would take, it isn't worth keeping
+		byte[] out = new byte[HEADER_SIZE + data.length];
+		Codec codec = this;
+		int length = compress(data, out, HEADER_SIZE);
+		if(length < 0 || length >= data.length) {
+			codec = NONE;
+			length = NONE.compress(data, out, HEADER_SIZE);
+		}
+		out[0] = (byte)codec.ordinal();
+		Bytes.putInteger(out, 1, data.length);
+		return length + HEADER_SIZE == out.length ? out : Bytes.subArray(out, 0, HEADER_SIZE + length);
+	}
+
+	/**
+	 * Decompresses data written by {@link #encode(byte[])}, using the codec it was encoded with.
+	 * @param data the encoded data, which is read until it has no bytes remaining.
+	 * @return a buffer containing the original data.
+	 * @throws SerializationException if the data is not valid encoded data.
+	 */
+	public static ByteBuffer decode(ByteBuffer data) {
+		if(data.remaining() < HEADER_SIZE)
+			throw new SerializationException("encoded data is shorter than its header");
+		int id = Byte.toUnsignedInt(data.get()), length = data.getInt();
+		if(id >= CODECS.length)
+			throw new SerializationException("unknown codec " + id);
+		if(length < 0)
+			throw new SerializationException("negative decompressed length " + length);
+		byte[] out = new byte[length];
+		CODECS[id].decompress(data, out);
+		return ByteBuffer.wrap(out);
+	}
+
+	/** The length of the byte sequences counted when training a dictionary **/
+	private static final int SEGMENT = Long.BYTES;
+
+	/**
+	 * Builds a preset dictionary for deflate from the byte sequences that appear in the most samples, such as the
+	 * headers and type ids of serialized objects. The most common sequences are placed at the end of the dictionary,
+	 * where they are closest to the data and cheapest to refer to. The result depends only on the samples and their order.
+	 * @param samples examples of the data the dictionary will be used to compress.
+	 * @param size the maximum size of the dictionary, deflate can refer to at most 32 KiB.
+	 * @return the dictionary.
+	 */
+	public static byte[] trainDictionary(List<byte[]> samples, int size) {
+		Map<Long, Integer> frequency = new HashMap<>();
+		for(byte[] sample : samples) {
+			Set<Long> seen = new HashSet<>();
+			for(int i = 0; i + SEGMENT <= sample.length; i++) {
+				if(seen.add(Bytes.getLong(sample, i))) {
+					frequency.merge(Bytes.getLong(sample, i), 1, Integer::sum);
+				}
+			}
+		}
+
+		List<Long> candidates = new ArrayList<>(frequency.keySet());
+		candidates.removeIf(segment -> frequency.get(segment) < 2);
+		candidates.sort(Comparator.<Long>comparingInt(frequency::get).reversed().thenComparing(Comparator.naturalOrder()));
+
+		Set<Long> used = new HashSet<>();
+		List<byte[]> chosen = new ArrayList<>();
+		int total = 0;
+		for(long segment : candidates) {
+			if(used.contains(segment))
+				continue;
+			//grow the sequence into the neighbouring sequences of the first sample it appears in while they are nearly as common
+			byte[] sample = null;
+			int start = -1;
+			for(int s = 0; start < 0; s++) {
+				sample = samples.get(s);
+				for(int i = 0; i + SEGMENT <= sample.length && start < 0; i++) {
+					if(Bytes.getLong(sample, i) == segment) {
+						start = i;
+					}
+				}
+			}
+			int threshold = (frequency.get(segment) + 1) / 2, end = start;
+			while(start > 0 && frequency.getOrDefault(Bytes.getLong(sample, start - 1), 0) >= threshold) {
+				start--;
+			}
+			while(end + SEGMENT < sample.length && frequency.getOrDefault(Bytes.getLong(sample, end + 1), 0) >= threshold) {
+				end++;
+			}
+			int length = Math.min(end + SEGMENT - start, size - total);
+			if(length < SEGMENT)
+				break;
+			for(int i = start; i + SEGMENT <= start + length; i++) {
+				used.add(Bytes.getLong(sample, i));
+			}
+			chosen.add(Bytes.subArray(sample, start, length));
+			total += length;
+		}
+
+		byte[] dictionary = new byte[total];
+		int position = 0;
+		for(int i = chosen.size() - 1; i >= 0; i--) {
+			System.arraycopy(chosen.get(i), 0, dictionary, position, chosen.get(i).length);
+			position += chosen.get(i).length;
+		}
+		return dictionary;
+	}
+}
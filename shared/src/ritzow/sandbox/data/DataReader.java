@@ -13,4 +13,17 @@ public interface DataReader {
 	byte readByte();
 	byte[] readBytes(int count);
 	void readBytes(byte[] dest, int offset);
+
+	/** Reads a non-negative integer written by {@link DataWriter#writeVarInt(int)} **/
+	default int readVarInt() {
+		int value = 0;
+		for(int shift = 0; shift < Integer.SIZE; shift += 7) {
+			byte b = readByte();
+			value |= (b & 0x7F) << shift;
+			if(b >= 0) {
+				return value;
+			}
+		}
+		throw new SerializationException("variable length integer is too long");
+	}
 }
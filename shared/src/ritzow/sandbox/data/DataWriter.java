@@ -0,0 +1,157 @@
+package ritzow.sandbox.data;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+
+/**
+ * A growable buffer that Transportable objects write their data into. Values are written in big endian order,
+ * the same order used by {@link Bytes} and read by {@link TransportableDataReader}. Writers obtained from
+ * {@link Serializer#writer()} are pooled and return their buffer to the pool when closed.
+ * @author Solomon Ritzow
+ */
+public final class DataWriter implements AutoCloseable {
+	private static final int INITIAL_CAPACITY = 256;
+
+	/** Writers with larger buffers are discarded rather than pooled so that one large write doesn't pin memory **/
+	private static final int MAX_POOLED_CAPACITY = 16 * 1024 * 1024;
+
+	private final Serializer serializer;
+	private final Queue<DataWriter> pool;
+	private ByteBuffer buffer;
+
+	/**
+	 * Creates a writer that isn't pooled.
+	 * @param serializer the serializer used to write nested objects.
+	 */
+	public DataWriter(Serializer serializer) {
+		this(serializer, null);
+	}
+
+	DataWriter(Serializer serializer, Queue<DataWriter> pool) {
+		this.serializer = serializer;
+		this.pool = pool;
+		this.buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+	}
+
+	public Serializer serializer() {
+		return serializer;
+	}
+
+	/** @return the number of bytes written so far **/
+	public int position() {
+		return buffer.position();
+	}
+
+	/** Discards everything written so far **/
+	public void reset() {
+		buffer.clear();
+	}
+
+	/** Resets the writer and, if it came from a pool, returns it to the pool **/
+	@Override
+	public void close() {
+		reset();
+		if(pool != null && buffer.capacity() <= MAX_POOLED_CAPACITY) {
+			pool.offer(this);
+		}
+	}
+
+	/** @return a copy of the bytes written so far **/
+	public byte[] toByteArray() {
+		byte[] data = new byte[buffer.position()];
+		buffer.get(0, data);
+		return data;
+	}
+
+	/** @return a read-only view of the bytes written so far, valid until the writer is next modified or closed **/
+	public ByteBuffer contents() {
+		return buffer.slice(0, buffer.position()).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Writes an object along with its type and length so that it can be read using {@link TransportableDataReader#readObject()}.
+	 * @param object the object to write, or null.
+	 */
+	public void writeObject(Transportable object) {
+		serializer.serialize(object, this);
+	}
+
+	/**
+	 * Writes a placeholder integer to be filled in later using {@link #putInteger(int, int)},
+	 * for values such as lengths and counts that aren't known until more data has been written.
+	 * @return the position of the placeholder.
+	 */
+	public int reserveInteger() {
+		int position = buffer.position();
+		writeInteger(0);
+		return position;
+	}
+
+	/** Overwrites an integer that has already been written **/
+	public void putInteger(int position, int value) {
+		buffer.putInt(position, value);
+	}
+
+	public void writeByte(byte value) {
+		ensureRemaining(Byte.BYTES).put(value);
+	}
+
+	public void writeBoolean(boolean value) {
+		writeByte(value ? (byte)1 : (byte)0);
+	}
+
+	public void writeShort(short value) {
+		ensureRemaining(Short.BYTES).putShort(value);
+	}
+
+	public void writeInteger(int value) {
+		ensureRemaining(Integer.BYTES).putInt(value);
+	}
+
+	public void writeLong(long value) {
+		ensureRemaining(Long.BYTES).putLong(value);
+	}
+
+	public void writeFloat(float value) {
+		ensureRemaining(Float.BYTES).putFloat(value);
+	}
+
+	public void writeDouble(double value) {
+		ensureRemaining(Double.BYTES).putDouble(value);
+	}
+
+	/** Writes a non-negative integer using 1 to 5 bytes, 7 bits per byte with the high bit set if more bytes follow **/
+	public void writeVarInt(int value) {
+		if(value < 0)
+			throw new IllegalArgumentException("value must not be negative");
+		ByteBuffer buffer = ensureRemaining(5);
+		while(value >= 0x80) {
+			buffer.put((byte)(value | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte)value);
+	}
+
+	public void writeBytes(byte[] data) {
+		writeBytes(data, 0, data.length);
+	}
+
+	public void writeBytes(byte[] data, int offset, int length) {
+		ensureRemaining(length).put(data, offset, length);
+	}
+
+	public void writeBytes(ByteBuffer data) {
+		ensureRemaining(data.remaining()).put(data);
+	}
+
+	private ByteBuffer ensureRemaining(int bytes) {
+		if(buffer.remaining() < bytes) {
+			int required = buffer.position() + bytes;
+			if(required < 0)
+				throw new SerializationException("serialized data exceeds maximum buffer size");
+			int capacity = (int)Math.min(Integer.MAX_VALUE - 8, Math.max(required, buffer.capacity() * 2L));
+			buffer = ByteBuffer.allocate(capacity).put(buffer.flip());
+		}
+		return buffer;
+	}
+}
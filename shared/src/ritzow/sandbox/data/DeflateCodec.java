@@ -0,0 +1,99 @@
+package ritzow.sandbox.data;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Raw deflate at a particular level, optionally with a preset dictionary, using pooled Deflaters and Inflaters
+ * since each one holds native memory that is expensive to allocate and is only freed once garbage collected.
+ * @author Solomon Ritzow
+ */
+final class DeflateCodec {
+	/**
+	 * A dictionary of the sequences most common in serialized block chunks and entities, produced by
+	 * {@link Codec#trainDictionary(java.util.List, int)} from the chunks of generated worlds with random blocks changed
+	 * and from item and player entities. Data compressed with it can only be decompressed with exactly the same
+	 * dictionary, so a new dictionary needs a new {@link Codec}.
+	 */
+	static final byte[] SERIALIZED_DATA_DICTIONARY = Base64.getDecoder().decode(
+		"BgEBAgEBAQIBAQEHAQECAQEBAgEBAQI7AQYAAQIBAQECAQEBAgEBAQIzAQ4AAQIBAQECAQEBAgEBAQIrARYAAQIBAQECAQEBAgEBAQIB"
+		+ "AQECIQEgAAECAQEBAgEBAQIBAQECAQEBAgEBAQIBAQECEwEBAQIBAQECAQEBAgEBAQI5AQgAAQIBAQECAQEBAgEBAQIBAQECAAECAQEB"
+		+ "AgEBAQIhAQECAQEBAgEBHAABAgEBAQIBAQECEwEBAgEBAQIBAQECAQEBAgEBJgABAgEBAQIBAQECAQEBAgEBAQIBAQECAQEBAgEBAQIB"
+		+ "AQECAQECAQECAQEBAgEBAQIBARAAAQECOwEBAgEBAQIBAQIAAQECAQEBAjkBAQIBAQECAQEEADQBAQIBAQECAQEIADABAQIBAQECAQEM"
+		+ "AAAAAAAAAAAAMQEBAjsBAQIBAQEBAgEBAQIBAQECAQEBAgEBAQIBAQECAQEcAAEBAQIBAQECAQEBAgEBAQI5AQABAgEBAQIBAQECAQEB"
+		+ "AgEBAQIhASAAAQIBAQECAQEBAgEBAQIBAQECAQEBAgEBAQITAQEBAgEBAQIBAQECAQEBAgEBAQIBAQECAQEBAgEBFAABAQIBAQECAQEK"
+		+ "AAEBAgEBAQIBAQgAAQECAQEBAgEBAQIBAQECAQEBAgEBAQIBAQECAQEBAgEBAQIBAQECAQEGAAESAAECAQEBAgEBAQIBAQECAQEBAiUB"
+		+ "HAABAgEBAQIBAQECAQEBAgEBAQIBAQECAQEBAgECAQEBAisBAQIBAQECAQESAAECAQEBAiEBAQIBAQECAQEBAgEBGgABAgEBAQIBAQEC"
+		+ "AQEBAhMBAQIBAQECAQEBAgEBKAABAgEBAQIBAQECAQEBAgEBAQIBAQECAQEBAgEBAQIBAQECAQEBEgABAgEBAQIBAQECAQEBAgEBAQIA"
+		+ "BQAAACsAAAECAQEBAiEBAQIBAQECAQEBAgEBGgABAgEBAQIBAQECAQEBAhMBAQIBAQECAQEBAgEBKAABAgEBAQIBAQECAQEBAgEBAQIB"
+		+ "AQECAQEBAgEBAQIBAQECAQEAAAAAAAcAAAAMAAAABAAAAAAAAAAAAAAAAAAAAAAAAAAAAAABAgEBAQIBAQECAQEBAgEBAQIBAQECAQEB"
+		+ "AhMBAAAAAAAGAAAABgAIAAAAAAADAAAAIAABAAAAAAAGAAAABgAJAAAAAAAAACAAAADmAAAAAgMACAAAAAAACQAAAAAACgAAAAAAAAAA"
+		+ "AAYAAAAGAAoAAAAAAAECAQEBAgEBAQIBAQECAAMAAAAgAAABAQIBAQECAQEBAgAAACAAAACCAAAAAgMACAAAAAAACQAAAAAACgAAAAAA"
+		+ "AAAAAAYAAAAGAA==");
+
+	private final int level;
+	private final byte[] dictionary;
+	private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+	private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * @param level the deflate compression level.
+	 * @param dictionary data that compressed data may refer to as if it came before it, or null.
+	 */
+	DeflateCodec(int level, byte[] dictionary) {
+		this.level = level;
+		this.dictionary = dictionary;
+	}
+
+	/** @return the number of bytes written to {@code out}, or -1 if the compressed data doesn't fit **/
+	int compress(byte[] data, byte[] out, int offset) {
+		Deflater deflater = deflaters.poll();
+		if(deflater == null) {
+			deflater = new Deflater(level, true);
+		}
+		try {
+			if(dictionary != null) {
+				deflater.setDictionary(dictionary);
+			}
+			deflater.setInput(data);
+			deflater.finish();
+			int length = deflater.deflate(out, offset, out.length - offset);
+			return deflater.finished() ? length : -1;
+		} finally {
+			deflater.reset();
+			deflaters.offer(deflater);
+		}
+	}
+
+	/** Decompresses the remaining data into {@code out}, which must be exactly the size of the original data **/
+	void decompress(ByteBuffer data, byte[] out) {
+		Inflater inflater = inflaters.poll();
+		if(inflater == null) {
+			inflater = new Inflater(true);
+		}
+		try {
+			if(dictionary != null) {
+				//raw deflate data doesn't say whether it needs a dictionary, so it is always set
+				inflater.setDictionary(dictionary);
+			}
+			inflater.setInput(data);
+			int length = inflater.inflate(out);
+			//a full output buffer isn't finished until the inflater has seen the end of the data
+			if(length == out.length && !inflater.finished()) {
+				length += inflater.inflate(new byte[1]);
+			}
+			if(!inflater.finished() || length != out.length)
+				throw new SerializationException("compressed data doesn't match its decompressed length");
+		} catch(DataFormatException e) {
+			throw new SerializationException(e);
+		} finally {
+			inflater.reset();
+			inflaters.offer(inflater);
+		}
+	}
+}
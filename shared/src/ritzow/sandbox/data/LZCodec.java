@@ -0,0 +1,107 @@
+package ritzow.sandbox.data;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * A byte oriented LZ77 compressor in the style of LZ4, which trades compression ratio for speed. Data is encoded as
+ * a sequence of literal runs each followed by a match: a token byte containing the literal length and match length
+ * in its upper and lower four bits, extra length bytes for lengths that don't fit in four bits, the literals, and a
+ * two byte offset to copy the match from. The final sequence has literals only.
+ * @author Solomon Ritzow
+ */
+final class LZCodec {
+	private static final int MIN_MATCH = 4, MAX_OFFSET = 0xFFFF, HASH_BITS = 12;
+
+	private LZCodec() {}
+
+	/** @return the number of bytes written to {@code out}, or -1 if the compressed data doesn't fit **/
+	static int compress(byte[] data, byte[] out, int offset) {
+		ByteBuffer dest = ByteBuffer.wrap(out, offset, out.length - offset);
+		int[] table = new int[1 << HASH_BITS]; //positions plus one, so zero is empty
+		int anchor = 0, pos = 0;
+		while(pos + MIN_MATCH <= data.length) {
+			int sequence = Bytes.getInteger(data, pos);
+			int hash = (sequence * 0x9E3779B1) >>> (Integer.SIZE - HASH_BITS);
+			int candidate = table[hash] - 1;
+			table[hash] = pos + 1;
+			if(candidate >= 0 && pos - candidate <= MAX_OFFSET && Bytes.getInteger(data, candidate) == sequence) {
+				int length = MIN_MATCH;
+				while(pos + length < data.length && data[candidate + length] == data[pos + length]) {
+					length++;
+				}
+				if(!putSequence(dest, data, anchor, pos - anchor, pos - candidate, length))
+					return -1;
+				pos += length;
+				anchor = pos;
+			} else {
+				pos++;
+			}
+		}
+		return putSequence(dest, data, anchor, data.length - anchor, 0, 0) ? dest.position() - offset : -1;
+	}
+
+	/** Writes a sequence, or only literals if {@code matchLength} is zero **/
+	private static boolean putSequence(ByteBuffer dest, byte[] data, int literalStart, int literals, int matchOffset, int matchLength) {
+		int matchCode = matchLength == 0 ? 0 : matchLength - MIN_MATCH;
+		int required = 1 + literals + literals / 255 + 1 + (matchLength == 0 ? 0 : 2 + matchCode / 255 + 1);
+		if(dest.remaining() < required)
+			return false;
+		dest.put((byte)(Math.min(literals, 15) << 4 | Math.min(matchCode, 15)));
+		putLength(dest, literals);
+		dest.put(data, literalStart, literals);
+		if(matchLength > 0) {
+			dest.putShort((short)matchOffset);
+			putLength(dest, matchCode);
+		}
+		return true;
+	}
+
+	private static void putLength(ByteBuffer dest, int length) {
+		if(length >= 15) {
+			length -= 15;
+			while(length >= 255) {
+				dest.put((byte)255);
+				length -= 255;
+			}
+			dest.put((byte)length);
+		}
+	}
+
+	/** Decompresses the remaining data into {@code out}, which must be exactly the size of the original data **/
+	static void decompress(ByteBuffer data, byte[] out) {
+		int pos = 0;
+		try {
+			while(true) {
+				int token = Byte.toUnsignedInt(data.get());
+				int literals = getLength(data, token >>> 4);
+				data.get(out, pos, literals);
+				pos += literals;
+				if(!data.hasRemaining())
+					break;
+				int matchOffset = Short.toUnsignedInt(data.getShort());
+				int matchLength = getLength(data, token & 15) + MIN_MATCH;
+				if(matchOffset == 0 || matchOffset > pos || matchLength > out.length - pos)
+					throw new SerializationException("invalid match in compressed data");
+				//copied a byte at a time since a match can overlap the data it produces
+				for(int src = pos - matchOffset, end = pos + matchLength; pos < end; pos++, src++) {
+					out[pos] = out[src];
+				}
+			}
+		} catch(IndexOutOfBoundsException | BufferUnderflowException e) {
+			throw new SerializationException("compressed data is truncated or too long", e);
+		}
+		if(pos != out.length)
+			throw new SerializationException("compressed data is shorter than its decompressed length");
+	}
+
+	private static int getLength(ByteBuffer data, int length) {
+		if(length == 15) {
+			int next;
+			do {
+				length += next = Byte.toUnsignedInt(data.get());
+			} while(next == 255);
+		}
+		return length;
+	}
+}
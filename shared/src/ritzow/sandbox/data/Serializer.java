@@ -3,8 +3,23 @@ package ritzow.sandbox.data;
 public interface Serializer {
 	/**
 	 * Serializes a Transportable object
-	 * @param object a non-null Transportable
+	 * @param object a Transportable, or null
 	 * @return a byte array containing the serialized object (never returns null), which can be read by a Deserializer
 	 */
-	byte[] serialize(Transportable object);
+	default byte[] serialize(Transportable object) {
+		try(DataWriter out = writer()) {
+			serialize(object, out);
+			return out.toByteArray();
+		}
+	}
+
+	/**
+	 * Serializes a Transportable object directly into a writer, without any intermediate copies
+	 * @param object a Transportable, or null
+	 * @param out the writer to write the object type, length, and data to
+	 */
+	void serialize(Transportable object, DataWriter out);
+
+	/** @return an empty writer that should be closed when it is no longer needed **/
+	DataWriter writer();
 }
@@ -9,6 +9,9 @@ public class SerializerReaderWriter implements Serializer, Deserializer {
 	private final Map<Short, ObjectBuilder> deserializeLookup;
 	private final Map<Class<? extends Transportable>, Short> serializeLookup;
 
+	/** Writers that have been closed and can be reused **/
+	private final Queue<DataWriter> writers = new ConcurrentLinkedQueue<>();
+
 	public static final short NULL_TYPE = 0;
 
 	public SerializerReaderWriter() {
@@ -40,26 +43,28 @@ public class SerializerReaderWriter implements Serializer, Deserializer {
 	}
 
 	@Override
-	public byte[] serialize(Transportable object) {
-		//null objects have 0 length
-		if(object == null)
-			return Bytes.of(NULL_TYPE); //just a type ID of 0 to represent null
-
-		Short typeID = serializeLookup.get(object.getClass());
-		if(typeID == null)
-			throw new TypeNotRegisteredException("Class " + object.getClass().getName() + " is not registered");
-		byte[] objectBytes = object.getBytes(this);
-
-		//serialized object length, typeID, object data
-		byte[] data = Bytes.concatenate(Short.BYTES + Integer.BYTES, objectBytes);
-
-		//put the short value representing the type of object serialized after the data length
-		Bytes.putShort(data, 0, typeID);
-
-		//first four bytes are the length of the data (EXCLUDING THE TYPE)
-		Bytes.putInteger(data, Short.BYTES, objectBytes.length);
+	public void serialize(Transportable object, DataWriter out) {
+		//null objects are just a type ID of 0 with no length
+		if(object == null) {
+			out.writeShort(NULL_TYPE);
+		} else {
+			Short typeID = serializeLookup.get(object.getClass());
+			if(typeID == null)
+				throw new TypeNotRegisteredException("Class " + object.getClass().getName() + " is not registered");
+
+			//typeID, serialized object length (EXCLUDING THE TYPE), object data
+			out.writeShort(typeID);
+			int lengthPosition = out.reserveInteger();
+			int start = out.position();
+			object.write(out);
+			out.putInteger(lengthPosition, out.position() - start);
+		}
+	}
 
-		return data;
+	@Override
+	public DataWriter writer() {
+		DataWriter writer = writers.poll();
+		return writer == null ? new DataWriter(this, writers) : writer;
 	}
 
 	@SuppressWarnings("unchecked")
@@ -1,14 +1,17 @@
 package ritzow.sandbox.data;
 
 /**
- * Instances of Transportable can be passed to ByteUtil.serialize to convert them into byte array packages containing the data from getBytes and header information
- * such as class name and length of data. Transportable objects should also implement a public constructor that takes a byte[] as its sole argument, in order to
- * deserialize the data returned by getBytes.
+ * Instances of Transportable can be passed to a Serializer to convert them into byte array packages containing the data
+ * written by {@link #write(DataWriter)} and header information such as type and length of data. Transportable objects
+ * should also implement a public constructor that takes a TransportableDataReader as its sole argument, in order to
+ * deserialize the data written by {@code write}.
  * @author Solomon Ritzow
  *
  */
 public interface Transportable {
-	/** @param ser The serializer to use to encode the data.
-	 * @return a byte array representing the object, which can be restored exactly by calling the byte array constructor of the object **/
-	byte[] getBytes(Serializer ser);
+	/** Writes the data representing the object, which can be restored exactly by the
+	 * TransportableDataReader constructor of the object. Nested objects should be written using
+	 * {@link DataWriter#writeObject(Transportable)}.
+	 * @param out The writer to write the data to. **/
+	void write(DataWriter out);
 }
@@ -0,0 +1,57 @@
+package ritzow.sandbox.network;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The acknowledgement included in the header of every packet a connection sends. Messages are processed in order,
+ * so the ID of the last processed message acknowledges every reliable message up to it. It is followed by a bit for
+ * each of the next 64 message IDs, set if that message has been received but is waiting for an earlier one.
+ * Since every packet carries the acknowledgement, a lost acknowledgement is repeated by the next packet.
+ * @author Solomon Ritzow
+ */
+public final class Acknowledgements {
+	/** The size of an acknowledgement in a packet header **/
+	public static final int SIZE = Integer.BYTES + Long.BYTES;
+
+	private int head = -1;
+	private long bits;
+	private boolean pending;
+
+	/** @return the ID of the last message processed, or -1 **/
+	public int head() {
+		return head;
+	}
+
+	/** Records that a message was processed, which must have a greater ID than the previous one **/
+	public void processed(int messageID) {
+		if(messageID > head) {
+			int shift = messageID - head;
+			bits = shift >= Long.SIZE ? 0 : bits >>> shift;
+			head = messageID;
+		}
+	}
+
+	/** Records that a reliable message was received, even if it was already received, so that it is acknowledged **/
+	public void receivedReliable(int messageID) {
+		int offset = messageID - head - 1;
+		if(offset >= 0 && offset < Long.SIZE) {
+			bits |= 1L << offset;
+		}
+		pending = true;
+	}
+
+	/** @return true if a reliable message has been received since the last acknowledgement was written **/
+	public boolean pending() {
+		return pending;
+	}
+
+	public ByteBuffer write(ByteBuffer buffer) {
+		pending = false;
+		return buffer.putInt(head).putLong(bits);
+	}
+
+	@Override
+	public String toString() {
+		return "processed " + head + " received " + Long.toBinaryString(bits);
+	}
+}
@@ -0,0 +1,42 @@
+package ritzow.sandbox.network;
+
+import java.nio.ByteBuffer;
+import ritzow.sandbox.data.SerializationException;
+
+/**
+ * Reads values written by {@link BitWriter} from the remaining bytes of a buffer.
+ * @author Solomon Ritzow
+ */
+final class BitReader {
+	private final ByteBuffer data;
+	private final int start, limit;
+	private int bits;
+
+	BitReader(ByteBuffer data) {
+		this.data = data;
+		this.start = data.position();
+		this.limit = data.remaining() * 8;
+	}
+
+	int read(int count) {
+		if(bits + count > limit)
+			throw new SerializationException("read past the end of bit packed data");
+		int value = 0;
+		for(int i = 0; i < count; i++, bits++) {
+			value = value << 1 | (data.get(start + (bits >>> 3)) >>> (7 - (bits & 7)) & 1);
+		}
+		return value;
+	}
+
+	boolean readBoolean() {
+		return read(1) == 1;
+	}
+
+	int readVariable() {
+		return read(read(BitWriter.LENGTH_BITS));
+	}
+
+	static int unzigzag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
@@ -0,0 +1,65 @@
+package ritzow.sandbox.network;
+
+import java.util.Arrays;
+
+/**
+ * Packs values into a byte array using only as many bits as each value needs, most significant bit first.
+ * @author Solomon Ritzow
+ */
+final class BitWriter {
+	/** The number of bits used to store the length of a variable length value **/
+	static final int LENGTH_BITS = 5;
+
+	private byte[] data = new byte[64];
+	private int bits;
+
+	void reset() {
+		bits = 0;
+		Arrays.fill(data, (byte)0);
+	}
+
+	/** @return the number of bytes written so far, including the partially written last byte **/
+	int bytes() {
+		return (bits + 7) / 8;
+	}
+
+	byte[] data() {
+		return data;
+	}
+
+	/** Writes the lowest {@code count} bits of {@code value} **/
+	void write(int value, int count) {
+		if(bytes() + 5 > data.length) {
+			data = Arrays.copyOf(data, data.length * 2);
+		}
+		for(int bit = count - 1; bit >= 0; bit--, bits++) {
+			if((value >>> bit & 1) == 1) {
+				int index = bits >>> 3;
+				data[index] = (byte)(data[index] | (0x80 >>> (bits & 7)));
+			}
+		}
+	}
+
+	/** Writes a non-negative value as its length in bits followed by its bits **/
+	void writeVariable(int value) {
+		int length = variableLength(value);
+		write(length, LENGTH_BITS);
+		write(value, length);
+	}
+
+	/** @return the number of bits {@link #writeVariable(int)} uses to write a value **/
+	static int variableBits(int value) {
+		return LENGTH_BITS + variableLength(value);
+	}
+
+	private static int variableLength(int value) {
+		if(value < 0)
+			throw new IllegalArgumentException("value must not be negative");
+		return Integer.SIZE - Integer.numberOfLeadingZeros(value);
+	}
+
+	/** Maps signed values to non-negative values so that values near zero stay small **/
+	static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+}
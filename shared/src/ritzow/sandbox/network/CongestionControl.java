@@ -0,0 +1,133 @@
+package ritzow.sandbox.network;
+
+import ritzow.sandbox.util.Utility;
+
+import static ritzow.sandbox.network.Protocol.*;
+
+/**
+ * Decides when a connection may send and when unacknowledged messages should be resent. The round trip time is
+ * estimated from acknowledgements as in RFC 6298, and a message that isn't acknowledged within the retransmission
+ * timeout is resent with the timeout doubled. A congestion window limits the number of reliable bytes that haven't
+ * been acknowledged, growing while messages are acknowledged and halving when one is lost, and a token bucket refilled
+ * at one window per round trip spaces out packets so that a full window isn't sent all at once.
+ * @author Solomon Ritzow
+ */
+public final class CongestionControl {
+	/** Before any round trip has been measured, messages are resent as often as they used to be **/
+	private static final long INITIAL_TIMEOUT = RESEND_INTERVAL;
+
+	/** Acknowledgements are only sent once per update, so round trips shorter than this aren't trusted **/
+	private static final long MIN_TIMEOUT = Utility.millisToNanos(20);
+
+	/** A message is resent several times before the connection times out **/
+	static final long MAX_TIMEOUT = TIMEOUT_DISCONNECT / 4;
+
+	private static final int
+		MIN_WINDOW = 2 * MAX_PACKET_SIZE,
+		INITIAL_WINDOW = 32 * MAX_PACKET_SIZE,
+		MAX_WINDOW = 1024 * MAX_PACKET_SIZE,
+		/** The least number of bytes the token bucket holds, so that a small window doesn't prevent sending **/
+		MIN_BURST = 4 * MAX_PACKET_SIZE;
+
+	/** Smoothed round trip time and its mean deviation, or -1 before the first measurement **/
+	private long roundTripTime = -1, roundTripVariation;
+	private long timeout = INITIAL_TIMEOUT;
+
+	private long window = INITIAL_WINDOW, slowStartThreshold = MAX_WINDOW;
+	private long inFlight, lastReduction;
+	private boolean reduced;
+
+	/** Bytes that can be sent right now, as of lastRefill **/
+	private double tokens = INITIAL_WINDOW;
+	private long lastRefill;
+	private boolean refilled;
+
+	/** @return the smoothed round trip time in nanoseconds, or -1 if it hasn't been measured **/
+	public long roundTripTime() {
+		return roundTripTime;
+	}
+
+	/** @return the time after which a message sent once should be resent **/
+	public long timeout() {
+		return timeout;
+	}
+
+	/** @return the number of reliable bytes sent that haven't been acknowledged **/
+	public long inFlight() {
+		return inFlight;
+	}
+
+	/** @return the most reliable bytes that can be sent but not yet acknowledged **/
+	public long window() {
+		return window;
+	}
+
+	/** Adds the tokens earned since the last refill **/
+	void refill(long time) {
+		long burst = Math.max(MIN_BURST, window / 4);
+		if(refilled) {
+			long interval = roundTripTime == -1 ? INITIAL_TIMEOUT : Math.max(roundTripTime, MIN_TIMEOUT);
+			tokens = Math.min(burst, tokens + (double)(time - lastRefill) * window / interval);
+		} else {
+			tokens = Math.min(burst, tokens);
+			refilled = true;
+		}
+		lastRefill = time;
+	}
+
+	/** @return true if a packet of the given size can be sent now **/
+	boolean canSend(int bytes, boolean reliable) {
+		return tokens >= bytes && (!reliable || inFlight + bytes <= window || inFlight == 0);
+	}
+
+	/** Spends the tokens for a sent packet **/
+	void sent(int bytes) {
+		tokens -= bytes;
+	}
+
+	/** Records a reliable message that was sent for the first time **/
+	void sentReliable(int bytes) {
+		inFlight += bytes;
+	}
+
+	/**
+	 * Records an acknowledged reliable message.
+	 * @param roundTrip the time between sending and acknowledging the message, or -1 if it was sent more than once,
+	 * which would make the round trip ambiguous.
+	 */
+	void acknowledged(int bytes, long roundTrip) {
+		inFlight -= bytes;
+		if(roundTrip >= 0) {
+			if(roundTripTime == -1) {
+				roundTripTime = roundTrip;
+				roundTripVariation = roundTrip / 2;
+			} else {
+				roundTripVariation = (3 * roundTripVariation + Math.abs(roundTripTime - roundTrip)) / 4;
+				roundTripTime = (7 * roundTripTime + roundTrip) / 8;
+			}
+			timeout = Math.min(Math.max(roundTripTime + 4 * roundTripVariation, MIN_TIMEOUT), MAX_TIMEOUT);
+		}
+		if(window < slowStartThreshold) {
+			window = Math.min(window + bytes, MAX_WINDOW);
+		} else {
+			window = Math.min(window + Math.max(1, (long)MAX_PACKET_SIZE * bytes / window), MAX_WINDOW);
+		}
+	}
+
+	/** Records a reliable message that wasn't acknowledged in time, reducing the window at most once per round trip **/
+	void lost(long time) {
+		if(!reduced || time - lastReduction > Math.max(roundTripTime, MIN_TIMEOUT)) {
+			reduced = true;
+			lastReduction = time;
+			slowStartThreshold = Math.max(window / 2, MIN_WINDOW);
+			window = slowStartThreshold;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "round trip " + (roundTripTime == -1 ? "unknown" : Utility.formatTime(roundTripTime))
+			+ ", timeout " + Utility.formatTime(timeout)
+			+ ", " + Utility.formatSize(inFlight) + " of " + Utility.formatSize(window) + " in flight";
+	}
+}
@@ -0,0 +1,265 @@
+package ritzow.sandbox.network;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import ritzow.sandbox.data.Bytes;
+import ritzow.sandbox.world.entity.Entity;
+
+import static ritzow.sandbox.network.Protocol.MAX_MESSAGE_LENGTH;
+import static ritzow.sandbox.network.Protocol.TYPE_SERVER_ENTITY_UPDATE;
+
+/**
+ * The positions and velocities of a set of entities at one point in time, quantized to fixed point so that the
+ * sender and receiver agree exactly on what a snapshot contains. A snapshot is sent as its difference from a
+ * baseline snapshot the receiver already has: entities that haven't moved by at least one quantization step are
+ * left out, and each changed value is sent as its bit packed difference from the baseline value. The difference
+ * is split into messages that each cover a range of entity IDs, so each message can be applied as it arrives.
+ * See {@link EntitySnapshotReceiver} for the receiving side.
+ * @author Solomon Ritzow
+ */
+public final class EntitySnapshot {
+	/** The number of recent snapshots the sender and receiver each keep to use as baselines **/
+	public static final int HISTORY = 16;
+
+	/** The baseline sequence number of a snapshot sent in full **/
+	public static final int NO_BASELINE = -1;
+
+	/** Type, sequence number, baseline sequence number, and the first and after last entity ID covered **/
+	static final int HEADER_SIZE = 2 + 4 * Integer.BYTES;
+
+	/** The ID after the last one covered by the last message of a snapshot **/
+	static final int END_ID = Integer.MAX_VALUE;
+
+	/** Position, velocity X and Y **/
+	static final int FIELDS = 4;
+
+	/** Positions are quantized to 1/256 of a block, velocities to 1/256 of a block per second **/
+	private static final float POSITION_SCALE = 256, VELOCITY_SCALE = 256 * 1_000_000_000f;
+
+	/** Quantized values are clamped so that the difference between two of them is less than 2^30 and can be zigzag encoded **/
+	private static final int LIMIT = (1 << 29) - 1;
+
+	/** The space for entities in each message, leaving room for the two counts **/
+	private static final int PAYLOAD_BITS = (MAX_MESSAGE_LENGTH - HEADER_SIZE) * 8 - 2 * BitWriter.variableBits(Integer.MAX_VALUE);
+
+	static final EntitySnapshot EMPTY = new EntitySnapshot(NO_BASELINE, 0, new int[0], new int[0]);
+
+	private final int sequence, size;
+	private final int[] ids, states;
+
+	EntitySnapshot(int sequence, int size, int[] ids, int[] states) {
+		this.sequence = sequence;
+		this.size = size;
+		this.ids = ids;
+		this.states = states;
+	}
+
+	/**
+	 * Quantizes the state of a set of entities.
+	 * @param entities the entities, which must have non-negative IDs.
+	 * @param count the number of entities.
+	 * @return a snapshot without a sequence number, see {@link #withSequence(int)}.
+	 */
+	public static EntitySnapshot capture(Iterable<Entity> entities, int count) {
+		int[] ids = new int[count], states = new int[count * FIELDS];
+		int size = 0;
+		boolean sorted = true;
+		for(Entity e : entities) {
+			if(e.getID() < 0)
+				throw new IllegalArgumentException("entity IDs must not be negative");
+			sorted &= size == 0 || ids[size - 1] < e.getID();
+			ids[size] = e.getID();
+			states[size * FIELDS] = quantize(e.getPositionX(), POSITION_SCALE);
+			states[size * FIELDS + 1] = quantize(e.getPositionY(), POSITION_SCALE);
+			states[size * FIELDS + 2] = quantize(e.getVelocityX(), VELOCITY_SCALE);
+			states[size * FIELDS + 3] = quantize(e.getVelocityY(), VELOCITY_SCALE);
+			size++;
+		}
+		if(size != count)
+			throw new IllegalArgumentException("expected " + count + " entities but there were " + size);
+		return sorted ? new EntitySnapshot(NO_BASELINE, size, ids, states) : sortById(size, ids, states);
+	}
+
+	private static EntitySnapshot sortById(int size, int[] ids, int[] states) {
+		long[] order = new long[size];
+		for(int i = 0; i < size; i++) {
+			order[i] = (long)ids[i] << 32 | i;
+		}
+		Arrays.sort(order);
+		int[] sortedIds = new int[size], sortedStates = new int[size * FIELDS];
+		for(int i = 0; i < size; i++) {
+			int index = (int)order[i];
+			sortedIds[i] = ids[index];
+			System.arraycopy(states, index * FIELDS, sortedStates, i * FIELDS, FIELDS);
+		}
+		return new EntitySnapshot(NO_BASELINE, size, sortedIds, sortedStates);
+	}
+
+	private static int quantize(float value, float scale) {
+		return (int)Math.max(-LIMIT, Math.min(LIMIT, Math.round((double)value * scale)));
+	}
+
+	static float position(int quantized) {
+		return quantized / POSITION_SCALE;
+	}
+
+	static float velocity(int quantized) {
+		return quantized / VELOCITY_SCALE;
+	}
+
+	/** @return a snapshot with the same contents and the provided sequence number **/
+	public EntitySnapshot withSequence(int sequence) {
+		return new EntitySnapshot(sequence, size, ids, states);
+	}
+
+	public int sequence() {
+		return sequence;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/** @return the ID of the entity at an index, in increasing order of ID **/
+	public int id(int index) {
+		return ids[index];
+	}
+
+	/** @return the quantized horizontal position of the entity at an index **/
+	public float positionX(int index) {
+		return position(state(index, 0));
+	}
+
+	/** @return the quantized vertical position of the entity at an index **/
+	public float positionY(int index) {
+		return position(state(index, 1));
+	}
+
+	int state(int index, int field) {
+		return states[index * FIELDS + field];
+	}
+
+	/**
+	 * Selects some of the entities in this snapshot, such as those within a client's view.
+	 * @param indices the indices of the entities to keep, in increasing order.
+	 * @param count the number of indices to use.
+	 * @return a snapshot without a sequence number containing only the selected entities.
+	 */
+	public EntitySnapshot subset(int[] indices, int count) {
+		int[] subsetIds = new int[count], subsetStates = new int[count * FIELDS];
+		for(int i = 0; i < count; i++) {
+			if(i > 0 && indices[i] <= indices[i - 1])
+				throw new IllegalArgumentException("indices must be in increasing order");
+			subsetIds[i] = ids[indices[i]];
+			System.arraycopy(states, indices[i] * FIELDS, subsetStates, i * FIELDS, FIELDS);
+		}
+		return new EntitySnapshot(NO_BASELINE, count, subsetIds, subsetStates);
+	}
+
+	/**
+	 * Encodes the difference between this snapshot and a baseline into entity update messages.
+	 * @param baseline a snapshot the receiver has, or null to send every entity.
+	 * @return the messages, which must be received in order for the receiver to keep this snapshot as a baseline.
+	 */
+	public List<byte[]> encode(EntitySnapshot baseline) {
+		int baselineSequence = baseline == null ? NO_BASELINE : baseline.sequence;
+		if(baseline == null) baseline = EMPTY;
+		List<byte[]> messages = new ArrayList<>();
+		BitWriter bits = new BitWriter();
+		//baseline indices of removed entities and indices of changed entities in the current message
+		int[] removed = new int[16], changed = new int[16];
+		int removedCount = 0, changedCount = 0, start = 0, nextRemoved = 0, nextChanged = 0, used = 0;
+		int current = 0, base = 0;
+		while(current < size || base < baseline.size) {
+			int id, cost;
+			boolean isRemoved = current == size || (base < baseline.size && baseline.ids[base] < ids[current]);
+			if(isRemoved) {
+				id = baseline.ids[base];
+				cost = BitWriter.variableBits(id - nextRemoved);
+			} else {
+				id = ids[current];
+				int baseIndex = base < baseline.size && baseline.ids[base] == id ? base : -1;
+				if(baseIndex >= 0 && Arrays.equals(states, current * FIELDS, current * FIELDS + FIELDS,
+					baseline.states, baseIndex * FIELDS, baseIndex * FIELDS + FIELDS)) {
+					current++;
+					base++;
+					continue;
+				}
+				cost = BitWriter.variableBits(id - nextChanged) + entryBits(current, baseline, baseIndex);
+			}
+
+			if(used + cost > PAYLOAD_BITS && removedCount + changedCount > 0) {
+				messages.add(writeMessage(bits, baseline, baselineSequence, start, id, removed, removedCount, changed, changedCount));
+				removedCount = 0;
+				changedCount = 0;
+				used = 0;
+				start = nextRemoved = nextChanged = id;
+				continue; //the cost depends on the start of the message
+			}
+
+			used += cost;
+			if(isRemoved) {
+				if(removedCount == removed.length) removed = Arrays.copyOf(removed, removedCount * 2);
+				removed[removedCount++] = base++;
+				nextRemoved = id + 1;
+			} else {
+				if(changedCount == changed.length) changed = Arrays.copyOf(changed, changedCount * 2);
+				changed[changedCount++] = current++;
+				if(base < baseline.size && baseline.ids[base] == id) base++;
+				nextChanged = id + 1;
+			}
+		}
+		messages.add(writeMessage(bits, baseline, baselineSequence, start, END_ID, removed, removedCount, changed, changedCount));
+		return messages;
+	}
+
+	private int entryBits(int index, EntitySnapshot baseline, int baseIndex) {
+		int bits = 0;
+		for(int field = 0; field < FIELDS; field++) {
+			int difference = state(index, field) - (baseIndex < 0 ? 0 : baseline.state(baseIndex, field));
+			bits += 1 + (difference == 0 ? 0 : BitWriter.variableBits(BitWriter.zigzag(difference)));
+		}
+		return bits;
+	}
+
+	private byte[] writeMessage(BitWriter bits, EntitySnapshot baseline, int baselineSequence, int start, int end,
+			int[] removed, int removedCount, int[] changed, int changedCount) {
+		bits.reset();
+		bits.writeVariable(removedCount);
+		int next = start;
+		for(int i = 0; i < removedCount; i++) {
+			int id = baseline.ids[removed[i]];
+			bits.writeVariable(id - next);
+			next = id + 1;
+		}
+
+		bits.writeVariable(changedCount);
+		next = start;
+		//the baseline is searched forwards since changed entities are in ID order
+		int base = 0;
+		for(int i = 0; i < changedCount; i++) {
+			int index = changed[i], id = ids[index];
+			bits.writeVariable(id - next);
+			next = id + 1;
+			while(base < baseline.size && baseline.ids[base] < id) base++;
+			boolean inBaseline = base < baseline.size && baseline.ids[base] == id;
+			for(int field = 0; field < FIELDS; field++) {
+				int difference = state(index, field) - (inBaseline ? baseline.state(base, field) : 0);
+				bits.write(difference == 0 ? 0 : 1, 1);
+				if(difference != 0) {
+					bits.writeVariable(BitWriter.zigzag(difference));
+				}
+			}
+		}
+
+		byte[] message = new byte[HEADER_SIZE + bits.bytes()];
+		Bytes.putShort(message, 0, TYPE_SERVER_ENTITY_UPDATE);
+		Bytes.putInteger(message, 2, sequence);
+		Bytes.putInteger(message, 6, baselineSequence);
+		Bytes.putInteger(message, 10, start);
+		Bytes.putInteger(message, 14, end);
+		System.arraycopy(bits.data(), 0, message, HEADER_SIZE, bits.bytes());
+		return message;
+	}
+}
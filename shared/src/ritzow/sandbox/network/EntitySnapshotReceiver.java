@@ -0,0 +1,145 @@
+package ritzow.sandbox.network;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import ritzow.sandbox.data.SerializationException;
+
+import static ritzow.sandbox.network.EntitySnapshot.*;
+
+/**
+ * Rebuilds the snapshots encoded by {@link EntitySnapshot#encode(EntitySnapshot)} and keeps the most recent ones to
+ * decode later snapshots against. The sequence number of the latest complete snapshot is sent back to the sender so
+ * that it can be used as the baseline for the next one.
+ * @author Solomon Ritzow
+ */
+public final class EntitySnapshotReceiver {
+	private final EntitySnapshot[] history = new EntitySnapshot[HISTORY];
+	private int latest = NO_BASELINE;
+
+	/** The snapshot whose messages are being received, the ID it continues from, and its entities so far **/
+	private int building = NO_BASELINE, nextStart;
+	private int[] ids = new int[64], states = new int[64 * FIELDS];
+	private int size;
+
+	@FunctionalInterface
+	public interface StateConsumer {
+		void accept(int id, float positionX, float positionY, float velocityX, float velocityY);
+	}
+
+	/** @return the sequence number of the most recent complete snapshot, or {@link EntitySnapshot#NO_BASELINE} **/
+	public int latest() {
+		return latest;
+	}
+
+	/**
+	 * Decodes one entity update message and provides the state of every entity in the range it covers,
+	 * including the entities that haven't changed since the baseline.
+	 * @param data the message, after its type.
+	 * @param consumer receives the state of each entity.
+	 * @return false if the message couldn't be decoded because its baseline is no longer available.
+	 * @throws SerializationException if the message is invalid.
+	 */
+	public boolean receive(ByteBuffer data, StateConsumer consumer) {
+		int sequence = data.getInt(), baselineSequence = data.getInt(), start = data.getInt(), end = data.getInt();
+		EntitySnapshot baseline = baselineSequence == NO_BASELINE ? EMPTY : history[Math.floorMod(baselineSequence, HISTORY)];
+		if(baseline == null || baseline.sequence() != baselineSequence)
+			return false;
+		if(start < 0 || end <= start)
+			throw new SerializationException("invalid entity update range " + start + " to " + end);
+
+		//a snapshot can only be kept if none of its messages were lost
+		if(sequence != building) {
+			building = start == 0 ? sequence : NO_BASELINE;
+			size = 0;
+		} else if(start != nextStart) {
+			building = NO_BASELINE;
+		}
+		nextStart = end;
+
+		BitReader bits = new BitReader(data);
+		int[] removed = readIds(bits, start, end);
+		int changedCount = bits.readVariable(), next = start;
+		int base = lowerBound(baseline, start), removedIndex = 0;
+		for(int i = 0; i < changedCount; i++) {
+			int id = readId(bits, next, end);
+			next = id + 1;
+			//entities before the changed one are unchanged or removed
+			for(; base < baseline.size() && baseline.id(base) < id; base++) {
+				removedIndex = copyUnlessRemoved(baseline, base, removed, removedIndex, consumer);
+			}
+			boolean inBaseline = base < baseline.size() && baseline.id(base) == id;
+			int x = readField(bits, baseline, base, inBaseline, 0), y = readField(bits, baseline, base, inBaseline, 1);
+			int vx = readField(bits, baseline, base, inBaseline, 2), vy = readField(bits, baseline, base, inBaseline, 3);
+			add(id, x, y, vx, vy, consumer);
+			if(inBaseline) base++;
+		}
+		for(; base < baseline.size() && baseline.id(base) < end; base++) {
+			removedIndex = copyUnlessRemoved(baseline, base, removed, removedIndex, consumer);
+		}
+
+		if(end == END_ID && building == sequence) {
+			EntitySnapshot snapshot = new EntitySnapshot(sequence, size, Arrays.copyOf(ids, size), Arrays.copyOf(states, size * FIELDS));
+			history[Math.floorMod(sequence, HISTORY)] = snapshot;
+			latest = sequence;
+			building = NO_BASELINE;
+		}
+		return true;
+	}
+
+	private static int[] readIds(BitReader bits, int start, int end) {
+		int[] ids = new int[bits.readVariable()];
+		for(int i = 0, next = start; i < ids.length; i++) {
+			ids[i] = readId(bits, next, end);
+			next = ids[i] + 1;
+		}
+		return ids;
+	}
+
+	private static int readId(BitReader bits, int next, int end) {
+		int id = next + bits.readVariable();
+		if(id < next || id >= end)
+			throw new SerializationException("entity ID outside of update range");
+		return id;
+	}
+
+	private static int readField(BitReader bits, EntitySnapshot baseline, int base, boolean inBaseline, int field) {
+		int value = inBaseline ? baseline.state(base, field) : 0;
+		return bits.readBoolean() ? value + BitReader.unzigzag(bits.readVariable()) : value;
+	}
+
+	private int copyUnlessRemoved(EntitySnapshot baseline, int base, int[] removed, int removedIndex, StateConsumer consumer) {
+		while(removedIndex < removed.length && removed[removedIndex] < baseline.id(base)) {
+			removedIndex++;
+		}
+		if(removedIndex < removed.length && removed[removedIndex] == baseline.id(base))
+			return removedIndex + 1;
+		add(baseline.id(base), baseline.state(base, 0), baseline.state(base, 1),
+			baseline.state(base, 2), baseline.state(base, 3), consumer);
+		return removedIndex;
+	}
+
+	private void add(int id, int x, int y, int vx, int vy, StateConsumer consumer) {
+		consumer.accept(id, position(x), position(y), velocity(vx), velocity(vy));
+		if(building != NO_BASELINE) {
+			if(size == ids.length) {
+				ids = Arrays.copyOf(ids, size * 2);
+				states = Arrays.copyOf(states, size * 2 * FIELDS);
+			}
+			ids[size] = id;
+			states[size * FIELDS] = x;
+			states[size * FIELDS + 1] = y;
+			states[size * FIELDS + 2] = vx;
+			states[size * FIELDS + 3] = vy;
+			size++;
+		}
+	}
+
+	private static int lowerBound(EntitySnapshot snapshot, int id) {
+		int low = 0, high = snapshot.size();
+		while(low < high) {
+			int middle = (low + high) >>> 1;
+			if(snapshot.id(middle) < id) low = middle + 1; else high = middle;
+		}
+		return low;
+	}
+}
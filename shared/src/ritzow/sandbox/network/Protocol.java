@@ -17,8 +17,8 @@ public final class Protocol {
 	private Protocol() {throw new UnsupportedOperationException("instantiation of Protocol not allowed");}
 
 	//gameplay
-	public static final long MAX_UPDATE_TIMESTEP = Utility.millisToNanos(200);
-	public static final long MAX_UPDATE_TIME_ALLOWED = Utility.millisToNanos(10000);
+	/** The amount of time simulated by each server world update **/
+	public static final long TICK_TIME = Utility.frameRateToFrameTimeNanos(60);
 
 	public static final float BLOCK_INTERACT_RANGE = 1000;
 	public static final long BLOCK_INTERACT_COOLDOWN_NANOSECONDS = Utility.millisToNanos(0);
@@ -37,13 +37,14 @@ public final class Protocol {
 		RESEND_INTERVAL = TIMEOUT_DISCONNECT/RESEND_COUNT;
 
 	public static final int
-		MESSAGE_HEADER_SIZE = 9, //type + id + predecessor id
-		MIN_PACKET_SIZE = 5,
+		MIN_PACKET_SIZE = Acknowledgements.SIZE, //a packet with no messages only acknowledges received messages
+		MESSAGE_HEADER_SIZE = 11, //type + id + predecessor id + length, for each message in a packet
+		WORLD_CHUNK_HEADER_SIZE = 10, //type + chunk index + chunk data size
 		MAX_PACKET_SIZE = 1024,
-		MAX_MESSAGE_LENGTH = MAX_PACKET_SIZE - MESSAGE_HEADER_SIZE;
+		MAX_MESSAGE_LENGTH = MAX_PACKET_SIZE - MIN_PACKET_SIZE - MESSAGE_HEADER_SIZE;
 
+	/** Message reliability, each packet contains as many messages as fit after its acknowledgement **/
 	public static final byte
-		RESPONSE_TYPE = 1,
 		RELIABLE_TYPE = 2,
 		UNRELIABLE_TYPE = 3;
 
@@ -51,12 +52,16 @@ public final class Protocol {
 	public static final short
 		TYPE_CONSOLE_MESSAGE = 0,
 		TYPE_SERVER_CONNECT_ACKNOWLEDGMENT = 1,
-		TYPE_SERVER_WORLD_DATA = 3,
+		/** Part of a serialized BlockChunk, sent after the connect acknowledgement, nearest to the player first **/
+		TYPE_SERVER_WORLD_CHUNK = 3,
+		/** Changes to entity positions and velocities since a snapshot the client has, see {@link EntitySnapshot} **/
 		TYPE_SERVER_ENTITY_UPDATE = 4,
 		//TODO separate receiving entity and adding to world
 		//(TYPE_RECEIVE_AND_ADD_ENTITY vs TYPE_RECEIVE_ENTITY and TYPE_ADD_ENTITY?)
+		/** An entity that was added to the world within view of the player or that has come into view **/
 		TYPE_SERVER_CREATE_ENTITY = 5,
 		//TODO separate removing entity from world and deleting entity
+		/** An entity that was removed from the world or has left the view of the player **/
 		TYPE_SERVER_DELETE_ENTITY = 6,
 		TYPE_SERVER_CLIENT_DISCONNECT = 7,
 		TYPE_SERVER_REMOVE_BLOCK = 9,
@@ -69,7 +74,9 @@ public final class Protocol {
 		TYPE_CLIENT_WORLD_BUILT = 17,
 		TYPE_CLIENT_PLACE_BLOCK = 18,
 		TYPE_SERVER_PLACE_BLOCK = 19,
-		TYPE_SERVER_CLIENT_SLOT_USE_COOLDOWN = 20;
+		TYPE_SERVER_CLIENT_SLOT_USE_COOLDOWN = 20,
+		/** The server's state of the client's own player and the latest player state it has applied **/
+		TYPE_SERVER_PLAYER_STATE = 21;
 
 	/** Serialization Type ID **/
 	public static final short
@@ -81,7 +88,10 @@ public final class Protocol {
 		DATA_INVENTORY = 7,
 		DATA_DIRT_BLOCK = 8,
 		DATA_GRASS_BLOCK = 9,
-		DATA_GLASS_BLOCK = 10;
+		DATA_GLASS_BLOCK = 10,
+		DATA_BLOCK_CHUNK = 11,
+		DATA_BLOCK_GRID_RLE = 12,
+		DATA_BLOCK_GRID_DIMENSIONS = 13;
 
 	public static final byte
 		CONNECT_STATUS_REJECTED = 0,
@@ -107,6 +117,8 @@ public final class Protocol {
 		//1 bit unused
 		//1 bit unused
 		//1 byte unsigned item slot TODO not currently unsigned
+		//4 bytes latest complete entity snapshot, when sent by the client
+		//4 bytes player state sequence number, when sent by the client
 		public static final byte MOVE_LEFT = 			0b00000001;
 		public static final byte MOVE_RIGHT = 			0b00000010;
 		public static final byte MOVE_UP = 				0b00000100;
@@ -0,0 +1,96 @@
+package ritzow.sandbox.network;
+
+import java.nio.ByteBuffer;
+
+import static ritzow.sandbox.network.Protocol.MAX_MESSAGE_LENGTH;
+
+/**
+ * Messages received before the messages they must be processed after. Messages are stored in a ring buffer indexed by
+ * message ID, so storing a message and finding the next one to process doesn't require searching or sorting, and only
+ * messages within {@link #CAPACITY} IDs of the last processed message are kept, so a connection can't use unbounded
+ * memory by sending messages far ahead. Message data is copied into direct buffers that are reused for later messages.
+ * @author Solomon Ritzow
+ */
+public final class ReceiveWindow {
+	/** The number of message IDs after the last processed message that can be held, more than are acknowledged **/
+	public static final int CAPACITY = 256;
+
+	private final ByteBuffer[] data = new ByteBuffer[CAPACITY];
+	private final int[] ids = new int[CAPACITY], predecessors = new int[CAPACITY];
+	private final boolean[] held = new boolean[CAPACITY];
+
+	/** Every ID from the last processed message up to scanFrom is known not to be held, and none are after highest **/
+	private int scanFrom, highest = -1;
+	/** The last processed message ID this window was told about **/
+	private int head = -1;
+
+	/**
+	 * Holds a message until it can be processed, ignoring it if it is already held.
+	 * @param head the ID of the last message processed.
+	 * @return false if the message is too far ahead of the last message processed to be held.
+	 */
+	public boolean add(int head, int messageID, int predecessorID, ByteBuffer message) {
+		this.head = head;
+		if(messageID <= head)
+			return true; //already processed
+		if((long)messageID - head > CAPACITY)
+			return false;
+		int index = messageID & (CAPACITY - 1);
+		//a slot holding an ID that has already been processed or skipped can be reused
+		if(held[index] && ids[index] == messageID)
+			return true;
+		ByteBuffer buffer = data[index];
+		if(buffer == null) {
+			buffer = data[index] = ByteBuffer.allocateDirect(MAX_MESSAGE_LENGTH);
+		}
+		buffer.clear().put(message).flip();
+		ids[index] = messageID;
+		predecessors[index] = predecessorID;
+		held[index] = true;
+		scanFrom = Math.min(scanFrom, messageID);
+		highest = Math.max(highest, messageID);
+		return true;
+	}
+
+	/**
+	 * Finds the message to process next, which is the held message with the lowest ID if the message it must be
+	 * processed after has been processed.
+	 * @param head the ID of the last message processed.
+	 * @return the ID of the message to process next, or -1 if there isn't one.
+	 */
+	public int next(int head) {
+		this.head = head;
+		int id = Math.max(scanFrom, head + 1);
+		while(id <= highest) {
+			int index = id & (CAPACITY - 1);
+			if(held[index] && ids[index] == id) {
+				scanFrom = id;
+				return predecessors[index] <= head ? id : -1;
+			}
+			id++;
+		}
+		scanFrom = id;
+		return -1;
+	}
+
+	/**
+	 * Removes a message returned by {@link #next(int)}.
+	 * @return the message data, which is only valid until the next call to {@link #add}.
+	 */
+	public ByteBuffer take(int messageID) {
+		int index = messageID & (CAPACITY - 1);
+		if(!held[index] || ids[index] != messageID)
+			throw new IllegalArgumentException("message " + messageID + " isn't held");
+		held[index] = false;
+		return data[index];
+	}
+
+	@Override
+	public String toString() {
+		int count = 0;
+		for(int i = 0; i < CAPACITY; i++) {
+			if(held[i] && ids[i] > head) count++;
+		}
+		return count + " messages held up to ID " + highest;
+	}
+}
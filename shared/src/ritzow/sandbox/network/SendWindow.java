@@ -0,0 +1,241 @@
+package ritzow.sandbox.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.IntConsumer;
+import ritzow.sandbox.util.Utility;
+
+import static ritzow.sandbox.network.Protocol.*;
+
+/**
+ * The messages a connection has queued to send and the reliable messages it has sent that haven't been acknowledged.
+ * Messages are stored in a ring buffer indexed by message ID, so acknowledgements find their message without
+ * searching, and the buffer grows when more messages are outstanding than it can hold. The state of each message is
+ * kept in arrays rather than an object per message, so queueing a message allocates nothing once the buffer is large
+ * enough, and message data is held by reference, so a message sent to many connections is stored once. Messages are sent packed into
+ * as few packets as possible, each starting with an acknowledgement of the messages received from the other end
+ * and followed by messages that each have a {@link Protocol#MESSAGE_HEADER_SIZE} header. How much is sent and when
+ * messages are resent is decided by {@link CongestionControl}.
+ * @author Solomon Ritzow
+ */
+public final class SendWindow {
+	@FunctionalInterface
+	public interface PacketSender {
+		/** Sends the remaining contents of the buffer as a single datagram **/
+		void send(ByteBuffer packet) throws IOException;
+	}
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	/** The data of each message, or null if the slot is empty, the message each must be processed after, and
+	 * whether each is reliable **/
+	private byte[][] data = new byte[INITIAL_CAPACITY][];
+	private int[] predecessors = new int[INITIAL_CAPACITY];
+	private boolean[] reliable = new boolean[INITIAL_CAPACITY];
+	/** The time each message was last sent or -1, how long to wait for an acknowledgement before resending it, and
+	 * the number of times it has been sent **/
+	private long[] lastSendTimes = new long[INITIAL_CAPACITY], timeouts = new long[INITIAL_CAPACITY];
+	private int[] sendCounts = new int[INITIAL_CAPACITY];
+	/** The ID of the oldest message that might not have been acknowledged, and the ID of the next message **/
+	private int oldest, next;
+	private int lastReliableID = -1, size;
+	/** The total length of the messages counted by size **/
+	private long bytes;
+	private final CongestionControl congestion = new CongestionControl();
+	private long unreliableDropped;
+
+	/**
+	 * Queues a message to be sent by the next call to {@link #send(long, ByteBuffer, Acknowledgements, PacketSender)}.
+	 * @param data the message, which is kept until it is sent or acknowledged and must not be modified.
+	 * @return the ID of the message.
+	 */
+	public int add(byte[] data, boolean reliable) {
+		if(data.length > MAX_MESSAGE_LENGTH)
+			throw new IllegalArgumentException("message is " + data.length + " bytes, longer than " + MAX_MESSAGE_LENGTH);
+		if(next - oldest == this.data.length) {
+			grow();
+		}
+		int id = next++, index = id & (this.data.length - 1);
+		this.data[index] = data;
+		this.predecessors[index] = lastReliableID;
+		this.reliable[index] = reliable;
+		lastSendTimes[index] = -1;
+		timeouts[index] = RESEND_INTERVAL;
+		sendCounts[index] = 0;
+		if(reliable) lastReliableID = id;
+		size++;
+		bytes += data.length;
+		return id;
+	}
+
+	private void grow() {
+		int capacity = data.length * 2;
+		byte[][] data = new byte[capacity][];
+		int[] predecessors = new int[capacity], sendCounts = new int[capacity];
+		boolean[] reliable = new boolean[capacity];
+		long[] lastSendTimes = new long[capacity], timeouts = new long[capacity];
+		for(int id = oldest; id < next; id++) {
+			int from = id & (this.data.length - 1), to = id & (capacity - 1);
+			data[to] = this.data[from];
+			predecessors[to] = this.predecessors[from];
+			reliable[to] = this.reliable[from];
+			lastSendTimes[to] = this.lastSendTimes[from];
+			timeouts[to] = this.timeouts[from];
+			sendCounts[to] = this.sendCounts[from];
+		}
+		this.data = data;
+		this.predecessors = predecessors;
+		this.reliable = reliable;
+		this.lastSendTimes = lastSendTimes;
+		this.timeouts = timeouts;
+		this.sendCounts = sendCounts;
+	}
+
+	/** @return the number of messages that haven't been sent or, if reliable, acknowledged **/
+	public int size() {
+		return size;
+	}
+
+	/** @return the total length of the messages counted by {@link #size()} **/
+	public long bytes() {
+		return bytes;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/** @return the estimated round trip time to the other end in nanoseconds, or -1 if it hasn't been measured **/
+	public long roundTripTime() {
+		return congestion.roundTripTime();
+	}
+
+	public CongestionControl congestion() {
+		return congestion;
+	}
+
+	/** @return the number of unreliable messages dropped because there was no room to send them **/
+	public long unreliableDropped() {
+		return unreliableDropped;
+	}
+
+	/**
+	 * Removes the reliable messages acknowledged by the header of a received packet, see {@link Acknowledgements}.
+	 * @param time the time the packet was received.
+	 * @param head the ID of the last message the other end processed, which acknowledges every message up to it.
+	 * @param bits bit {@code i} is set if the message with ID {@code head + 1 + i} has been received.
+	 * @param acknowledged receives the ID of each message that is acknowledged for the first time.
+	 */
+	public void acknowledge(long time, int head, long bits, IntConsumer acknowledged) {
+		for(int id = oldest, end = Math.min(head, next - 1); id <= end; id++) {
+			remove(id, time, acknowledged);
+		}
+		for(; bits != 0; bits &= bits - 1) {
+			int id = head + 1 + Long.numberOfTrailingZeros(bits);
+			if(id >= oldest && id < next) {
+				remove(id, time, acknowledged);
+			}
+		}
+		advance();
+	}
+
+	private void remove(int id, long time, IntConsumer acknowledged) {
+		int index = id & (data.length - 1);
+		if(data[index] != null && reliable[index] && lastSendTimes[index] != -1) {
+			//the round trip of a message sent more than once can't be known, since either send could have arrived
+			congestion.acknowledged(MESSAGE_HEADER_SIZE + data[index].length,
+				sendCounts[index] == 1 ? time - lastSendTimes[index] : -1);
+			bytes -= data[index].length;
+			data[index] = null;
+			size--;
+			acknowledged.accept(id);
+		}
+	}
+
+	/**
+	 * Sends queued messages, and resends reliable messages that haven't been acknowledged within their timeout, packing
+	 * as many messages into each packet as will fit. Each resend doubles the message's timeout. Messages that
+	 * {@link CongestionControl} doesn't allow to be sent yet are left queued if reliable, and dropped if unreliable,
+	 * since an unreliable message is replaced by a newer one soon after. If there are no messages to send but a
+	 * reliable message has been received since the last acknowledgement was sent, a packet containing only an
+	 * acknowledgement is sent.
+	 * @param buffer an empty buffer of {@link Protocol#MAX_PACKET_SIZE} bytes to write packets to.
+	 * @param acks the acknowledgement to start each packet with.
+	 * @return the number of packets sent.
+	 */
+	public int send(long time, ByteBuffer buffer, Acknowledgements acks, PacketSender sender) throws IOException {
+		congestion.refill(time);
+		int sent = 0;
+		for(int id = oldest; id < next; id++) {
+			int index = id & (data.length - 1);
+			byte[] message = data[index];
+			if(message == null) continue;
+			boolean reliable = this.reliable[index], first = lastSendTimes[index] == -1;
+			if(first || !reliable || time - lastSendTimes[index] > timeouts[index]) {
+				int frameSize = MESSAGE_HEADER_SIZE + message.length;
+				boolean newPacket = buffer.position() == 0 || buffer.remaining() < frameSize;
+				int cost = newPacket ? MIN_PACKET_SIZE + frameSize : frameSize;
+				if(!congestion.canSend(cost, reliable && first)) {
+					if(!reliable) {
+						data[index] = null;
+						size--;
+						bytes -= message.length;
+						unreliableDropped++;
+					}
+					continue;
+				}
+
+				if(buffer.position() > 0 && buffer.remaining() < frameSize) {
+					sender.send(buffer.flip());
+					buffer.clear();
+					sent++;
+				}
+				if(buffer.position() == 0) {
+					acks.write(buffer);
+				}
+				buffer.put(reliable ? RELIABLE_TYPE : UNRELIABLE_TYPE)
+					.putInt(id)
+					.putInt(predecessors[index])
+					.putShort((short)message.length)
+					.put(message);
+				congestion.sent(cost);
+				if(!reliable) {
+					data[index] = null;
+					size--;
+					bytes -= message.length;
+				} else if(first) {
+					timeouts[index] = congestion.timeout();
+					congestion.sentReliable(frameSize);
+				} else {
+					timeouts[index] = Math.min(timeouts[index] * 2, CongestionControl.MAX_TIMEOUT);
+					congestion.lost(time);
+				}
+				lastSendTimes[index] = time;
+				sendCounts[index]++;
+			}
+		}
+		advance();
+
+		if(buffer.position() == 0 && acks.pending()) {
+			acks.write(buffer);
+		}
+		if(buffer.position() > 0) {
+			sender.send(buffer.flip());
+			buffer.clear();
+			sent++;
+		}
+		return sent;
+	}
+
+	private void advance() {
+		while(oldest < next && data[oldest & (data.length - 1)] == null) {
+			oldest++;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return size + " messages (" + Utility.formatSize(bytes) + ") pending, IDs " + oldest + " to " + next + ", " + unreliableDropped
+			+ " unreliable dropped, " + congestion;
+	}
+}
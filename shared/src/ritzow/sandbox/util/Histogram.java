@@ -0,0 +1,64 @@
+package ritzow.sandbox.util;
+
+import java.util.function.LongFunction;
+
+/**
+ * Counts non-negative values in power of two sized buckets, so that recording is constant time and memory use is fixed.
+ * Percentiles are reported as the upper bound of the bucket they fall in, so they are accurate to within a factor of two.
+ * @author Solomon Ritzow
+ */
+public final class Histogram {
+	/** Bucket 0 holds zero, bucket {@code n} holds values in {@code [2^(n-1), 2^n)} **/
+	private final long[] buckets = new long[Long.SIZE];
+	private long count, total, max;
+
+	/** @param value the value to record, negative values are recorded as zero **/
+	public void record(long value) {
+		value = Math.max(0, value);
+		buckets[Long.SIZE - Long.numberOfLeadingZeros(value)]++;
+		count++;
+		total += value;
+		max = Math.max(max, value);
+	}
+
+	public long count() {
+		return count;
+	}
+
+	public long total() {
+		return total;
+	}
+
+	public long max() {
+		return max;
+	}
+
+	public long mean() {
+		return count == 0 ? 0 : total / count;
+	}
+
+	/**
+	 * @param fraction the percentile as a fraction between 0 and 1.
+	 * @return an upper bound for the value below which the provided fraction of recorded values fall.
+	 */
+	public long percentile(double fraction) {
+		long rank = (long)Math.ceil(fraction * count);
+		long seen = 0;
+		for(int bucket = 0; bucket < buckets.length; bucket++) {
+			seen += buckets[bucket];
+			if(seen >= rank && seen > 0) {
+				return Math.min(max, (1L << bucket) - 1);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @param format converts a recorded value to text.
+	 * @return the number of values and the mean, median, 99th percentile, and maximum value.
+	 */
+	public String summary(LongFunction<String> format) {
+		return count + " recorded, mean " + format.apply(mean()) + ", p50 " + format.apply(percentile(0.5))
+			+ ", p99 " + format.apply(percentile(0.99)) + ", max " + format.apply(max);
+	}
+}
@@ -0,0 +1,115 @@
+package ritzow.sandbox.util;
+
+/**
+ * Runs a simulation in fixed length ticks. Elapsed time is accumulated and consumed one tick at a time, so every tick
+ * simulates exactly the same amount of time regardless of how often ticks are run. If the simulation falls too far
+ * behind, the excess time is dropped instead of being caught up, and the number of dropped ticks is recorded.
+ * @author Solomon Ritzow
+ */
+public final class TickScheduler {
+	private final long tickTime;
+	private final int maxTicksPerUpdate;
+
+	/** Elapsed time that hasn't been simulated yet, as of lastTime **/
+	private long accumulated;
+	private long lastTime;
+
+	private final Histogram tickDurations = new Histogram(), sleepOvershoot = new Histogram(), ticksSkipped = new Histogram();
+	private long totalTicks, totalSkipped;
+
+	/**
+	 * @param tickTime the amount of time each tick simulates, in nanoseconds.
+	 * @param maxTicksPerUpdate the maximum number of ticks to run in a single call to {@link #run(Runnable)}.
+	 */
+	public TickScheduler(long tickTime, int maxTicksPerUpdate) {
+		if(tickTime <= 0 || maxTicksPerUpdate <= 0)
+			throw new IllegalArgumentException("tick time and max ticks per update must be positive");
+		this.tickTime = tickTime;
+		this.maxTicksPerUpdate = maxTicksPerUpdate;
+		this.lastTime = System.nanoTime();
+	}
+
+	/** Discards accumulated time, for example after loading a world **/
+	public void reset() {
+		accumulated = 0;
+		lastTime = System.nanoTime();
+	}
+
+	/** @return the number of ticks run so far **/
+	public long totalTicks() {
+		return totalTicks;
+	}
+
+	/** @return the amount of time each tick simulates, in nanoseconds **/
+	public long tickTime() {
+		return tickTime;
+	}
+
+	/**
+	 * Runs every tick that is due, up to the maximum number of ticks per update.
+	 * @param tick the action that simulates a single tick.
+	 * @return the number of ticks that were run.
+	 */
+	public int run(Runnable tick) {
+		accumulate();
+		long due = accumulated / tickTime;
+		if(due > maxTicksPerUpdate) {
+			long skipped = due - maxTicksPerUpdate;
+			accumulated -= skipped * tickTime;
+			totalSkipped += skipped;
+			ticksSkipped.record(skipped);
+			due = maxTicksPerUpdate;
+		}
+
+		for(int i = 0; i < due; i++) {
+			long start = System.nanoTime();
+			tick.run();
+			tickDurations.record(System.nanoTime() - start);
+			accumulated -= tickTime;
+		}
+		totalTicks += due;
+		return (int)due;
+	}
+
+	/** Sleeps until the next tick is due, returning immediately if it already is **/
+	public void sleep() {
+		accumulate();
+		long remaining = tickTime - accumulated;
+		if(remaining > 0) {
+			long deadline = lastTime + remaining;
+			try {
+				Thread.sleep(remaining / 1_000_000, (int)(remaining % 1_000_000));
+			} catch(InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			sleepOvershoot.record(System.nanoTime() - deadline);
+		}
+	}
+
+	private void accumulate() {
+		long now = System.nanoTime();
+		accumulated += now - lastTime;
+		lastTime = now;
+	}
+
+	public Histogram tickDurations() {
+		return tickDurations;
+	}
+
+	public Histogram sleepOvershoot() {
+		return sleepOvershoot;
+	}
+
+	/** @return a histogram of the number of ticks dropped each time the simulation fell too far behind **/
+	public Histogram ticksSkipped() {
+		return ticksSkipped;
+	}
+
+	@Override
+	public String toString() {
+		return totalTicks + " ticks of " + Utility.formatTime(tickTime) + " run, " + totalSkipped + " skipped.\n"
+			+ "Tick duration: " + tickDurations.summary(Utility::formatTime) + "\n"
+			+ "Sleep overshoot: " + sleepOvershoot.summary(Utility::formatTime) + "\n"
+			+ "Ticks skipped: " + ticksSkipped.summary(Long::toString);
+	}
+}
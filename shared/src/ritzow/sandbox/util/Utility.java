@@ -92,28 +92,6 @@ public final class Utility {
 		}
 	}
 
-	/**
-	 * Updates the world
-	 * @param world the world to update
-	 * @param previousTime the previous update start time
-	 * @param maxTimestep the maximum amount of game time to update the world at once
-	 * @return the start time for the world update (should replace the previous time)
-	 */
-	public static long updateWorld(World world, long previousTime, long maxTimestep) {
-		long start = System.nanoTime(); //get the current time
-		long timeRemaining = start - previousTime;
-		if(timeRemaining > Protocol.MAX_UPDATE_TIME_ALLOWED)
-			throw new IllegalArgumentException(timeRemaining +
-					" is greater than the max allowed world update time");
-		//update the world with a timestep of at most maxTimestep until the world is up to date.
-		while(timeRemaining > 0) {
-			long singleUpdateTime = Math.min(timeRemaining, maxTimestep);
-			world.update(singleUpdateTime);
-			timeRemaining -= singleUpdateTime;
-		}
-		return start;
-	}
-
 	public static boolean canThrow(long lastThrowTime) {
 		return Utility.nanosSince(lastThrowTime) > Protocol.THROW_COOLDOWN_NANOSECONDS;
 	}
@@ -0,0 +1,250 @@
+package ritzow.sandbox.world;
+
+import java.util.Arrays;
+import ritzow.sandbox.data.DataWriter;
+import ritzow.sandbox.data.SerializationException;
+import ritzow.sandbox.data.Transportable;
+import ritzow.sandbox.data.TransportableDataReader;
+import ritzow.sandbox.world.block.Block;
+
+/**
+ * A fixed-width group of columns of a {@link BlockGrid} that spans the full height and all layers of the grid.
+ * Chunk coordinates are local to the chunk, column 0 of chunk {@code n} is column {@code n * width} of the grid.
+ * Cells are stored as indices into a palette of the distinct blocks in the chunk, using one byte per cell
+ * until the chunk contains more than 255 distinct blocks and two bytes per cell after that.
+ * Palette index 0 always represents the absence of a block.
+ * @author Solomon Ritzow
+ */
+public final class BlockChunk implements Transportable {
+	private static final int MAX_NARROW_PALETTE = 256, MAX_PALETTE = 65536;
+
+	private final int width, height, layers;
+	private Block[] palette;
+	private int paletteSize;
+
+	/** Cell palette indices, only one of these is non-null **/
+	private byte[] cells;
+	private short[] wideCells;
+
+	/** The BlockGrid sweep during which this chunk was last accessed **/
+	int lastAccess;
+
+	/** True if the chunk contains changes that can't be restored by regenerating or reloading it **/
+	boolean modified;
+
+	/** True if the chunk store may still refer to this chunk, so the grid must copy it before modifying it **/
+	boolean shared;
+
+	BlockChunk(int layers, int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.layers = layers;
+		this.palette = new Block[4];
+		this.paletteSize = 1;
+		this.cells = new byte[layers * width * height];
+	}
+
+	public BlockChunk(TransportableDataReader data) {
+		this(data.readInteger(), data.readInteger(), data.readInteger(), data);
+	}
+
+	private BlockChunk(int width, int height, int layers, TransportableDataReader data) {
+		this(layers, width, height);
+		int[] indices = new int[data.readVarInt() + 1];
+		for(int i = 1; i < indices.length; i++) {
+			indices[i] = paletteIndex(data.readObject());
+		}
+
+		for(int position = 0; position < cells.length;) {
+			int length = data.readVarInt(), index = data.readVarInt();
+			if(length == 0 || length > cells.length - position || index >= indices.length)
+				throw new SerializationException("invalid block run at cell " + position);
+			fillCells(position, position + length, indices[index]);
+			position += length;
+		}
+	}
+
+	/**
+	 * Writes the dimensions of the chunk, its palette, and then its cells in memory order
+	 * as runs of a length and a palette index, both variable length integers.
+	 */
+	@Override
+	public void write(DataWriter out) {
+		out.writeInteger(width);
+		out.writeInteger(height);
+		out.writeInteger(layers);
+		out.writeVarInt(paletteSize - 1);
+		for(int i = 1; i < paletteSize; i++) {
+			out.writeObject(palette[i]);
+		}
+
+		int cellCount = layers * width * height;
+		for(int start = 0; start < cellCount;) {
+			int value = cell(start), end = start + 1;
+			while(end < cellCount && cell(end) == value) {
+				end++;
+			}
+			out.writeVarInt(end - start);
+			out.writeVarInt(value);
+			start = end;
+		}
+	}
+
+	/** @return an unshared copy of this chunk **/
+	BlockChunk copy() {
+		BlockChunk copy = new BlockChunk(layers, width, height);
+		copy.palette = palette.clone();
+		copy.paletteSize = paletteSize;
+		copy.cells = cells == null ? null : cells.clone();
+		copy.wideCells = wideCells == null ? null : wideCells.clone();
+		copy.lastAccess = lastAccess;
+		copy.modified = modified;
+		return copy;
+	}
+
+	boolean isCompatible(BlockGrid grid) {
+		return width == BlockGrid.CHUNK_WIDTH && height == grid.getHeight() && layers == grid.getLayers();
+	}
+
+	/** Same memory layout as the original single-array BlockGrid, row -> column -> layer **/
+	private int index(int layer, int x, int y) {
+		return layers * (width * y + x) + layer;
+	}
+
+	private int cell(int index) {
+		return cells != null ? cells[index] & 0xFF : wideCells[index] & 0xFFFF;
+	}
+
+	private void setCell(int index, int paletteIndex) {
+		if(cells != null) {
+			cells[index] = (byte)paletteIndex;
+		} else {
+			wideCells[index] = (short)paletteIndex;
+		}
+	}
+
+	private void fillCells(int start, int end, int paletteIndex) {
+		if(cells != null) {
+			Arrays.fill(cells, start, end, (byte)paletteIndex);
+		} else {
+			Arrays.fill(wideCells, start, end, (short)paletteIndex);
+		}
+	}
+
+	/** Blocks are compared by identity, so {@link #get(int, int, int)} returns the same instance that was set **/
+	private int paletteIndex(Block block) {
+		if(block == null) {
+			return 0;
+		}
+
+		for(int i = 1; i < paletteSize; i++) {
+			if(palette[i] == block) {
+				return i;
+			}
+		}
+
+		if(paletteSize == MAX_PALETTE)
+			throw new IllegalStateException("chunk cannot contain more than " + (MAX_PALETTE - 1) + " distinct blocks");
+		if(paletteSize == MAX_NARROW_PALETTE) {
+			wideCells = new short[cells.length];
+			for(int i = 0; i < cells.length; i++) {
+				wideCells[i] = (short)(cells[i] & 0xFF);
+			}
+			cells = null;
+		}
+		if(paletteSize == palette.length) {
+			palette = Arrays.copyOf(palette, paletteSize * 2);
+		}
+		palette[paletteSize] = block;
+		return paletteSize++;
+	}
+
+	int paletteSize() {
+		return paletteSize;
+	}
+
+	Block paletteBlock(int paletteIndex) {
+		return palette[paletteIndex];
+	}
+
+	/** @return the palette index of the block at the provided location, 0 if there is no block **/
+	int paletteIndexAt(int layer, int x, int y) {
+		return cell(index(layer, x, y));
+	}
+
+	public Block get(int layer, int x, int y) {
+		return palette[cell(index(layer, x, y))];
+	}
+
+	public Block set(int layer, int x, int y, Block block) {
+		int index = index(layer, x, y);
+		int value = paletteIndex(block);
+		Block previous = palette[cell(index)];
+		setCell(index, value);
+		return previous;
+	}
+
+	/** Fills all layers of a rectangular region, in chunk coordinates, with the provided block instance **/
+	public void fill(Block block, int x1, int y1, int width, int height) {
+		int value = paletteIndex(block);
+		int y2 = y1 + height;
+		for(int row = y1; row < y2; ++row) {
+			int rowStart = index(0, x1, row);
+			fillCells(rowStart, rowStart + width * layers, value);
+		}
+	}
+
+	boolean isBlock(int x, int y) {
+		return isBlockInLayers(0, layers - 1, x, y);
+	}
+
+	boolean isBlockInLayers(int layerStart, int layerEnd, int x, int y) {
+		int base = index(0, x, y);
+		int end = base + layerEnd;
+		if(cells != null) {
+			for(int index = base + layerStart; index <= end; index++) {
+				if(cells[index] != 0) {
+					return true;
+				}
+			}
+		} else {
+			for(int index = base + layerStart; index <= end; index++) {
+				if(wideCells[index] != 0) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	int getTopBlockLayer(int x, int y) {
+		int start = index(0, x, y);
+		int end = start + layers;
+		if(cells != null) {
+			for(int index = start; index < end; index++) {
+				if(cells[index] != 0) {
+					return index - start;
+				}
+			}
+		} else {
+			for(int index = start; index < end; index++) {
+				if(wideCells[index] != 0) {
+					return index - start;
+				}
+			}
+		}
+		return BlockGrid.INVALID_LAYER;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getLayers() {
+		return layers;
+	}
+}
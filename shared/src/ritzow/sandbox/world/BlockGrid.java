@@ -1,50 +1,403 @@
 package ritzow.sandbox.world;
 
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import ritzow.sandbox.data.Bytes;
-import ritzow.sandbox.data.Serializer;
+import ritzow.sandbox.data.DataWriter;
+import ritzow.sandbox.data.SerializationException;
 import ritzow.sandbox.data.Transportable;
 import ritzow.sandbox.data.TransportableDataReader;
-import ritzow.sandbox.util.Optimized;
 import ritzow.sandbox.world.block.Block;
+import ritzow.sandbox.world.generator.WorldGenerator;
 
+/**
+ * Stores the blocks of a world in fixed-width chunks of columns. Chunks are created the first time they are accessed,
+ * either by loading them from a {@link ChunkStore}, generating them using a {@link WorldGenerator}, or as empty chunks,
+ * and can be evicted using {@link #evictIdle(int)}. Chunking is not visible through the block access methods.
+ * BlockGrid is not thread safe, even for reads, because reads may load chunks, unless concurrent reads
+ * have been enabled using {@link #setConcurrentReads(boolean)}.
+ */
 public final class BlockGrid implements Transportable {
-	private final Block[] blocks;
+	/** The number of columns in a chunk **/
+	public static final int CHUNK_WIDTH = 32;
+	private static final int CHUNK_SHIFT = Integer.numberOfTrailingZeros(CHUNK_WIDTH), CHUNK_MASK = CHUNK_WIDTH - 1;
+
+	private final BlockChunk[] chunks;
 	private final int width, height, layers;
 
+	/** Fills chunks that have never been stored, chunks are empty if null **/
+	private WorldGenerator generator;
+
+	/** Holds modified chunks when they are evicted, modified chunks can't be evicted if null **/
+	private ChunkStore store;
+
+	/** Indices of chunks that have been modified since they were last written to the store **/
+	private final BitSet unsaved = new BitSet();
+
+	/** Incremented each time evictIdle is called, used to find chunks that haven't been accessed recently **/
+	private int sweep;
+
+	/** The number of chunks currently in memory **/
+	private int resident;
+
+	/** True while blocks may be read from multiple threads, chunks aren't loaded into or evicted from memory **/
+	private boolean concurrentReads;
+
 	public static final int INVALID_LAYER = -1;
 
+	/** Written before the dimensions so that the encoding can change without breaking saved worlds **/
+	private static final byte FORMAT_VERSION = 1;
+
 	public BlockGrid(int layers, int width, int height) {
-		blocks = new Block[layers * width * height];
+		this.chunks = new BlockChunk[chunkCount(width)];
 		this.width = width;
 		this.layers = layers;
 		this.height = height;
 	}
 
+	/**
+	 * Reads a grid written by {@link #write(DataWriter)}, registered as {@link ritzow.sandbox.network.Protocol#DATA_BLOCK_GRID_RLE}.
+	 * Every chunk is created, including empty ones, so that a generator set afterwards won't fill them.
+	 */
 	public BlockGrid(TransportableDataReader data) {
-		//instance fields are evaluated inthe order they appear in the constructor
+		this(data, data.readByte());
+	}
+
+	private BlockGrid(TransportableDataReader data, byte version) {
+		if(version != FORMAT_VERSION)
+			throw new SerializationException("unsupported block grid format version " + version);
 		this.width = data.readInteger();
 		this.height = data.readInteger();
 		this.layers = data.readInteger();
-		blocks = new Block[layers * width * height];
-		for(int i = 0; i < blocks.length; i++) {
-			blocks[i] = data.readObject();
+		this.chunks = new BlockChunk[chunkCount(width)];
+		for(int column = 0; column < width; column += CHUNK_WIDTH) {
+			chunkForWrite(column);
+		}
+
+		Block[] palette = new Block[data.readVarInt() + 1];
+		for(int i = 1; i < palette.length; i++) {
+			palette[i] = data.readObject();
+		}
+
+		//runs continue across rows and layers, cells are ordered by layer, then row, then column
+		long cells = (long)layers * height * width, position = 0;
+		int layer = 0, row = 0, column = 0;
+		while(position < cells) {
+			int length = data.readVarInt(), index = data.readVarInt();
+			if(length == 0 || length > cells - position || index >= palette.length)
+				throw new SerializationException("invalid block run at cell " + position);
+			Block block = palette[index];
+			position += length;
+			for(int i = 0; i < length; i++) {
+				if(block != null) {
+					chunks[column >> CHUNK_SHIFT].set(layer, column & CHUNK_MASK, row, block);
+				}
+				if(++column == width) {
+					column = 0;
+					if(++row == height) {
+						row = 0;
+						layer++;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads a grid in the original format, one object per cell in row-major order, registered as
+	 * {@link ritzow.sandbox.network.Protocol#DATA_BLOCK_GRID} so that old saved worlds can still be loaded.
+	 */
+	public static BlockGrid readLegacy(TransportableDataReader data) {
+		int width = data.readInteger(), height = data.readInteger(), layers = data.readInteger();
+		BlockGrid grid = new BlockGrid(layers, width, height);
+		for(int row = 0; row < grid.height; row++) {
+			for(int column = 0; column < grid.width; column++) {
+				BlockChunk chunk = grid.chunkForWrite(column);
+				for(int layer = 0; layer < grid.layers; layer++) {
+					chunk.set(layer, column & CHUNK_MASK, row, data.readObject());
+				}
+			}
 		}
+		return grid;
+	}
+
+	/**
+	 * Reads a grid written as {@link Dimensions}, which has no chunks in memory.
+	 * Its chunks are loaded from its chunk store or generated once they are set.
+	 */
+	public static BlockGrid readDimensions(TransportableDataReader data) {
+		int width = data.readInteger(), height = data.readInteger(), layers = data.readInteger();
+		return new BlockGrid(layers, width, height);
 	}
 
+	/**
+	 * The size of a grid whose chunks are saved separately in a {@link ChunkStore}, read back as an empty grid
+	 * using {@link #readDimensions(TransportableDataReader)}.
+	 */
+	public record Dimensions(int layers, int width, int height) implements Transportable {
+		@Override
+		public void write(DataWriter out) {
+			out.writeInteger(width);
+			out.writeInteger(height);
+			out.writeInteger(layers);
+		}
+	}
+
+	/** @return the dimensions of this grid, for saving the grid without its blocks **/
+	public Dimensions dimensions() {
+		return new Dimensions(layers, width, height);
+	}
+
+	private static int chunkCount(int width) {
+		return (width + CHUNK_MASK) >> CHUNK_SHIFT;
+	}
+
+	/**
+	 * Writes a format version, the dimensions of the grid, a palette of the distinct blocks in the grid,
+	 * and then the cells as runs of a length and a palette index, both variable length integers.
+	 * Palette index 0 is no block and is not written.
+	 */
 	@Override
-	public byte[] getBytes(Serializer ser) {
-		//Store all serialized block data
-		byte[][] blockData = new byte[blocks.length][];
-		for(int i = 0; i < blocks.length; i++) {
-			blockData[i] = ser.serialize(blocks[i]);
+	public void write(DataWriter out) {
+		//gather all chunks without keeping evicted or ungenerated chunks in memory afterwards
+		BlockChunk[] all = new BlockChunk[chunks.length];
+		for(int i = 0; i < all.length; i++) {
+			all[i] = chunks[i] == null ? load(i) : chunks[i];
+		}
+
+		//translate each chunk's palette indices to indices in a palette shared by the whole grid
+		Map<Block, Integer> paletteIndices = new IdentityHashMap<>();
+		List<Block> palette = new ArrayList<>();
+		int[][] translation = new int[all.length][];
+		for(int i = 0; i < all.length; i++) {
+			BlockChunk chunk = all[i];
+			if(chunk != null) {
+				int[] indices = translation[i] = new int[chunk.paletteSize()];
+				for(int entry = 1; entry < indices.length; entry++) {
+					indices[entry] = paletteIndices.computeIfAbsent(chunk.paletteBlock(entry), block -> {
+						palette.add(block);
+						return palette.size();
+					});
+				}
+			}
+		}
+
+		out.writeByte(FORMAT_VERSION);
+		out.writeInteger(width);
+		out.writeInteger(height);
+		out.writeInteger(layers);
+		out.writeVarInt(palette.size());
+		for(Block block : palette) {
+			out.writeObject(block);
+		}
+
+		int current = 0, length = 0;
+		for(int layer = 0; layer < layers; layer++) {
+			for(int row = 0; row < height; row++) {
+				for(int column = 0; column < width; column++) {
+					int chunk = column >> CHUNK_SHIFT;
+					int index = all[chunk] == null ? 0 :
+						translation[chunk][all[chunk].paletteIndexAt(layer, column & CHUNK_MASK, row)];
+					if((index != current || length == Integer.MAX_VALUE) && length > 0) {
+						out.writeVarInt(length);
+						out.writeVarInt(current);
+						length = 0;
+					}
+					current = index;
+					length++;
+				}
+			}
+		}
+		if(length > 0) {
+			out.writeVarInt(length);
+			out.writeVarInt(current);
+		}
+	}
+
+	/**
+	 * Sets the generator used to fill chunks that have never been stored.
+	 * @param generator the generator, or null to create empty chunks.
+	 */
+	public void setGenerator(WorldGenerator generator) {
+		this.generator = generator;
+	}
+
+	/**
+	 * Sets the store used to hold modified chunks when they are evicted.
+	 * @param store the chunk store, or null to keep modified chunks in memory.
+	 */
+	public void setChunkStore(ChunkStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * Releases chunks that haven't been accessed since the last {@code idleSweeps} calls to this method.
+	 * Modified chunks are written to the chunk store first, and are kept in memory if there is no chunk store.
+	 * @param idleSweeps the number of calls to this method a chunk must go unaccessed to be evicted.
+	 * @return the number of chunks released.
+	 */
+	public int evictIdle(int idleSweeps) {
+		sweep++;
+		int evicted = 0;
+		for(int i = 0; i < chunks.length; i++) {
+			BlockChunk chunk = chunks[i];
+			if(chunk != null && sweep - chunk.lastAccess > idleSweeps && (!chunk.modified || store != null)) {
+				if(unsaved.get(i)) {
+					store.store(i, chunk);
+					unsaved.clear(i);
+				}
+				chunks[i] = null;
+				evicted++;
+			}
+		}
+		resident -= evicted;
+		return evicted;
+	}
+
+	/**
+	 * Writes every chunk that has been modified since it was last written to the chunk store, keeping it in memory,
+	 * so that the cost of saving depends on how much of the grid has changed rather than on the size of the grid.
+	 * @return the number of chunks written.
+	 * @throws IllegalStateException if there is no chunk store.
+	 */
+	public int storeUnsaved() {
+		if(store == null)
+			throw new IllegalStateException("grid has no chunk store");
+		int stored = 0;
+		for(int i = unsaved.nextSetBit(0); i >= 0; i = unsaved.nextSetBit(i + 1)) {
+			BlockChunk chunk = chunks[i];
+			if(chunk != null) {
+				//the store may still be writing the chunk after this grid modifies it
+				chunk.shared = true;
+				store.store(i, chunk);
+				stored++;
+			}
+		}
+		unsaved.clear();
+		return stored;
+	}
+
+	/** @return the number of chunks that have been modified since they were last written to the chunk store **/
+	public int unsavedChunks() {
+		return unsaved.cardinality();
+	}
+
+	/**
+	 * Loads the chunks containing the provided range of columns and marks them as accessed.
+	 * @param startColumn the first column, clamped to the grid.
+	 * @param endColumn the last column, inclusive, clamped to the grid.
+	 */
+	public void touch(int startColumn, int endColumn) {
+		int end = Math.min(endColumn, width - 1);
+		for(int column = Math.max(0, startColumn) >> CHUNK_SHIFT << CHUNK_SHIFT; column <= end; column += CHUNK_WIDTH) {
+			chunk(column);
 		}
-		byte[] data = Bytes.concatenate(12, blockData);
-		Bytes.putInteger(data, 0, getWidth());
-		Bytes.putInteger(data, 4, getHeight());
-		Bytes.putInteger(data, 8, layers);
-		return data;
+	}
+
+	/**
+	 * While concurrent reads are enabled, blocks can be read from multiple threads at once and can't be modified.
+	 * Chunks that aren't in memory are loaded for each read without being kept, so chunks that will be read
+	 * frequently should be loaded using {@link #touch(int, int)} first.
+	 * @param concurrent true to allow concurrent reads.
+	 */
+	public void setConcurrentReads(boolean concurrent) {
+		this.concurrentReads = concurrent;
+	}
+
+	/** @return the number of chunks that make up the grid **/
+	public int getChunkCount() {
+		return chunks.length;
+	}
+
+	/**
+	 * Returns a chunk, loading it if it isn't in memory, so that it can be sent or stored separately from the grid.
+	 * The chunk must not be modified.
+	 * @param index the index of the chunk, which contains columns starting at {@code index * CHUNK_WIDTH}.
+	 * @return the chunk, or null if it is empty.
+	 */
+	public BlockChunk getChunk(int index) {
+		Objects.checkIndex(index, chunks.length);
+		return chunk(index << CHUNK_SHIFT);
+	}
+
+	/**
+	 * Replaces a chunk, for example with one received from a server. The chunk is treated as modified.
+	 * @param index the index of the chunk, which contains columns starting at {@code index * CHUNK_WIDTH}.
+	 * @param chunk the new chunk, or null to discard the chunk, it is loaded or generated again when next accessed.
+	 * @throws IllegalArgumentException if the chunk doesn't have the same height and layers as the grid.
+	 */
+	public void setChunk(int index, BlockChunk chunk) {
+		Objects.checkIndex(index, chunks.length);
+		if(concurrentReads)
+			throw new IllegalStateException("blocks can't be modified while concurrent reads are enabled");
+		if(chunk != null && !chunk.isCompatible(this))
+			throw new IllegalArgumentException("chunk " + index + " does not match the dimensions of the grid");
+		if(chunk != null) {
+			chunk.lastAccess = sweep;
+			chunk.modified = true;
+		}
+		unsaved.set(index, chunk != null);
+		resident += (chunk == null ? 0 : 1) - (chunks[index] == null ? 0 : 1);
+		chunks[index] = chunk;
+	}
+
+	/** @return the number of chunks currently held in memory **/
+	public int residentChunks() {
+		return resident;
+	}
+
+	/** Returns the chunk containing column {@code x} or null if the chunk is empty **/
+	private BlockChunk chunk(int x) {
+		int index = x >> CHUNK_SHIFT;
+		BlockChunk chunk = chunks[index];
+		if(concurrentReads) {
+			return chunk == null ? load(index) : chunk;
+		} else if(chunk == null) {
+			chunk = load(index);
+			if(chunk == null) {
+				return null;
+			}
+			chunks[index] = chunk;
+			resident++;
+		}
+		chunk.lastAccess = sweep;
+		return chunk;
+	}
+
+	/** Returns the chunk containing column {@code x}, creating it if it is empty, and marks it modified **/
+	private BlockChunk chunkForWrite(int x) {
+		if(concurrentReads)
+			throw new IllegalStateException("blocks can't be modified while concurrent reads are enabled");
+		BlockChunk chunk = chunk(x);
+		if(chunk == null) {
+			chunk = new BlockChunk(layers, CHUNK_WIDTH, height);
+			chunk.lastAccess = sweep;
+			chunks[x >> CHUNK_SHIFT] = chunk;
+			resident++;
+		} else if(chunk.shared) {
+			chunk = chunk.copy();
+			chunks[x >> CHUNK_SHIFT] = chunk;
+		}
+		chunk.modified = true;
+		unsaved.set(x >> CHUNK_SHIFT);
+		return chunk;
+	}
+
+	/** Loads a stored chunk or generates a new one, returns null if the chunk would be empty **/
+	private BlockChunk load(int index) {
+		BlockChunk chunk = store == null ? null : store.load(index);
+		if(chunk != null) {
+			if(!chunk.isCompatible(this))
+				throw new IllegalStateException("stored chunk " + index + " does not match the dimensions of the grid");
+			chunk.shared = true;
+		} else if(generator != null) {
+			chunk = new BlockChunk(layers, CHUNK_WIDTH, height);
+			generator.generate(chunk, index << CHUNK_SHIFT);
+		}
+		return chunk;
 	}
 
 	@Override
@@ -59,7 +412,6 @@ public final class BlockGrid implements Transportable {
 				builder.append('│');
 				for(int column = 0; column < width; ++column) {
 					Block block = get(layer, column, row);
-					System.out.println(column + " " + row + " " + compute(layer, column, row));
 					builder.append(block == null ? " " : Character.toUpperCase(block.getName().charAt(0)));
 				}
 				builder.append('│').append('\n');
@@ -86,18 +438,14 @@ public final class BlockGrid implements Transportable {
 	 */
 	public Block get(int layer, int x, int y) {
 		checkValid(layer, x, y);
-		try {
-			return blocks[compute(layer, x, y)];
-		} catch(ArrayIndexOutOfBoundsException e) {
-			throw illegal(layer, x, y);
-		}
+		BlockChunk chunk = chunk(x);
+		return chunk == null ? null : chunk.get(layer, x & CHUNK_MASK, y);
 	}
 
 	private RuntimeException illegal(int layer, int x, int y) {
 		return new IllegalArgumentException("Invalid coordinates layer "
        + layer + ", pos ("  + x + ", " + y + ") in world sized "
-       + getWidth() + " X " + getHeight() + " X " + layers
-       + " layers, element " + compute(layer, x, y) + "/" + blocks.length);
+       + getWidth() + " X " + getHeight() + " X " + layers + " layers");
 	}
 
 	private int checkLayer(int layer) {
@@ -120,69 +468,19 @@ public final class BlockGrid implements Transportable {
 
 	public Block set(int layer, int x, int y, Block block) {
 		checkValid(layer, x, y);
-		try {
-			int index = compute(layer, x, y);
-			Block previous = blocks[index];
-			blocks[index] = block;
-			return previous;
-		} catch(ArrayIndexOutOfBoundsException e) {
-			throw illegal(layer, x, y);
-		}
-	}
-
-	private int firstLayerIndex(int x, int y) {
-		return layers * (width * y + x);
-	}
-
-	/** Determines the memory layout of the block grid dimensions **/
-	private int compute(int layer, int x, int y) {
-		//Want layout to be row -> column ->
-		//return width * layers * y + x * layers;
-		//get start of row: width * layers * y
-		//get offset into a single row: layers * x + layer
-		//combined: (width * layers * y) + (layers * x + layer)
-		//optimized:
-		return firstLayerIndex(x, y) + layer;
+		return chunkForWrite(x).set(layer, x & CHUNK_MASK, y, block);
 	}
 
 	/** Fills all layers of a rectangular region with the provided block instance **/
-	@Optimized("compute")
 	public void fill(Block block, int x1, int y1, int width, int height) {
-		int y2 = y1 + height;
-		int columnStart = x1 * layers;
-		int columnEnd = (x1 + width) * layers;
-		for(int row = y1; row < y2; ++row) {
-			int rowStart = this.width * layers * row;
-			Arrays.fill(blocks, rowStart + columnStart, rowStart + columnEnd, block);
+		int x2 = x1 + width;
+		for(int column = x1; column < x2;) {
+			int chunkEnd = Math.min(x2, ((column >> CHUNK_SHIFT) + 1) << CHUNK_SHIFT);
+			chunkForWrite(column).fill(block, column & CHUNK_MASK, y1, chunkEnd - column, height);
+			column = chunkEnd;
 		}
 	}
 
-//	public Iterator<Block> blockIterator(int layerLast, int layerFirst, int x, int y, int width, int height) {
-//		return new Iterator<Block>() { //TODO test this to see that it works
-//			int current;
-//			final int last;
-//
-//			{
-//
-//				last = (layerLast - layerFirst) * (width * height) - 1;
-//					//compute(layerLast, x + width, y + height);
-//			}
-//
-//			@Override
-//			public boolean hasNext() {
-//				return current < last;
-//			}
-//
-//			@Override
-//			public Block next() {
-//				//current = width * y + x + layer;
-//				//x = current - layer - width * y
-//				throw new UnsupportedOperationException("not implemented");
-//				//return null; //blocks[]; //TODO implement blockIterator
-//			}
-//		};
-//	}
-
 	public boolean place(World world, int layer, float x, float y, Block block) {
 		return place(world, layer, Math.round(x), Math.round(y), block);
 	}
@@ -196,16 +494,10 @@ public final class BlockGrid implements Transportable {
 		return false;
 	}
 
-	@Optimized("compute")
 	public boolean isBlock(int x, int y) {
 		checkValid(0, x, y);
-		int start = firstLayerIndex(x, y);
-		for(int layer = 0; layer < layers; layer++) {
-			if(blocks[start + layer] != null) {
-				return true;
-			}
-		}
-		return false;
+		BlockChunk chunk = chunk(x);
+		return chunk != null && chunk.isBlock(x & CHUNK_MASK, y);
 	}
 
 	//TODO make blocks non-nullable and use air blocks to represent absence of block.
@@ -226,37 +518,24 @@ public final class BlockGrid implements Transportable {
 		return isBlock(layer, Math.round(worldX), Math.round(worldY));
 	}
 
-	@Optimized("compute")
 	public boolean isBlockInLayers(int layerStart, int layerEnd, int x, int y) {
 		checkValid(layerStart, x, y);
-		int base = firstLayerIndex(x, y);
-		int end = base + checkLayer(layerEnd);
-		for(int index = base + layerStart; index <= end; index++) {
-			if(blocks[index] != null) {
-				return true;
-			}
-		}
-		return false;
+		checkLayer(layerEnd);
+		BlockChunk chunk = chunk(x);
+		return chunk != null && chunk.isBlockInLayers(layerStart, layerEnd, x & CHUNK_MASK, y);
 	}
 
-	@Optimized("compute")
 	public int getTopBlockLayer(int x, int y) {
 		checkValid(0, x, y);
-		int start = firstLayerIndex(x, y);
-		int end = start + layers;
-		for(int index = start; index < end; index++) {
-			if(blocks[index] != null) {
-				return index - start;
-			}
-		}
-		return INVALID_LAYER;
+		BlockChunk chunk = chunk(x);
+		return chunk == null ? INVALID_LAYER : chunk.getTopBlockLayer(x & CHUNK_MASK, y);
 	}
 
 	public boolean isSolidBlockAdjacent(int layer, int blockX, int blockY) {
-		return 	(isValid(layer, blockX + 1, blockY) && blocks[compute(layer, blockX + 1, blockY)] != null) ||
-				(isValid(layer, blockX - 1, blockY) && blocks[compute(layer, blockX - 1, blockY)] != null) ||
-				(isValid(layer, blockX, blockY + 1) && blocks[compute(layer, blockX, blockY + 1)] != null) ||
-				(isValid(layer, blockX, blockY - 1) && blocks[compute(layer, blockX, blockY - 1)] != null);
+		return 	(isValid(layer, blockX + 1, blockY) && isBlock(layer, blockX + 1, blockY)) ||
+				(isValid(layer, blockX - 1, blockY) && isBlock(layer, blockX - 1, blockY)) ||
+				(isValid(layer, blockX, blockY + 1) && isBlock(layer, blockX, blockY + 1)) ||
+				(isValid(layer, blockX, blockY - 1) && isBlock(layer, blockX, blockY - 1));
 	}
 
 	public int getWidth() {
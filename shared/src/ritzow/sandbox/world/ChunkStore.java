@@ -0,0 +1,23 @@
+package ritzow.sandbox.world;
+
+/**
+ * Storage for chunks that have been evicted from a {@link BlockGrid}, or saved using {@link BlockGrid#storeUnsaved()}.
+ * A grid never modifies a chunk after storing it or after loading it, it modifies a copy instead, so implementations
+ * may keep stored chunks and finish writing them later, and may return a chunk that is still being written from load.
+ * Implementations that perform I/O should report failures using {@link java.io.UncheckedIOException}.
+ * @author Solomon Ritzow
+ */
+public interface ChunkStore {
+	/**
+	 * @param chunkX the index of the chunk in its grid.
+	 * @return the previously stored chunk, or null if the chunk has never been stored.
+	 */
+	BlockChunk load(int chunkX);
+
+	/**
+	 * Persists a chunk so that it can be released from memory.
+	 * @param chunkX the index of the chunk in its grid.
+	 * @param chunk the chunk to store.
+	 */
+	void store(int chunkX, BlockChunk chunk);
+}
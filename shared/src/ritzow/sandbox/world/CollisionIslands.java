@@ -0,0 +1,119 @@
+package ritzow.sandbox.world;
+
+import java.util.Arrays;
+
+/**
+ * Groups entities into islands of entities that may collide with each other, directly or through other entities,
+ * so that each island can be resolved independently of the others. Islands are split into batches that each
+ * contain whole islands, with the members of each island listed in ascending order.
+ * @author Solomon Ritzow
+ */
+final class CollisionIslands {
+	private int[] parent = new int[16], counts = new int[17];
+	private int[] members = new int[16];
+	private int[] batchEnds = new int[16];
+	private int batches;
+
+	/**
+	 * Computes the islands of a set of entities.
+	 * @param size the number of entities.
+	 * @param candidateStart the index in {@code candidates} of the first candidate of each entity,
+	 * followed by the total number of candidates.
+	 * @param candidates the entities each entity may collide with.
+	 * @param batchSize the minimum number of entities in each batch except the last.
+	 */
+	void build(int size, int[] candidateStart, int[] candidates, int batchSize) {
+		if(parent.length < size) {
+			int capacity = Math.max(size, parent.length * 2);
+			parent = new int[capacity];
+			counts = new int[capacity + 1];
+			members = new int[capacity];
+		}
+
+		for(int i = 0; i < size; i++) {
+			parent[i] = i;
+		}
+
+		for(int i = 0; i < size; i++) {
+			for(int c = candidateStart[i]; c < candidateStart[i + 1]; c++) {
+				union(i, candidates[c]);
+			}
+		}
+
+		//counting sort entities by island root, preserving ascending order within each island
+		Arrays.fill(counts, 0, size + 1, 0);
+		for(int i = 0; i < size; i++) {
+			counts[find(i) + 1]++;
+		}
+		for(int root = 0; root < size; root++) {
+			counts[root + 1] += counts[root];
+		}
+
+		batches = 0;
+		int batchStart = 0;
+		for(int root = 0; root < size; root++) {
+			//islands are contiguous, so a batch can end wherever an island ends
+			if(counts[root + 1] - batchStart >= batchSize) {
+				addBatch(counts[root + 1]);
+				batchStart = counts[root + 1];
+			}
+		}
+		if(batchStart < size) {
+			addBatch(size);
+		}
+
+		for(int i = 0; i < size; i++) {
+			members[counts[parent[i]]++] = i;
+		}
+	}
+
+	int batches() {
+		return batches;
+	}
+
+	int batchStart(int batch) {
+		return batch == 0 ? 0 : batchEnds[batch - 1];
+	}
+
+	int batchEnd(int batch) {
+		return batchEnds[batch];
+	}
+
+	/** @return the entity at the provided position in the ordering of entities by island **/
+	int member(int index) {
+		return members[index];
+	}
+
+	private void addBatch(int end) {
+		if(batches == batchEnds.length) {
+			batchEnds = Arrays.copyOf(batchEnds, batches * 2);
+		}
+		batchEnds[batches++] = end;
+	}
+
+	private void union(int a, int b) {
+		int rootA = find(a), rootB = find(b);
+		if(rootA != rootB) {
+			//the lower root is kept so results don't depend on the order of unions
+			if(rootA < rootB) {
+				parent[rootB] = rootA;
+			} else {
+				parent[rootA] = rootB;
+			}
+		}
+	}
+
+	private int find(int entity) {
+		int root = entity;
+		while(parent[root] != root) {
+			root = parent[root];
+		}
+		//path compression
+		while(parent[entity] != root) {
+			int next = parent[entity];
+			parent[entity] = root;
+			entity = next;
+		}
+		return root;
+	}
+}
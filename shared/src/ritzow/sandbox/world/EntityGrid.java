@@ -0,0 +1,122 @@
+package ritzow.sandbox.world;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+import ritzow.sandbox.world.entity.Entity;
+
+/**
+ * A broad phase spatial index that hashes the bounding boxes of entities into a uniform grid of cells.
+ * Entities are identified by their position in the array the grid was built from, and queries return the keys
+ * of all entities whose bounds, as of the last build, share a cell with the query bounds. Queries may return
+ * entities that don't intersect the query bounds, so results must be checked by the caller.
+ * @author Solomon Ritzow
+ */
+final class EntityGrid {
+	/** Width and height of a cell in blocks, about the size of the largest entity **/
+	private static final float CELL_SIZE = 2;
+	private static final float CELL_SCALE = 1 / CELL_SIZE;
+
+	/** Bounds cell coordinates so that iterating over a range of cells can't overflow **/
+	private static final int MAX_CELL = 1 << 30;
+
+	/** First entry in each bucket, or -1 **/
+	private int[] heads = new int[0];
+	private int mask;
+
+	/** Next entry in the same bucket, or -1, and the key of the entity the entry refers to **/
+	private int[] next = new int[64], keys = new int[64];
+	private int entries;
+
+	private int[] results = new int[16];
+	private int resultCount;
+
+	/**
+	 * Discards the previous contents of the grid and indexes the entities in {@code entities[0..count)}.
+	 * @param entities the entities to index, an entity's key is its index in the array.
+	 * @param count the number of entities in the array.
+	 * @param filter the entities to include, or null to include all entities.
+	 */
+	void build(Entity[] entities, int count, Predicate<Entity> filter) {
+		int buckets = Math.max(64, Integer.highestOneBit(Math.max(1, count)) << 2);
+		if(heads.length != buckets) {
+			heads = new int[buckets];
+			mask = buckets - 1;
+		}
+		Arrays.fill(heads, -1);
+		entries = 0;
+		for(int key = 0; key < count; key++) {
+			Entity e = entities[key];
+			if(filter == null || filter.test(e)) {
+				float halfWidth = e.getWidth() * 0.5f, halfHeight = e.getHeight() * 0.5f;
+				float x = e.getPositionX(), y = e.getPositionY();
+				int right = cell(x + halfWidth), top = cell(y + halfHeight), bottom = cell(y - halfHeight);
+				for(int column = cell(x - halfWidth); column <= right; column++) {
+					for(int row = bottom; row <= top; row++) {
+						insert(key, bucket(column, row));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the entities that may intersect the provided bounds and have keys greater than {@code after}.
+	 * Results are sorted in ascending key order without duplicates.
+	 * @return the number of results, which can be accessed using {@link #result(int)}.
+	 */
+	int query(float left, float bottom, float right, float top, int after) {
+		resultCount = 0;
+		if(entries > 0) {
+			int columnEnd = cell(right), rowEnd = cell(top), rowStart = cell(bottom);
+			for(int column = cell(left); column <= columnEnd; column++) {
+				for(int row = rowStart; row <= rowEnd; row++) {
+					for(int entry = heads[bucket(column, row)]; entry != -1; entry = next[entry]) {
+						int key = keys[entry];
+						if(key > after) {
+							if(resultCount == results.length) {
+								results = Arrays.copyOf(results, resultCount * 2);
+							}
+							results[resultCount++] = key;
+						}
+					}
+				}
+			}
+
+			//sort and remove duplicates from entities spanning multiple cells or sharing buckets
+			if(resultCount > 1) {
+				Arrays.sort(results, 0, resultCount);
+				int unique = 1;
+				for(int i = 1; i < resultCount; i++) {
+					if(results[i] != results[unique - 1]) {
+						results[unique++] = results[i];
+					}
+				}
+				resultCount = unique;
+			}
+		}
+		return resultCount;
+	}
+
+	int result(int index) {
+		return results[index];
+	}
+
+	private void insert(int key, int bucket) {
+		if(entries == keys.length) {
+			keys = Arrays.copyOf(keys, entries * 2);
+			next = Arrays.copyOf(next, entries * 2);
+		}
+		keys[entries] = key;
+		next[entries] = heads[bucket];
+		heads[bucket] = entries++;
+	}
+
+	private static int cell(float coordinate) {
+		return Math.max(-MAX_CELL, Math.min((int)Math.floor(coordinate * CELL_SCALE), MAX_CELL));
+	}
+
+	private int bucket(int column, int row) {
+		int hash = column * 0x9E3779B1 + row * 0x85EBCA6B;
+		return (hash ^ (hash >>> 15)) & mask;
+	}
+}
@@ -1,17 +1,22 @@
 package ritzow.sandbox.world;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 import java.util.function.Predicate;
 import java.util.random.RandomGenerator;
 import java.util.random.RandomGeneratorFactory;
-import ritzow.sandbox.data.Bytes;
+import java.util.stream.IntStream;
+import ritzow.sandbox.data.DataWriter;
 import ritzow.sandbox.data.Serializer;
 import ritzow.sandbox.data.Transportable;
 import ritzow.sandbox.data.TransportableDataReader;
 import ritzow.sandbox.util.Utility;
 import ritzow.sandbox.world.block.Block;
 import ritzow.sandbox.world.entity.Entity;
+import ritzow.sandbox.world.entity.PhysicsStore;
 
 import static ritzow.sandbox.util.Utility.intersection;
 
@@ -37,6 +42,9 @@ public class World implements Transportable, Iterable<Entity> {
 	private final List<Entity> entities;
 	private final Map<Integer, Entity> entitiesID;
 
+	/** position and velocity of every entity in the world, integrated in bulk **/
+	private final PhysicsStore physics;
+
 	/** blocks in the world that collide with entities and and are rendered **/
 	private final BlockGrid blocks;
 
@@ -49,6 +57,25 @@ public class World implements Transportable, Iterable<Entity> {
 	/** For access protection during entity updates **/
 	private boolean isEntitiesUnmodifiable = false;
 
+	/** Broad phase collision indices of all entities and of entities that interact with other entities **/
+	private final EntityGrid entityGrid = new EntityGrid(), interactingGrid = new EntityGrid();
+
+	/** Entities in the order they were indexed, the key of an entity in the grids is its index **/
+	private Entity[] indexed = new Entity[16];
+	private int indexedCount;
+
+	/** True if entities have been added, removed, or updated since the grids were built **/
+	private boolean indexStale = true;
+
+	/** Entity vs entity collisions to check during the current update, entity {@code i} is checked against
+	 * the entities in {@code candidates[candidateStart[i]..candidateStart[i + 1])} **/
+	private int[] candidateStart = new int[17], candidates = new int[64];
+	private int candidateCount;
+
+	/** Runs parallel updates, or null if the world is updated on the calling thread **/
+	private ForkJoinPool pool;
+	private final CollisionIslands islands = new CollisionIslands();
+
 	private final RandomGenerator randgen = RandomGeneratorFactory.of("L64X128MixRandom").create();
 
 	/**
@@ -59,6 +86,7 @@ public class World implements Transportable, Iterable<Entity> {
 	public World(int width, int height) {
 		entities = new ArrayList<>();
 		entitiesID = new HashMap<>();
+		physics = new PhysicsStore();
 		blocks = new BlockGrid(2, width, height);
 	}
 
@@ -67,6 +95,7 @@ public class World implements Transportable, Iterable<Entity> {
 		int entityCount = reader.readInteger();
 		entities = new ArrayList<>(entityCount);
 		entitiesID = new HashMap<>(entityCount);
+		physics = new PhysicsStore(Math.max(16, entityCount));
 		int maxEntityID = 0;
 		for(int i = 0; i < entityCount; ++i) {
 			Entity e = Objects.requireNonNull(reader.readObject(), "null entities prohibited by World");
@@ -82,39 +111,43 @@ public class World implements Transportable, Iterable<Entity> {
 	}
 
 	@Override
-	public final byte[] getBytes(Serializer ser) { //needed for saving world to file as Transportable
-		return getBytesFiltered(e -> true, ser);
+	public final void write(DataWriter out) { //needed for saving world to file as Transportable
+		write(out, e -> true);
 	}
 
-	public final byte[] getBytesFiltered(Predicate<Entity> entityFilter, Serializer ser) {
-		//serialize foreground and background
-		byte[] blocksBytes = ser.serialize(blocks);
-
-		List<byte[]> elist = new ArrayList<>();
-		int totalEntityBytes = entities.stream()
-				.filter(entityFilter)
-				.map(ser::serialize)
-				.peek(elist::add)
-				.mapToInt(a -> a.length)
-				.sum();
-
-		//foreground data, background data, number of entities, entity data (size)
-		byte[] bytes = new byte[blocksBytes.length + Integer.BYTES + totalEntityBytes];
-		int index = 0;
-
-		//write foreground data
-		Bytes.copy(blocksBytes, bytes, index);
-		index += blocksBytes.length;
-
-		//write number of entities
-		Bytes.putInteger(bytes, index, elist.size());
-		index += Integer.BYTES;
+	/**
+	 * Writes the world in the same format as {@link #write(DataWriter)}, including only some of the entities.
+	 * @param out the writer to write the world to.
+	 * @param entityFilter returns true for entities that should be written.
+	 */
+	public final void write(DataWriter out, Predicate<Entity> entityFilter) {
+		out.writeObject(blocks);
+		//the number of entities is filled in after they have been written
+		int countPosition = out.reserveInteger();
+		int count = 0;
+		for(Entity e : entities) {
+			if(entityFilter.test(e)) {
+				out.writeObject(e);
+				count++;
+			}
+		}
+		out.putInteger(countPosition, count);
+	}
 
-		for(byte[] dat : elist) {
-			Bytes.copy(dat, bytes, index);
-			index += dat.length;
+	/**
+	 * Captures the current entities of the world and the dimensions of its blocks, so that they can be written on
+	 * another thread while updates continue. Chunks are saved separately using {@link BlockGrid#storeUnsaved()}.
+	 * The snapshot is read back as a world whose chunks are all loaded from its chunk store once one is set.
+	 * @param serializer the serializer used to serialize entities, which must be the one the snapshot is written with.
+	 * @return a snapshot that is written in the same format as the world.
+	 */
+	public WorldSnapshot snapshotEntities(Serializer serializer) {
+		try(DataWriter out = serializer.writer()) {
+			for(Entity e : entities) {
+				out.writeObject(e);
+			}
+			return new WorldSnapshot(blocks.dimensions(), entities.size(), out.toByteArray());
 		}
-		return bytes;
 	}
 
 	@Override
@@ -163,6 +196,8 @@ public class World implements Transportable, Iterable<Entity> {
 			if(predicate.test(next)) {
 				it.remove();
 				entitiesID.remove(next.getID());
+				physics.remove(next);
+				indexStale = true;
 				if(onRemove != null) onRemove.accept(next);
 			}
 		}
@@ -172,6 +207,11 @@ public class World implements Transportable, Iterable<Entity> {
 		return entities.size();
 	}
 
+	/** @return the number of entity pairs the broad phase of the last update found that could be colliding **/
+	public int collisionCandidates() {
+		return candidateCount;
+	}
+
 	public boolean contains(Entity e) {
 		return entities.contains(e);
 	}
@@ -200,7 +240,9 @@ public class World implements Transportable, Iterable<Entity> {
 	}
 
 	/**
-	 * Returns a collection of entities that are partially or fully within the given rectangle bounds
+	 * Returns a collection of entities that are partially or fully within the given rectangle bounds.
+	 * Entity positions changed outside of {@link #update(long)} since the last call to this method or the last update
+	 * are not guaranteed to be taken into account.
 	 * @param x the center x coordinate
 	 * @param y the center y coordinate
 	 * @param width the width of the rectangle
@@ -208,18 +250,39 @@ public class World implements Transportable, Iterable<Entity> {
 	 * @return A collection of all the entities in the defined rectangle.
 	 */
 	public Collection<Entity> getEntitiesInRectangle(float x, float y, float width, float height) {
+		if(indexStale) {
+			buildIndex();
+		}
 		Collection<Entity> col = null;
-		for(Entity e : entities) {
+		float halfWidth = width * 0.5f, halfHeight = height * 0.5f;
+		int count = entityGrid.query(x - halfWidth, y - halfHeight, x + halfWidth, y + halfHeight, -1);
+		for(int i = 0; i < count; i++) {
+			Entity e = indexed[entityGrid.result(i)];
 			if(intersection(x, y, width, height, e.getPositionX(), e.getPositionY(), e.getWidth(), e.getHeight())) {
 				if(col == null) {
 					col = new ArrayList<>();
-					col.add(e);
 				}
+				col.add(e);
 			}
 		}
 		return col == null ? Collections.emptyList() : col;
 	}
 
+	/** Indexes the current entities and their current positions in the order they are stored **/
+	private void buildIndex() {
+		int count = entities.size();
+		if(indexed.length < count) {
+			indexed = new Entity[Math.max(count, indexed.length * 2)];
+		} else if(count < indexedCount) {
+			Arrays.fill(indexed, count, indexedCount, null);
+		}
+		indexed = entities.toArray(indexed);
+		indexedCount = count;
+		entityGrid.build(indexed, count, null);
+		interactingGrid.build(indexed, count, physics::interactsWithEntities);
+		indexStale = false;
+	}
+
 	private void checkEntitiesModifiable() {
 		if(isEntitiesUnmodifiable)
 			throw new IllegalStateException("cannot add/remove from world: world is being updated");
@@ -228,6 +291,8 @@ public class World implements Transportable, Iterable<Entity> {
 	private void addEntity(Entity e) {
 		entities.add(e);
 		entitiesID.put(e.getID(), e);
+		physics.add(e);
+		indexStale = true;
 	}
 
 	/**
@@ -254,63 +319,201 @@ public class World implements Transportable, Iterable<Entity> {
 		Entity e = entitiesID.remove(entityID); //Objects.requireNonNull(, "entity not found");
 		if(!entities.remove(e))
 			throw new IllegalStateException("entity not found in list, but found in map");
+		physics.remove(e);
+		indexStale = true;
 		return e;
 	}
 
 	private static final float FRICTION_COEFFICIENT = 100_000_000_000_000_000f;
 
+	/** Extends entity bounds when querying the entity grids so that rounding can't exclude touching entities **/
+	private static final float GRID_QUERY_MARGIN = 0x1p-10f;
+
+	/** Minimum number of entities to update in parallel, and the number of entities per parallel task **/
+	private static final int PARALLEL_THRESHOLD = 512, PARALLEL_BATCH = 128;
+
+	/** Columns beyond an entity's bounds to load before a parallel update, in case collisions move the entity **/
+	private static final int CHUNK_TOUCH_MARGIN = 4;
+
+	/**
+	 * Enables or disables parallel updates. Parallel updates produce exactly the same results as serial updates,
+	 * provided that {@link Entity#update(World, long)} only modifies the entity being updated and
+	 * {@link Entity#onCollision(World, Entity, long)} only modifies the two colliding entities.
+	 * @param pool the pool to run updates on, or null to update on the calling thread.
+	 */
+	public void setParallelism(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
 	/**
 	 * Updates the entities in the world, simulating a single timestep of the provided amount.
-	 * Entities are updated, gravity is applied, entity vs entity collisions are resolved,
-	 * and entity vs block collisions are resolved. If {@code setRemoveEntities has been called},
-	 * entities that are below the bottom of the world will be removed and, if provided, the entity
-	 * remove handler will be called.
+	 * If {@code setRemoveEntities has been called}, entities that are below the bottom of the world
+	 * or flagged for deletion are removed first and, if provided, the entity remove handler is called.
+	 * Then all entities are updated, gravity and velocity are applied to all entities at once,
+	 * and finally entity vs entity and entity vs block collisions are resolved one entity at a time.
 	 * @param nanoseconds the amount of time to simulate.
 	 */
 	public final void update(long nanoseconds) {
 		isEntitiesUnmodifiable = true;
+		if(onRemove != null) {
+			removeEntities();
+		}
+
 		var entities = this.entities;
 		int size = entities.size();
-		for(int i = 0; i < size; i++) {
-			Entity e = entities.get(i);
-			//remove entities that are below the world or are flagged for deletion
-			if(onRemove != null && e.getPositionY() < 0 || e.getShouldDelete()) {
-				entitiesID.remove(e.getID());
-				onRemove.accept(entities.remove(i));
-				size--;
-			} else {
-				//update anything specific to an entity, can update position and velocity
-				e.update(this, nanoseconds);
-
-				//update position and velocity
-				e.setPositionX(Math.fma(e.getVelocityX(), nanoseconds, e.getPositionX()));
-				e.setVelocityY(Math.fma(-GRAVITY, nanoseconds, e.getVelocityY()));
-				e.setPositionY(Math.fma(e.getVelocityY(), nanoseconds, e.getPositionY()));
-
-				//check for entity vs. entity collisions with all entities that have not already been
-				//collision checked with (for first element, all entites, for last, no entities)
-				for(int j = i + 1; j < size; j++) {
-					resolveEntityCollision(e, entities.get(j), nanoseconds);
+		boolean parallel = pool != null && size >= PARALLEL_THRESHOLD;
+
+		//update anything specific to an entity, can update position and velocity
+		if(parallel) {
+			runParallel((size + PARALLEL_BATCH - 1) / PARALLEL_BATCH, batch -> {
+				int end = Math.min(size, (batch + 1) * PARALLEL_BATCH);
+				for(int i = batch * PARALLEL_BATCH; i < end; i++) {
+					entities.get(i).update(this, nanoseconds);
 				}
+			});
+		} else {
+			for(int i = 0; i < size; i++) {
+				entities.get(i).update(this, nanoseconds);
+			}
+		}
 
-				//Check for entity collisions with blocks
-				if(e.collidesWithBlocks()) {
-					float friction = resolveBlockCollisions(e, nanoseconds);
-					if(friction != 0) {
-						friction = Utility.average(e.getFriction(), friction);
-						float delta = nanoseconds / friction / FRICTION_COEFFICIENT;
-						if(e.getVelocityX() > 0) {
-							e.setVelocityX(Math.max(0, e.getVelocityX() - delta));
-						} else if(e.getVelocityX() < 0) {
-							e.setVelocityX(Math.min(e.getVelocityX() + delta, 0));
-						}
-					}
+		//update position and velocity
+		physics.integrate(nanoseconds, GRAVITY);
+
+		//only the entity whose collisions are being resolved moves, so the index only needs to be built once
+		buildIndex();
+		findCandidates(size);
+
+		if(parallel) {
+			//entities in different islands can't affect each other, so islands can be resolved concurrently
+			islands.build(size, candidateStart, candidates, PARALLEL_BATCH);
+			//load chunks ahead of time since the block grid can't load them concurrently
+			for(int i = 0; i < size; i++) {
+				Entity e = indexed[i];
+				if(physics.collidesWithBlocks(e)) {
+					float posX = e.getPositionX(), width = e.getWidth();
+					blocks.touch((int)(posX - width) - CHUNK_TOUCH_MARGIN, (int)(posX + width) + CHUNK_TOUCH_MARGIN);
 				}
 			}
+			blocks.setConcurrentReads(true);
+			try {
+				runParallel(islands.batches(), batch -> {
+					int end = islands.batchEnd(batch);
+					for(int member = islands.batchStart(batch); member < end; member++) {
+						resolveCollisions(islands.member(member), nanoseconds);
+					}
+				});
+			} finally {
+				blocks.setConcurrentReads(false);
+			}
+		} else {
+			for(int i = 0; i < size; i++) {
+				resolveCollisions(i, nanoseconds);
+			}
 		}
+		indexStale = true;
 		isEntitiesUnmodifiable = false;
 	}
 
+	private void runParallel(int tasks, IntConsumer task) {
+		pool.invoke(ForkJoinTask.adapt(() -> IntStream.range(0, tasks).parallel().forEach(task)));
+	}
+
+	/** Finds the entities each entity could collide with, based on their positions after integration **/
+	private void findCandidates(int size) {
+		if(candidateStart.length < size + 1) {
+			candidateStart = new int[Math.max(size + 1, candidateStart.length * 2)];
+		}
+		Entity[] indexed = this.indexed;
+		int total = 0;
+		for(int i = 0; i < size; i++) {
+			candidateStart[i] = total;
+			Entity e = indexed[i];
+			//check for entity vs. entity collisions with nearby entities that have not already been
+			//collision checked with, in the same order as they are stored
+			//entities that don't interact with other entities only need to be checked against those that do
+			EntityGrid grid = physics.interactsWithEntities(e) ? entityGrid : interactingGrid;
+			float halfWidth = e.getWidth() * 0.5f + GRID_QUERY_MARGIN;
+			float halfHeight = e.getHeight() * 0.5f + GRID_QUERY_MARGIN;
+			float posX = e.getPositionX(), posY = e.getPositionY();
+			int count = grid.query(posX - halfWidth, posY - halfHeight, posX + halfWidth, posY + halfHeight, i);
+			if(candidates.length < total + count) {
+				candidates = Arrays.copyOf(candidates, Math.max(total + count, candidates.length * 2));
+			}
+			for(int j = 0; j < count; j++) {
+				candidates[total++] = grid.result(j);
+			}
+		}
+		candidateStart[size] = total;
+		candidateCount = total;
+	}
+
+	/** Resolves the entity vs entity collisions and then the block collisions of a single entity **/
+	private void resolveCollisions(int index, long nanoseconds) {
+		Entity[] indexed = this.indexed;
+		Entity e = indexed[index];
+		for(int c = candidateStart[index], end = candidateStart[index + 1]; c < end; c++) {
+			resolveEntityCollision(e, indexed[candidates[c]], nanoseconds);
+		}
+
+		//Check for entity collisions with blocks
+		if(physics.collidesWithBlocks(e)) {
+			resolveBlockCollisionsAndFriction(e, nanoseconds);
+		}
+	}
+
+	private void resolveBlockCollisionsAndFriction(Entity e, long nanoseconds) {
+		float friction = resolveBlockCollisions(e, nanoseconds);
+		if(friction != 0) {
+			friction = Utility.average(e.getFriction(), friction);
+			float delta = nanoseconds / friction / FRICTION_COEFFICIENT;
+			if(e.getVelocityX() > 0) {
+				e.setVelocityX(Math.max(0, e.getVelocityX() - delta));
+			} else if(e.getVelocityX() < 0) {
+				e.setVelocityX(Math.min(e.getVelocityX() + delta, 0));
+			}
+		}
+	}
+
+	/**
+	 * Simulates a single entity by the provided amount of time the same way {@link #update(long)} does, except that
+	 * the entity only collides with blocks. The rest of the world is not updated. Used by clients to simulate their
+	 * player again after the server corrects its state.
+	 * @param e an entity in the world.
+	 * @param nanoseconds the amount of time to simulate.
+	 */
+	public final void simulate(Entity e, long nanoseconds) {
+		e.update(this, nanoseconds);
+		float time = nanoseconds;
+		e.setPositionX(Math.fma(e.getVelocityX(), time, e.getPositionX()));
+		e.setVelocityY(Math.fma(-GRAVITY, time, e.getVelocityY()));
+		e.setPositionY(Math.fma(e.getVelocityY(), time, e.getPositionY()));
+		if(e.collidesWithBlocks()) {
+			resolveBlockCollisionsAndFriction(e, nanoseconds);
+		}
+	}
+
+	/** Removes entities that are below the world or are flagged for deletion, preserving the order of the rest **/
+	private void removeEntities() {
+		var entities = this.entities;
+		int size = entities.size();
+		int kept = 0;
+		for(int i = 0; i < size; i++) {
+			Entity e = entities.get(i);
+			if(e.getPositionY() < 0 || e.getShouldDelete()) {
+				entitiesID.remove(e.getID());
+				physics.remove(e);
+				onRemove.accept(e);
+			} else {
+				entities.set(kept++, e);
+			}
+		}
+		if(kept < size) {
+			entities.subList(kept, size).clear();
+			indexStale = true;
+		}
+	}
+
 	private float resolveBlockCollisions(Entity e, long nanoseconds) {
 		BlockGrid blocks = this.blocks;
 		float posX = e.getPositionX();
@@ -0,0 +1,31 @@
+package ritzow.sandbox.world;
+
+import ritzow.sandbox.data.DataWriter;
+import ritzow.sandbox.data.Transportable;
+
+/**
+ * The entities of a World at one point in time and the dimensions of its blocks, created by
+ * {@link World#snapshotEntities(ritzow.sandbox.data.Serializer)}. A snapshot is written in the same format as
+ * a World, so it is read back as a World, and it can be written on any thread while the world it was taken from
+ * continues to be updated.
+ * @author Solomon Ritzow
+ */
+public final class WorldSnapshot implements Transportable {
+	/** The dimensions of the block grid, whose chunks are saved separately **/
+	private final BlockGrid.Dimensions blocks;
+	private final int entityCount;
+	private final byte[] entities;
+
+	WorldSnapshot(BlockGrid.Dimensions blocks, int entityCount, byte[] entities) {
+		this.blocks = blocks;
+		this.entityCount = entityCount;
+		this.entities = entities;
+	}
+
+	@Override
+	public void write(DataWriter out) {
+		out.writeObject(blocks);
+		out.writeInteger(entityCount);
+		out.writeBytes(entities);
+	}
+}
@@ -1,7 +1,6 @@
 package ritzow.sandbox.world.component;
 
-import ritzow.sandbox.data.Bytes;
-import ritzow.sandbox.data.Serializer;
+import ritzow.sandbox.data.DataWriter;
 import ritzow.sandbox.data.Transportable;
 import ritzow.sandbox.data.TransportableDataReader;
 import ritzow.sandbox.world.item.Item;
@@ -21,8 +20,11 @@ public class Inventory<T extends Item> implements Transportable {
 	}
 
 	@Override
-	public byte[] getBytes(Serializer ser) {
-		return Bytes.serializeArray(items, ser);
+	public void write(DataWriter out) {
+		out.writeInteger(items.length);
+		for(Item item : items) {
+			out.writeObject(item);
+		}
 	}
 
 	@Override
@@ -1,8 +1,7 @@
 package ritzow.sandbox.world.entity;
 
-import ritzow.sandbox.data.Bytes;
+import ritzow.sandbox.data.DataWriter;
 import ritzow.sandbox.data.DataReader;
-import ritzow.sandbox.data.Serializer;
 import ritzow.sandbox.data.Transportable;
 import ritzow.sandbox.world.World;
 import ritzow.sandbox.world.block.Block;
@@ -11,13 +10,20 @@ import ritzow.sandbox.world.component.Positional;
 public abstract class Entity implements Transportable, Positional {
 	protected final int entityID;
 
-	protected float
+	/** Physics state used while the entity isn't in a PhysicsStore **/
+	float
 		positionX,
 		positionY,
 		velocityX,
 		velocityY;
 
+	/** The store holding the physics state of the entity, or null **/
+	PhysicsStore store;
+	int slot = -1;
+
 	/**
+	 * Updates state specific to the entity. Entities may be updated concurrently with other entities in the same world,
+	 * so implementations should only modify this entity.
 	 * @param world The world the entity belongs to.
 	 * @param nanoseconds The amount of time to update the entity.
 	 */
@@ -46,14 +52,12 @@ public abstract class Entity implements Transportable, Positional {
 	}
 
 	@Override
-	public byte[] getBytes(Serializer ser) {
-		byte[] data = new byte[20];
-		Bytes.putInteger(data, 0, entityID);
-		Bytes.putFloat(data, 4, positionX);
-		Bytes.putFloat(data, 8, positionY);
-		Bytes.putFloat(data, 12, velocityX);
-		Bytes.putFloat(data, 16, velocityY);
-		return data;
+	public void write(DataWriter out) {
+		out.writeInteger(entityID);
+		out.writeFloat(getPositionX());
+		out.writeFloat(getPositionY());
+		out.writeFloat(getVelocityX());
+		out.writeFloat(getVelocityY());
 	}
 
 	public final int getID() {
@@ -68,6 +72,8 @@ public abstract class Entity implements Transportable, Positional {
 	}
 
 	/**
+	 * Called when this entity collides with another entity. Collisions in different parts of a world may be
+	 * processed concurrently, so implementations should only modify this entity and {@code e}.
 	 * @param world The world the entity belongs to.
 	 * @param e The entity that this entity collided with.
 	 * @param ns The time since last collision check.
@@ -86,13 +92,15 @@ public abstract class Entity implements Transportable, Positional {
 	/** @return true if the entity should be removed from the world **/
 	public abstract boolean getShouldDelete();
 
-	/** @return true if the entity should collide with solid blocks rather than fall through them **/
+	/** @return true if the entity should collide with solid blocks rather than fall through them,
+	 * must not change while the entity is in a world **/
 	public abstract boolean collidesWithBlocks();
 
 	/** @return true if the entity should collide with other entities rather than passing through them **/
 	public abstract boolean collidesWithEntities();
 
-	/** @return true if the entity has physics or custom collision logic with other entities **/
+	/** @return true if the entity has physics or custom collision logic with other entities,
+	 * must not change while the entity is in a world **/
 	public abstract boolean interactsWithEntities();
 
 	/** @return the roughness of the surface of the entity **/
@@ -110,51 +118,67 @@ public abstract class Entity implements Transportable, Positional {
 	/** @return the horizontal position of the of the entity in the world **/
 	@Override
 	public final float getPositionX() {
-		return positionX;
+		return store == null ? positionX : store.positionX[slot];
 	}
 
 	/** @return the vertical position of the of the entity in the world **/
 	@Override
 	public final float getPositionY() {
-		return positionY;
+		return store == null ? positionY : store.positionY[slot];
 	}
 
 	/** @return the distance the entity should move in the horizontal direction each game update **/
 	public final float getVelocityX() {
-		return velocityX;
+		return store == null ? velocityX : store.velocityX[slot];
 	}
 
 	/** @return the distance the entity should move in the vertical direction each game update **/
 	public final float getVelocityY() {
-		return velocityY;
+		return store == null ? velocityY : store.velocityY[slot];
 	}
 
 	public final void setPositionX(float positionX) {
-		this.positionX = positionX;
+		if(store == null) {
+			this.positionX = positionX;
+		} else {
+			store.positionX[slot] = positionX;
+		}
 	}
 
 	public final void setPositionY(float positionY) {
-		this.positionY = positionY;
+		if(store == null) {
+			this.positionY = positionY;
+		} else {
+			store.positionY[slot] = positionY;
+		}
 	}
 
 	public final void setVelocityX(float velocityX) {
-		this.velocityX = velocityX;
+		if(store == null) {
+			this.velocityX = velocityX;
+		} else {
+			store.velocityX[slot] = velocityX;
+		}
 	}
 
 	public final void setVelocityY(float velocityY) {
-		this.velocityY = velocityY;
+		if(store == null) {
+			this.velocityY = velocityY;
+		} else {
+			store.velocityY[slot] = velocityY;
+		}
 	}
 
 	@Override
 	public String toString() {
 		return new StringBuilder()
 			.append("positionX = ")
-			.append(positionX)
+			.append(getPositionX())
 			.append(", positionY = ")
-			.append(positionY)
+			.append(getPositionY())
 			.append(", velocityX = ")
-			.append(velocityX)
+			.append(getVelocityX())
 			.append(", velocityY = ")
-			.append(velocityY).toString();
+			.append(getVelocityY()).toString();
 	}
 }
\ No newline at end of file
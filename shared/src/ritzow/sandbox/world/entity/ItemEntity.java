@@ -1,7 +1,6 @@
 package ritzow.sandbox.world.entity;
 
-import ritzow.sandbox.data.Bytes;
-import ritzow.sandbox.data.Serializer;
+import ritzow.sandbox.data.DataWriter;
 import ritzow.sandbox.data.TransportableDataReader;
 import ritzow.sandbox.world.item.Item;
 
@@ -16,8 +15,8 @@ public class ItemEntity<ITEM extends Item> extends Entity {
 	public ItemEntity(int entityID, ITEM item, float x, float y) {
 		super(entityID);
 		this.item = item;
-		this.positionX = x;
-		this.positionY = y;
+		setPositionX(x);
+		setPositionY(y);
 	}
 
 	public ItemEntity(TransportableDataReader input) {
@@ -26,8 +25,9 @@ public class ItemEntity<ITEM extends Item> extends Entity {
 	}
 
 	@Override
-	public byte[] getBytes(Serializer ser) {
-		return Bytes.concatenate(super.getBytes(ser), ser.serialize(item));
+	public void write(DataWriter out) {
+		super.write(out);
+		out.writeObject(item);
 	}
 
 	public ITEM getItem() {
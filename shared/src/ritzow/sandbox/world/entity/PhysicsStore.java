@@ -0,0 +1,130 @@
+package ritzow.sandbox.world.entity;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Stores the position and velocity of a group of entities in parallel arrays so that they can be integrated
+ * in simple loops the JIT compiler can vectorize. While an entity is in a store, its position and velocity getters
+ * and setters read and write the store instead of the entity. Entities are stored densely in no particular order.
+ * @author Solomon Ritzow
+ */
+public final class PhysicsStore {
+	float[] positionX, positionY, velocityX, velocityY;
+	private boolean[] collidesWithBlocks, interactsWithEntities;
+	private Entity[] entities;
+	private int size;
+
+	public PhysicsStore() {
+		this(16);
+	}
+
+	public PhysicsStore(int capacity) {
+		positionX = new float[capacity];
+		positionY = new float[capacity];
+		velocityX = new float[capacity];
+		velocityY = new float[capacity];
+		collidesWithBlocks = new boolean[capacity];
+		interactsWithEntities = new boolean[capacity];
+		entities = new Entity[capacity];
+	}
+
+	/**
+	 * Moves the physics state of an entity into the store. The entity's collision flags are sampled once,
+	 * so they must not change while the entity is in the store.
+	 * @param e an entity that is not in a store.
+	 */
+	public void add(Entity e) {
+		if(e.store != null)
+			throw new IllegalStateException("entity is already in a physics store");
+		if(size == entities.length) {
+			int capacity = Math.max(16, size * 2);
+			positionX = Arrays.copyOf(positionX, capacity);
+			positionY = Arrays.copyOf(positionY, capacity);
+			velocityX = Arrays.copyOf(velocityX, capacity);
+			velocityY = Arrays.copyOf(velocityY, capacity);
+			collidesWithBlocks = Arrays.copyOf(collidesWithBlocks, capacity);
+			interactsWithEntities = Arrays.copyOf(interactsWithEntities, capacity);
+			entities = Arrays.copyOf(entities, capacity);
+		}
+		int slot = size++;
+		positionX[slot] = e.positionX;
+		positionY[slot] = e.positionY;
+		velocityX[slot] = e.velocityX;
+		velocityY[slot] = e.velocityY;
+		collidesWithBlocks[slot] = e.collidesWithBlocks();
+		interactsWithEntities[slot] = e.interactsWithEntities();
+		entities[slot] = e;
+		e.store = this;
+		e.slot = slot;
+	}
+
+	/**
+	 * Moves the physics state of an entity in this store back into the entity.
+	 * The last entity in the store takes the place of the removed entity.
+	 * @param e an entity in this store.
+	 */
+	public void remove(Entity e) {
+		if(e.store != this)
+			throw new IllegalStateException("entity is not in this physics store");
+		int slot = e.slot;
+		e.positionX = positionX[slot];
+		e.positionY = positionY[slot];
+		e.velocityX = velocityX[slot];
+		e.velocityY = velocityY[slot];
+		e.store = null;
+		e.slot = -1;
+
+		int last = --size;
+		if(slot != last) {
+			positionX[slot] = positionX[last];
+			positionY[slot] = positionY[last];
+			velocityX[slot] = velocityX[last];
+			velocityY[slot] = velocityY[last];
+			collidesWithBlocks[slot] = collidesWithBlocks[last];
+			interactsWithEntities[slot] = interactsWithEntities[last];
+			Entity moved = entities[last];
+			entities[slot] = moved;
+			moved.slot = slot;
+		}
+		entities[last] = null;
+	}
+
+	/**
+	 * Applies vertical acceleration to every entity in the store and then moves it according to its velocity.
+	 * Horizontal position is integrated using the velocity before acceleration, vertical position after.
+	 * @param nanoseconds the amount of time to simulate.
+	 * @param gravity the downward acceleration in blocks per nanosecond squared.
+	 */
+	public void integrate(long nanoseconds, float gravity) {
+		float time = nanoseconds, acceleration = -gravity;
+		float[] positionX = this.positionX, positionY = this.positionY;
+		float[] velocityX = this.velocityX, velocityY = this.velocityY;
+		int size = this.size;
+		for(int i = 0; i < size; i++) {
+			positionX[i] = Math.fma(velocityX[i], time, positionX[i]);
+		}
+		for(int i = 0; i < size; i++) {
+			velocityY[i] = Math.fma(acceleration, time, velocityY[i]);
+		}
+		for(int i = 0; i < size; i++) {
+			positionY[i] = Math.fma(velocityY[i], time, positionY[i]);
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public Entity get(int slot) {
+		return entities[Objects.checkIndex(slot, size)];
+	}
+
+	public boolean collidesWithBlocks(Entity e) {
+		return collidesWithBlocks[e.slot];
+	}
+
+	public boolean interactsWithEntities(Entity e) {
+		return interactsWithEntities[e.slot];
+	}
+}
@@ -1,8 +1,7 @@
 package ritzow.sandbox.world.entity;
 
 import java.util.Objects;
-import ritzow.sandbox.data.Bytes;
-import ritzow.sandbox.data.Serializer;
+import ritzow.sandbox.data.DataWriter;
 import ritzow.sandbox.data.TransportableDataReader;
 import ritzow.sandbox.util.Utility;
 import ritzow.sandbox.world.World;
@@ -44,32 +43,29 @@ public abstract class PlayerEntity extends Entity implements Living {
 	}
 
 	@Override
-	public byte[] getBytes(Serializer ser) {
-		byte[] superBytes = super.getBytes(ser);
-		byte[] invBytes = ser.serialize(inventory);
-		byte[] bytes = new byte[superBytes.length + invBytes.length + 4 + 1];
-		Bytes.copy(superBytes, bytes, 0);
-		Bytes.copy(invBytes, bytes, superBytes.length);
-		Bytes.putInteger(bytes, superBytes.length + invBytes.length, health);
-		bytes[superBytes.length + invBytes.length + 4] = selected;
-		return bytes;
+	public void write(DataWriter out) {
+		super.write(out);
+		out.writeObject(inventory);
+		out.writeInteger(health);
+		out.writeByte(selected);
 	}
 
 	@Override
 	public void update(World world, long ns) {
+		float velocityX = getVelocityX();
 		if(isGrounded) {
 			if(up) {
-				velocityY = JUMP_VELOCITY;
+				setVelocityY(JUMP_VELOCITY);
 			}
 			if(left && !right) {
-				velocityX = Math.max(-MOVEMENT_SPEED, Math.fma(-GROUND_ACCELERATION, ns, velocityX));
+				setVelocityX(Math.max(-MOVEMENT_SPEED, Math.fma(-GROUND_ACCELERATION, ns, velocityX)));
 			} else if(right && !left) {
-				velocityX = Math.min(MOVEMENT_SPEED, Math.fma(GROUND_ACCELERATION, ns, velocityX));
+				setVelocityX(Math.min(MOVEMENT_SPEED, Math.fma(GROUND_ACCELERATION, ns, velocityX)));
 			}
 		} else if(left && !right) {
-			velocityX = Math.max(Math.min(-AIR_MAX_SPEED, velocityX), Math.fma(-AIR_ACCELERATION, ns, velocityX));
+			setVelocityX(Math.max(Math.min(-AIR_MAX_SPEED, velocityX), Math.fma(-AIR_ACCELERATION, ns, velocityX)));
 		} else if(right && !left) {
-			velocityX = Math.min(Math.max(AIR_MAX_SPEED, velocityX), Math.fma(AIR_ACCELERATION, ns, velocityX));
+			setVelocityX(Math.min(Math.max(AIR_MAX_SPEED, velocityX), Math.fma(AIR_ACCELERATION, ns, velocityX)));
 		}
 		isGrounded = false; //in case there might not be blocks below during next update
 		super.update(world, ns);
@@ -93,7 +89,7 @@ public abstract class PlayerEntity extends Entity implements Living {
 	}
 
 	public void setDown(boolean down) {
-		if(this.down ^ down) positionY = Math.fma(SIZE_SCALE, down ? -0.5f : 0.5f, positionY);
+		if(this.down ^ down) setPositionY(Math.fma(SIZE_SCALE, down ? -0.5f : 0.5f, getPositionY()));
 		this.down = down;
 	}
 
@@ -113,6 +109,15 @@ public abstract class PlayerEntity extends Entity implements Living {
 		return down;
 	}
 
+	/** @return true if the player was standing on a block after the last update, which allows it to jump **/
+	public boolean isGrounded() {
+		return isGrounded;
+	}
+
+	public void setGrounded(boolean grounded) {
+		this.isGrounded = grounded;
+	}
+
 	public byte selected() {
 		return selected;
 	}
@@ -1,6 +1,6 @@
 package ritzow.sandbox.world.generator;
 
-import ritzow.sandbox.world.BlockGrid;
+import ritzow.sandbox.world.BlockChunk;
 import ritzow.sandbox.world.World;
 import ritzow.sandbox.world.block.DirtBlock;
 import ritzow.sandbox.world.block.GrassBlock;
@@ -58,19 +58,23 @@ public class SinusoidWorldGenerator implements WorldGenerator {
 	@Override
 	public World generate() {
 		World world = new World(width, baseHeight + terrainAmplitude + skyHeight);
-		BlockGrid blocks = world.getBlocks();
+		world.getBlocks().setGenerator(this);
+		return world;
+	}
+
+	@Override
+	public void generate(BlockChunk chunk, int x) {
 		int midpoint = terrainAmplitude/2;
 		int base = baseHeight - 1;
-		blocks.fill(DirtBlock.INSTANCE, 0, 0, blocks.getWidth(), baseHeight);
-		for(int column = 0; column < width; ++column) {
-			int max = base + midpoint + Math.round(midpoint * (float)Math.sin(column * frequency));
+		chunk.fill(DirtBlock.INSTANCE, 0, 0, chunk.getWidth(), baseHeight);
+		for(int column = 0; column < chunk.getWidth(); ++column) {
+			int max = base + midpoint + Math.round(midpoint * (float)Math.sin((x + column) * frequency));
 			for(int row = base; row < max; ++row) {
-				blocks.set(World.LAYER_MAIN, column, row, DirtBlock.INSTANCE);
-				blocks.set(World.LAYER_BACKGROUND, column, row, DirtBlock.INSTANCE);
+				chunk.set(World.LAYER_MAIN, column, row, DirtBlock.INSTANCE);
+				chunk.set(World.LAYER_BACKGROUND, column, row, DirtBlock.INSTANCE);
 			}
-			blocks.set(World.LAYER_MAIN, column, max, GrassBlock.INSTANCE);
-			blocks.set(World.LAYER_BACKGROUND, column, max, DirtBlock.INSTANCE);
+			chunk.set(World.LAYER_MAIN, column, max, GrassBlock.INSTANCE);
+			chunk.set(World.LAYER_BACKGROUND, column, max, DirtBlock.INSTANCE);
 		}
-		return world;
 	}
 }
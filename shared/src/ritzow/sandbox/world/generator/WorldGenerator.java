@@ -1,7 +1,16 @@
 package ritzow.sandbox.world.generator;
 
+import ritzow.sandbox.world.BlockChunk;
 import ritzow.sandbox.world.World;
 
 public interface WorldGenerator {
 	World generate();
+
+	/**
+	 * Fills a newly created chunk the first time its {@link ritzow.sandbox.world.BlockGrid} accesses it.
+	 * Must produce the same blocks every time it is called for the same chunk.
+	 * @param chunk the empty chunk to fill, in chunk coordinates.
+	 * @param x the grid column of the first column in the chunk.
+	 */
+	default void generate(BlockChunk chunk, int x) {}
 }
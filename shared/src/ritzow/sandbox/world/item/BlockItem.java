@@ -1,7 +1,7 @@
 package ritzow.sandbox.world.item;
 
 import java.util.Objects;
-import ritzow.sandbox.data.Serializer;
+import ritzow.sandbox.data.DataWriter;
 import ritzow.sandbox.data.TransportableDataReader;
 import ritzow.sandbox.world.block.Block;
 
@@ -17,8 +17,8 @@ public class BlockItem extends Item {
 	}
 	
 	@Override
-	public byte[] getBytes(Serializer ser) {
-		return ser.serialize(block);
+	public void write(DataWriter out) {
+		out.writeObject(block);
 	}
 	
 	public Block getBlock() {